@@ -29,6 +29,8 @@ import java.util.Set;
  * An action which the Castle tool can execute.
  */
 public abstract class Action {
+    static final int DEFAULT_READINESS_TIMEOUT_MS = 120000;
+
     /**
      * The ID of this action.
      */
@@ -63,6 +65,25 @@ public abstract class Action {
      */
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {}
 
+    /**
+     * Check whether the effects of this action are ready.
+     *
+     * After call has returned, the scheduler polls this method, and only runs
+     * the actions which come after this one once it returns true.  For example,
+     * an action which starts a daemon can return true once the daemon is
+     * accepting requests.
+     */
+    public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+        return true;
+    }
+
+    /**
+     * Get the maximum time in milliseconds to wait for this action to become ready.
+     */
+    public int readinessTimeoutMs() {
+        return DEFAULT_READINESS_TIMEOUT_MS;
+    }
+
     public ActionId id() {
         return id;
     }
@@ -22,6 +22,14 @@ public final class ActionPaths {
 
     public static final String CASTLE_ROOT = "/mnt/castle";
     public static final String CASTLE_SRC = CASTLE_ROOT + "/src";
+    public static final String DAEMON_STATE_ROOT = CASTLE_ROOT + "/daemons";
+    // Kept on the root volume, so that it survives stopping and starting an instance.
+    public static final String SETUP_MARKER_ROOT = "/var/lib/castle";
+    public static final String UBUNTU_SETUP_MARKER = SETUP_MARKER_ROOT + "/ubuntu-setup";
+    public static final String CASTLE_AGENT_START_SCRIPT = CASTLE_SRC + "/bin/castle_agent.sh";
+    public static final String CASTLE_AGENT_LOGS = LOGS_ROOT + "/castle-agent";
+    // Expanded by the remote shell.
+    public static final String CASTLE_AGENT_SECRET = "$HOME/.castle-agent-secret";
     public static final String JMX_DUMPER_START_SCRIPT = CASTLE_SRC + "/bin/jmx_dumper.sh";
     public static final String JMX_DUMPER_ROOT = "/mnt/jmx";
     public static final String JMX_DUMPER_PROPERTIES = JMX_DUMPER_ROOT  + "/jmx.conf";
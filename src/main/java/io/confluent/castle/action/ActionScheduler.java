@@ -52,6 +52,11 @@ import org.slf4j.LoggerFactory;
 public final class ActionScheduler implements AutoCloseable {
     static final Logger log = LoggerFactory.getLogger(ActionScheduler.class);
 
+    /**
+     * How often to check whether an action which has run is ready.
+     */
+    private static final long READINESS_POLL_MS = 250;
+
     /**
      * A mutable builder object used to construct the ActionScheduler.
      */
@@ -261,11 +266,12 @@ public final class ActionScheduler implements AutoCloseable {
                     CastleLog.debugToAll(String.format("** Running %s", action.id()),
                         node.log(), cluster.clusterLog());
                     action.call(cluster, node);
-                    schedulerExecutor.submit(new FinishRunningAction(action));
                 } finally {
                     nodeExecutorInfos.remove(node.nodeName());
                     runSemaphore.release();
                 }
+                new AwaitReadiness(action, node,
+                    System.currentTimeMillis() + action.readinessTimeoutMs()).run();
             } catch (Throwable throwable) {
                 String msg = "** ExecuteAction " + action.id() + " failed";
                 node.log().error(msg, throwable);
@@ -275,6 +281,45 @@ public final class ActionScheduler implements AutoCloseable {
         }
     }
 
+    /**
+     * Polls an action until it is ready, and then finishes running it.  This takes
+     * place in the context of a node executor.  Between polls, the node executor is
+     * free to run other actions.
+     */
+    private final class AwaitReadiness implements Runnable {
+        private final Action action;
+        private final CastleNode node;
+        private final long deadlineMs;
+
+        AwaitReadiness(Action action, CastleNode node, long deadlineMs) {
+            this.action = action;
+            this.node = node;
+            this.deadlineMs = deadlineMs;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (action.ready(cluster, node)) {
+                    schedulerExecutor.submit(new FinishRunningAction(action));
+                    return;
+                }
+                if (System.currentTimeMillis() >= deadlineMs) {
+                    throw new RuntimeException(action.id() + " did not become ready within " +
+                        action.readinessTimeoutMs() + " ms.");
+                }
+                log.trace("Waiting for {} to become ready.", action.id());
+                nodeExecutors.get(node.nodeName()).schedule(this,
+                    READINESS_POLL_MS, TimeUnit.MILLISECONDS);
+            } catch (Throwable throwable) {
+                String msg = "** AwaitReadiness " + action.id() + " failed";
+                node.log().error(msg, throwable);
+                cluster.clusterLog().error(msg, throwable);
+                shutdownFuture.completeExceptionally(throwable);
+            }
+        }
+    }
+
     /**
      * Finish running an action, once the Action#call method has completed.  This
      * runnable takes place in the context of the single-threaded schedulerExecutor,
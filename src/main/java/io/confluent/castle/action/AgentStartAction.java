@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.agent.AgentLink;
+import io.confluent.castle.agent.CastleAgent;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+
+import java.nio.charset.StandardCharsets;
+
+import static io.confluent.castle.action.ActionPaths.CASTLE_AGENT_LOGS;
+import static io.confluent.castle.action.ActionPaths.CASTLE_AGENT_SECRET;
+import static io.confluent.castle.action.ActionPaths.CASTLE_AGENT_START_SCRIPT;
+
+/**
+ * Starts the castle agent on a node.
+ */
+public final class AgentStartAction extends Action {
+    public final static String TYPE = "agentStart";
+
+    public AgentStartAction(String scope) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE, scope),
+                new TargetId(SourceSetupAction.TYPE, scope),
+                // An image should not capture a running agent.
+                new TargetId(AwsBakeImageAction.TYPE, scope)
+            },
+            new String[] {},
+            0);
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!cluster.conf().nodeAgent()) {
+            node.log().printf("*** Skipping %s, because the node agent is not enabled.%n", TYPE);
+            return;
+        }
+        if (!node.uplink().canLogin()) {
+            node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
+            return;
+        }
+        AgentLink link = node.uplink().agentLink();
+        if (!link.supported()) {
+            node.log().printf("*** Skipping %s, because the node agent is not " +
+                "used on this kind of node.%n", TYPE);
+            return;
+        }
+        // Don't send these commands through the agent, since we are about to restart it.
+        link.reset();
+        link.directCommand().args(CastleDaemon.AGENT.killCommandLine("SIGKILL")).mustRun();
+        link.directCommand().args(createSetupPathsCommandLine()).mustRun();
+        // Each run of the agent gets a new secret, which clients must present
+        // before the agent will do anything for them.
+        String secret = CastleAgent.generateSecret();
+        CastleAgent.writeSecret(link.secretPath(), secret);
+        link.directCommand().args(createWriteSecretCommandLine()).
+            setStdin(secret.getBytes(StandardCharsets.UTF_8)).
+            mustRun();
+        link.directCommand().args(
+            CastleDaemon.AGENT.launchCommandLine(cluster, createRunDaemonCommandLine())).mustRun();
+        link.directCommand().args(createAwaitListeningCommandLine()).mustRun();
+        link.reset();
+        if (link.client() == null) {
+            throw new RuntimeException("Unable to connect to the castle agent on " +
+                node.nodeName());
+        }
+    }
+
+    public static String[] createSetupPathsCommandLine() {
+        return new String[] {"-n", "--",
+            "sudo", "mkdir", "-p", CASTLE_AGENT_LOGS, "&&",
+            "sudo", "chown", "`whoami`", CASTLE_AGENT_LOGS};
+    }
+
+    /**
+     * Write the secret from stdin to a file which only we can read.
+     */
+    public static String[] createWriteSecretCommandLine() {
+        return new String[] {"--", "rm", "-f", CASTLE_AGENT_SECRET, "&&",
+            "(umask", "077", "&&", "cat", ">", CASTLE_AGENT_SECRET + ")"};
+    }
+
+    public static String[] createRunDaemonCommandLine() {
+        return new String[] {"-n", "--", "nohup", CASTLE_AGENT_START_SCRIPT,
+            "--secret-file", CASTLE_AGENT_SECRET,
+            "&>" + CASTLE_AGENT_LOGS + "/stdout-stderr.txt", "</dev/null", "&"
+        };
+    }
+
+    /**
+     * Wait for up to 30 seconds for the agent to start listening.
+     */
+    public static String[] createAwaitListeningCommandLine() {
+        return new String[] {"-n", "--",
+            "for", "i", "in", "$(seq", "300);", "do",
+            "(echo", ">", "/dev/tcp/127.0.0.1/" + CastleAgent.PORT + ")", "2>/dev/null",
+            "&&", "exit", "0;", "sleep", "0.1;", "done;", "exit", "1"
+        };
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.role.Role;
+
+import static io.confluent.castle.action.ActionPaths.CASTLE_AGENT_SECRET;
+import static io.confluent.castle.action.ActionPaths.DAEMON_STATE_ROOT;
+
+/**
+ * Creates an AWS image from a node which has been set up, and configures the
+ * cluster to use it.
+ *
+ * Nodes created from the image will already have the packages which
+ * UbuntuSetupAction installs, so that action can skip its work.
+ *
+ * Nodes which were started from the same image share a single new image,
+ * which is made from the first of them.  The agent secret and the daemon pid
+ * files only make sense on the node which wrote them, so they are moved out of
+ * the way while the image is being made.
+ */
+public final class AwsBakeImageAction extends Action {
+    public final static String TYPE = "bakeImage";
+
+    /**
+     * Where we keep the node's runtime files while the image is being made.
+     * This is a tmpfs, so it is not part of the image.
+     */
+    private final static String STASH_DIR = "/dev/shm/castle-bake";
+
+    private final AwsNodeRole role;
+
+    public AwsBakeImageAction(String scope, AwsNodeRole role) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE, scope),
+                new TargetId(SourceSetupAction.TYPE, scope)
+            },
+            new String[] {},
+            0);
+        this.role = role;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!node.uplink().started()) {
+            node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
+            return;
+        }
+        String oldImageId;
+        synchronized (cluster) {
+            oldImageId = role.imageId();
+            CastleNode baker = imageBaker(cluster, oldImageId);
+            if (baker != node) {
+                node.log().printf("*** Skipping %s, because %s makes the image for %s.%n",
+                    TYPE, baker.nodeName(), oldImageId);
+                return;
+            }
+        }
+        String name = String.format("castle-%s-%d", node.nodeName(), System.currentTimeMillis());
+        CastleLog.printToAll(String.format("*** %s: Creating image %s from %s.%n",
+            node.nodeName(), name, role.instanceId()), node.log(), cluster.clusterLog());
+        // The instance will not be rebooted, so this also flushes the filesystems.
+        node.uplink().command().args(createStashCommandLine()).mustRun();
+        String imageId;
+        try {
+            imageId = role.cloud(cluster).createImage(role.instanceId(), name).get();
+        } finally {
+            node.uplink().command().args(createUnstashCommandLine()).mustRun();
+        }
+        role.cloud(cluster).awaitImage(imageId).get();
+        CastleLog.printToAll(String.format("*** %s: Image %s is available.%n",
+            node.nodeName(), imageId), node.log(), cluster.clusterLog());
+
+        // Switch every node which was using the same image to the new one.
+        synchronized (cluster) {
+            for (Role originalRole : cluster.originalRoles().values()) {
+                if (originalRole instanceof AwsNodeRole) {
+                    AwsNodeRole awsRole = (AwsNodeRole) originalRole;
+                    if (awsRole.imageId().equals(oldImageId)) {
+                        awsRole.setImageId(imageId);
+                    }
+                }
+            }
+            for (CastleNode clusterNode : cluster.nodes().values()) {
+                AwsNodeRole awsRole = clusterNode.getRole(AwsNodeRole.class);
+                if ((awsRole != null) && awsRole.imageId().equals(oldImageId)) {
+                    awsRole.setImageId(imageId);
+                }
+            }
+            cluster.writeToDisk();
+        }
+    }
+
+    /**
+     * Find the node which makes the new image for the nodes started from an
+     * image.  This is the first running node, in name order, which uses it.
+     */
+    static CastleNode imageBaker(CastleCluster cluster, String imageId) {
+        for (CastleNode node : cluster.nodes().values()) {
+            AwsNodeRole awsRole = node.getRole(AwsNodeRole.class);
+            if ((awsRole != null) && awsRole.imageId().equals(imageId) &&
+                    node.uplink().started()) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move the agent secret and the daemon pid files into the stash, and flush
+     * the filesystems.
+     */
+    public static String[] createStashCommandLine() {
+        return new String[] {"-n", "--",
+            "rm", "-rf", STASH_DIR, "&&",
+            "mkdir", "-m", "700", STASH_DIR, "&&",
+            "{", "[", "!", "-e", CASTLE_AGENT_SECRET, "]", "||",
+                "mv", CASTLE_AGENT_SECRET, STASH_DIR + "/agent-secret;", "}", "&&",
+            "{", "[", "!", "-d", DAEMON_STATE_ROOT, "]", "||",
+                "mv", DAEMON_STATE_ROOT, STASH_DIR + "/daemons;", "}", "&&",
+            "sync"};
+    }
+
+    /**
+     * Put the files back from the stash.
+     */
+    public static String[] createUnstashCommandLine() {
+        return new String[] {"-n", "--",
+            "{", "[", "!", "-e", STASH_DIR + "/agent-secret", "]", "||",
+                "mv", STASH_DIR + "/agent-secret", CASTLE_AGENT_SECRET + ";", "}", "&&",
+            "{", "[", "!", "-d", STASH_DIR + "/daemons", "]", "||",
+                "mv", STASH_DIR + "/daemons", DAEMON_STATE_ROOT + ";", "}", "&&",
+            "rm", "-rf", STASH_DIR};
+    }
+}
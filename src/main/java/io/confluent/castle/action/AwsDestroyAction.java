@@ -44,7 +44,7 @@ public final class AwsDestroyAction extends Action {
             return;
         }
         node.uplink().shutdown().get();
-        role.setPublicDns("");
+        role.setPrivateDns("");
         role.setPublicDns("");
         role.setInstanceId("");
         cluster.shutdownManager().addHookIfMissing(new CastleWriteClusterFileHook(cluster));
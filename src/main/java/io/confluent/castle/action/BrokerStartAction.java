@@ -31,12 +31,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.KAFKA_CONF;
 import static io.confluent.castle.action.ActionPaths.KAFKA_OPLOGS;
 import static io.confluent.castle.action.ActionPaths.KAFKA_ROOT;
-import static io.confluent.castle.role.BrokerRole.KAFKA_CLASS_NAME;
 import static io.confluent.castle.action.ActionPaths.KAFKA_LOGS;
 
 /**
@@ -64,30 +62,43 @@ public final class BrokerStartAction extends Action {
             DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
             configFile = writeBrokerConfig(expander, cluster, node);
             log4jFile = writeBrokerLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, KAFKA_CLASS_NAME, true);
+            CastleDaemon.BROKER.kill(cluster, node, "SIGKILL");
             node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 ActionPaths.KAFKA_BROKER_PROPERTIES).mustRun();
             node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
                 ActionPaths.KAFKA_BROKER_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
+            CastleDaemon.BROKER.launch(cluster, node, createRunDaemonCommandLine());
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
             CastleUtil.deleteFileOrLog(node.log(), log4jFile);
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(KAFKA_CLASS_NAME)).run();
-            }
-        });
+        CastleDaemon.BROKER.waitForRunning(node);
+    }
+
+    /**
+     * The broker is ready once it has logged that it has started, which happens
+     * after it registers in ZooKeeper, and is accepting connections.
+     */
+    @Override
+    public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+        return 0 == node.uplink().command().args(createCheckStartedCommandLine()).run();
+    }
+
+    public static String[] createCheckStartedCommandLine() {
+        return new String[] {"-n", "--", "grep", "-qF", "'started (kafka.server.KafkaServer)'",
+            KAFKA_LOGS + "/server.log", "&&",
+            "(echo", ">", "/dev/tcp/localhost/" + BrokerRole.PORT + ")", "2>/dev/null"};
     }
 
     public static String[] createSetupPathsCommandLine() {
+        // Empty the data directory rather than removing it, since it may be
+        // a mount point.
         return new String[] {"-n", "--",
-            "sudo", "rm", "-rf", KAFKA_OPLOGS, KAFKA_LOGS, KAFKA_CONF, "&&",
-            "sudo", "mkdir", "-p", KAFKA_OPLOGS, KAFKA_LOGS, KAFKA_CONF, "&&",
+            "sudo", "mkdir", "-p", KAFKA_OPLOGS, "&&",
+            "sudo", "find", KAFKA_OPLOGS, "-mindepth", "1", "-delete", "&&",
+            "sudo", "rm", "-rf", KAFKA_LOGS, KAFKA_CONF, "&&",
+            "sudo", "mkdir", "-p", KAFKA_LOGS, KAFKA_CONF, "&&",
             "sudo", "chown", "`whoami`", KAFKA_ROOT, KAFKA_OPLOGS, KAFKA_LOGS, KAFKA_CONF};
     }
 
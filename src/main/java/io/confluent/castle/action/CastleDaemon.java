@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.agent.CastleAgent;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.DaemonSupervision;
+import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.role.BrokerRole;
+import io.confluent.castle.role.CollectdRole;
+import io.confluent.castle.role.JmxDumperRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.role.SchemaRegistryRole;
+import io.confluent.castle.role.TrogdorAgentRole;
+import io.confluent.castle.role.TrogdorCoordinatorRole;
+import io.confluent.castle.role.ZooKeeperRole;
+import io.confluent.castle.tool.CastleReturnCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static io.confluent.castle.action.ActionPaths.DAEMON_STATE_ROOT;
+
+/**
+ * A daemon which castle runs on cluster nodes.
+ *
+ * When castle launches a daemon, it records the daemon's pid and start time
+ * in a state file on the node.  Status checks and kills read that file and
+ * look at /proc directly, rather than scanning the output of jcmd or ps.
+ * Checking the start time guards against pid reuse.  If there is no state
+ * file (for example, because the daemon was started by an older version of
+ * castle), we fall back to searching the process command lines in /proc.
+ *
+ * If the cluster configuration asks for the daemon to be supervised, we run
+ * it in a transient systemd unit instead, and record the unit name in the
+ * state file.  The unit's main pid and exit status then come from systemd.
+ */
+public final class CastleDaemon {
+    /**
+     * The systemd properties which we report for supervised daemons.
+     */
+    private static final String UNIT_PROPERTIES =
+        "-p ActiveState -p Result -p ExecMainCode -p ExecMainStatus -p NRestarts";
+
+    /**
+     * How often to check whether a daemon has started.  Each check is a
+     * remote command, so there is no point in checking much more often.
+     */
+    private static final int RUNNING_POLL_INTERVAL_MS = 200;
+
+    private final String name;
+    private final Class<? extends Role> roleClass;
+    private final String processPattern;
+
+    private CastleDaemon(String name, Class<? extends Role> roleClass, String processPattern) {
+        this.name = name;
+        this.roleClass = roleClass;
+        this.processPattern = processPattern;
+    }
+
+    /**
+     * Get the daemons which the roles of a node run.
+     */
+    public static List<CastleDaemon> forNode(CastleNode node) {
+        List<CastleDaemon> daemons = new ArrayList<>();
+        for (CastleDaemon daemon : ALL) {
+            if (node.getRole(daemon.roleClass) != null) {
+                daemons.add(daemon);
+            }
+        }
+        return daemons;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String processPattern() {
+        return processPattern;
+    }
+
+    public String stateFile() {
+        return DAEMON_STATE_ROOT + "/" + name + ".pid";
+    }
+
+    public String unitName() {
+        return "castle-" + name;
+    }
+
+    /**
+     * Wrap a command line which runs the daemon in the background, so that
+     * the pid and start time of the daemon get recorded.  If the daemon is
+     * supervised, it will be run in a systemd unit instead.
+     *
+     * @param cluster               The cluster.
+     * @param runDaemonCommandLine  The command line.  It must end with "&".
+     */
+    public String[] launchCommandLine(CastleCluster cluster, String[] runDaemonCommandLine) {
+        List<String> run = new ArrayList<>(Arrays.asList(runDaemonCommandLine));
+        while ((!run.isEmpty()) && (run.get(0).equals("-n") || run.get(0).equals("--"))) {
+            run.remove(0);
+        }
+        if (run.isEmpty() || !run.get(run.size() - 1).equals("&")) {
+            throw new RuntimeException("The command line for " + name +
+                " must run the daemon in the background.");
+        }
+        List<String> args = new ArrayList<>(Arrays.asList("-n", "--",
+            "sudo", "mkdir", "-p", DAEMON_STATE_ROOT, "&&",
+            "sudo", "chown", "`whoami`", DAEMON_STATE_ROOT, ";"));
+        DaemonSupervision supervision = cluster.conf().supervision().get(name);
+        if (supervision == null) {
+            args.addAll(run);
+            args.addAll(Arrays.asList("echo", "$!", "$(cut -d' ' -f22 /proc/$!/stat)",
+                ">", stateFile()));
+        } else {
+            args.addAll(supervisedCommandLine(supervision, run.subList(0, run.size() - 1)));
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Launch the daemon on a node.
+     *
+     * @param cluster               The cluster.
+     * @param node                  The node.
+     * @param runDaemonCommandLine  The command line.  It must end with "&".
+     */
+    public void launch(CastleCluster cluster, CastleNode node,
+                       String[] runDaemonCommandLine) throws Exception {
+        try {
+            node.uplink().command().args(launchCommandLine(cluster, runDaemonCommandLine)).mustRun();
+        } finally {
+            cluster.daemonStatusCollector().invalidate(node);
+        }
+    }
+
+    private List<String> supervisedCommandLine(DaemonSupervision supervision, List<String> run) {
+        if ((!run.isEmpty()) && run.get(0).equals("nohup")) {
+            run = run.subList(1, run.size());
+        }
+        // The daemon command runs under bash -c, so that its redirections and
+        // environment assignments still work.  It is exec'ed so that it becomes
+        // the main process of the unit.
+        String script = "exec " + CastleUtil.join(run, " ");
+        // Transient units are normally removed as soon as they exit cleanly,
+        // which would lose their Result and ExecMainStatus.  RemainAfterExit
+        // keeps the unit around, so we have to stop and reset any previous
+        // unit before starting a new one.
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "sudo", "systemctl", "stop", unitName(), "2>/dev/null;",
+            "sudo", "systemctl", "reset-failed", unitName(), "2>/dev/null;",
+            "sudo", "systemd-run", "--unit=" + unitName(), "--uid=`whoami`",
+            "-p", "RemainAfterExit=yes"));
+        args.addAll(supervision.systemdRunArgs());
+        args.addAll(Arrays.asList("/bin/bash", "-c", "'" + script.replace("'", "'\\''") + "'",
+            "&&", "echo", "unit", unitName(), ">", stateFile()));
+        return args;
+    }
+
+    /**
+     * Create a shell fragment which sets $p to the pids of the daemon.  If the
+     * daemon runs in a systemd unit, $u is set to the unit name, and $x to the
+     * unit's state.
+     */
+    String findPidsScript() {
+        // Enclose the first character of the pattern in brackets, so that
+        // the pattern doesn't match the command line of the shell running it.
+        // For the same reason, we quote the first character of the daemon
+        // name wherever it appears in the script.
+        String pattern = "[" + processPattern.substring(0, 1) + "]" + processPattern.substring(1);
+        return String.format("f=%s/%s.pid; p=; u=; x=; " +
+            "if [ -f $f ]; then " +
+                "read p s < $f; " +
+                "if [ \"$p\" = unit ]; then " +
+                    "u=$s; " +
+                    "p=$(systemctl show -p MainPID $u | cut -d= -f2); " +
+                    "[ \"$p\" != 0 ] || p=; " +
+                    "x=$(systemctl show %s $u | tr '\\n' ' '); " +
+                "else " +
+                    "[ -n \"$s\" ] && [ \"$(cut -d' ' -f22 /proc/$p/stat 2>/dev/null)\" = \"$s\" ] || p=; " +
+                "fi; " +
+            "else " +
+                "p=$(grep -lsa -- '%s' /proc/[0-9]*/cmdline | cut -d/ -f3 | tr '\\n' ' '); " +
+            "fi; ", DAEMON_STATE_ROOT, quotedName(), UNIT_PROPERTIES, pattern);
+    }
+
+    private String quotedName() {
+        return "'" + name.substring(0, 1) + "'" + name.substring(1);
+    }
+
+    /**
+     * Get the status of some daemons on a node, using a single remote command.
+     */
+    public static Map<CastleDaemon, DaemonStatus> status(CastleNode node,
+                Collection<CastleDaemon> daemons) throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (CastleDaemon daemon : daemons) {
+            script.append(daemon.findPidsScript());
+            script.append(String.format("echo %s $p \"|$x\"; ", daemon.quotedName()));
+        }
+        StringBuilder output = new StringBuilder();
+        int retVal = node.uplink().command().
+            args("-n", "--", script.toString()).
+            captureOutput(output).
+            setCaptureStderr(false).
+            run();
+        if (retVal != 0) {
+            throw new RuntimeException(String.format("%s: unable to get the status " +
+                "of %s: error %d", node.nodeName(), CastleUtil.join(daemons, ", "), retVal));
+        }
+        Map<String, DaemonStatus> statusByName = new HashMap<>();
+        for (String line : output.toString().split("\n")) {
+            int separator = line.indexOf('|');
+            if (separator < 0) {
+                continue;
+            }
+            String[] fields = line.substring(0, separator).trim().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
+            }
+            List<Integer> pids = new ArrayList<>();
+            for (int i = 1; i < fields.length; i++) {
+                pids.add(Integer.valueOf(fields[i]));
+            }
+            Map<String, String> unit = new TreeMap<>();
+            for (String property : line.substring(separator + 1).trim().split("\\s+")) {
+                int equals = property.indexOf('=');
+                if (equals > 0) {
+                    unit.put(property.substring(0, equals), property.substring(equals + 1));
+                }
+            }
+            statusByName.put(fields[0], new DaemonStatus(fields[0], pids, unit));
+        }
+        Map<CastleDaemon, DaemonStatus> results = new HashMap<>();
+        for (CastleDaemon daemon : daemons) {
+            DaemonStatus status = statusByName.get(daemon.name());
+            if (status == null) {
+                throw new RuntimeException(String.format("%s: no status was returned for %s",
+                    node.nodeName(), daemon.name()));
+            }
+            results.put(daemon, status);
+        }
+        return results;
+    }
+
+    public DaemonStatus status(CastleNode node) throws Exception {
+        return status(node, Collections.singleton(this)).get(this);
+    }
+
+    /**
+     * Get the status of this daemon from the cluster's daemon status
+     * collector, log it to the cluster log, and translate it into a return
+     * code.
+     */
+    public CastleReturnCode checkStatus(CastleCluster cluster, CastleNode node) {
+        DaemonStatus status;
+        try {
+            status = cluster.daemonStatusCollector().status(node, this);
+        } catch (Exception e) {
+            cluster.clusterLog().printf("%s: Unable to determine if %s is running: %s%n",
+                node.nodeName(), name, e.getMessage());
+            return CastleReturnCode.TOOL_FAILED;
+        }
+        return logStatus(cluster, node, status);
+    }
+
+    CastleReturnCode logStatus(CastleCluster cluster, CastleNode node, DaemonStatus status) {
+        String unit = status.unit().isEmpty() ? "" :
+            String.format(" (%s: %s)", unitName(), CastleUtil.join(unitProperties(status), ", "));
+        if (!status.running()) {
+            cluster.clusterLog().printf("%s: %s is not running.%s%n", node.nodeName(), name, unit);
+            return CastleReturnCode.CLUSTER_FAILED;
+        }
+        cluster.clusterLog().printf("%s: %s is running as pid %s%s%n",
+            node.nodeName(), name, CastleUtil.join(status.pids(), " "), unit);
+        return CastleReturnCode.SUCCESS;
+    }
+
+    private static List<String> unitProperties(DaemonStatus status) {
+        List<String> properties = new ArrayList<>();
+        for (Map.Entry<String, String> entry : status.unit().entrySet()) {
+            properties.add(entry.getKey() + "=" + entry.getValue());
+        }
+        return properties;
+    }
+
+    /**
+     * Send a signal to some daemons on a node, using a single remote command.
+     *
+     * @param cluster   The cluster.
+     * @param node      The node.
+     * @param daemons   The daemons to signal.
+     * @param signal    The signal name, such as SIGTERM or SIGKILL.
+     */
+    public static void kill(CastleCluster cluster, CastleNode node,
+                            Collection<CastleDaemon> daemons, String signal) throws Exception {
+        try {
+            node.uplink().command().args(killCommandLine(daemons, signal)).mustRun();
+        } finally {
+            cluster.daemonStatusCollector().invalidate(node);
+        }
+    }
+
+    public void kill(CastleCluster cluster, CastleNode node, String signal) throws Exception {
+        kill(cluster, node, Collections.singleton(this), signal);
+    }
+
+    /**
+     * Create a command line which sends a signal to some daemons.
+     *
+     * @param daemons   The daemons to signal.
+     * @param signal    The signal name, such as SIGTERM or SIGKILL.
+     */
+    public static String[] killCommandLine(Collection<CastleDaemon> daemons, String signal) {
+        String signalName = signal.startsWith("SIG") ? signal.substring(3) : signal;
+        // Killing the main process of a unit which restarts on failure would
+        // just restart it, so stop the unit as well when terminating it.
+        String stopUnit = (signalName.equals("TERM") || signalName.equals("KILL")) ?
+            "sudo systemctl stop $u 2>/dev/null; " : "";
+        // Like xargs kill, fail if any kill fails, but only after trying them all.
+        StringBuilder script = new StringBuilder("r=0; ");
+        for (CastleDaemon daemon : daemons) {
+            script.append(daemon.findPidsScript());
+            script.append(String.format("if [ -n \"$u\" ]; then " +
+                "sudo systemctl kill -s %s $u 2>/dev/null; %s" +
+                "else " +
+                    "[ -z \"$p\" ] || kill -s %s $p || r=1; " +
+                "fi; ", signalName, stopUnit, signalName));
+        }
+        script.append("exit $r");
+        return new String[] {"-n", "--", script.toString()};
+    }
+
+    public String[] killCommandLine(String signal) {
+        return killCommandLine(Collections.singleton(this), signal);
+    }
+
+    /**
+     * Wait for the daemon to be running.
+     */
+    public void waitForRunning(final CastleNode node) throws Exception {
+        CastleUtil.waitFor(RUNNING_POLL_INTERVAL_MS, 30000, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return status(node).running();
+            }
+
+            @Override
+            public String toString() {
+                return name + " to start on " + node.nodeName();
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    public static final CastleDaemon BROKER =
+        new CastleDaemon("broker", BrokerRole.class,
+            BrokerRole.KAFKA_CLASS_NAME);
+
+    public static final CastleDaemon ZOOKEEPER =
+        new CastleDaemon("zookeeper", ZooKeeperRole.class,
+            ZooKeeperRole.ZOOKEEPER_CLASS_NAME);
+
+    public static final CastleDaemon SCHEMA_REGISTRY =
+        new CastleDaemon("schema-registry", SchemaRegistryRole.class,
+            SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME);
+
+    public static final CastleDaemon TROGDOR_AGENT =
+        new CastleDaemon("trogdor-agent", TrogdorAgentRole.class,
+            TrogdorDaemonType.AGENT.className());
+
+    public static final CastleDaemon TROGDOR_COORDINATOR =
+        new CastleDaemon("trogdor-coordinator", TrogdorCoordinatorRole.class,
+            TrogdorDaemonType.COORDINATOR.className());
+
+    public static final CastleDaemon JMX_DUMPER =
+        new CastleDaemon("jmx-dumper", JmxDumperRole.class,
+            JmxDumperRole.CLASS_NAME);
+
+    public static final CastleDaemon COLLECTD =
+        new CastleDaemon("collectd", CollectdRole.class,
+            ActionPaths.COLLECTD);
+
+    /**
+     * The castle agent.  It is started when the cluster enables the node
+     * agent, rather than by a role, so it is not part of ALL.
+     */
+    public static final CastleDaemon AGENT =
+        new CastleDaemon("agent", null, CastleAgent.class.getName());
+
+    public static final List<CastleDaemon> ALL = Collections.unmodifiableList(Arrays.asList(
+        BROKER, ZOOKEEPER, SCHEMA_REGISTRY, TROGDOR_AGENT, TROGDOR_COORDINATOR,
+        JMX_DUMPER, COLLECTD));
+}
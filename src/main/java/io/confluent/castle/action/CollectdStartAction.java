@@ -52,11 +52,11 @@ public final class CollectdStartAction extends Action {
         File configFile = null, log4jFile = null;
         try {
             configFile = writeCollectdConfig(cluster, node);
-            CastleUtil.killProcess(cluster, node, COLLECTD, "SIGKILL");
+            CastleDaemon.COLLECTD.kill(cluster, node, "SIGKILL");
             node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 COLLECTD_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
+            CastleDaemon.COLLECTD.launch(cluster, node, createRunDaemonCommandLine());
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
             CastleUtil.deleteFileOrLog(node.log(), log4jFile);
@@ -19,11 +19,8 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.CollectdRole;
 
-import static io.confluent.castle.action.ActionPaths.COLLECTD;
-
 /**
  * Gets the status of the collectd monitoring tool.
  */
@@ -40,6 +37,6 @@ public final class CollectdStatusAction extends Action {
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getProcessStatus(cluster, node, COLLECTD));
+            CastleDaemon.COLLECTD.checkStatus(cluster, node));
     }
 }
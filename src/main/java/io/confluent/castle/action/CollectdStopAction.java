@@ -19,11 +19,8 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.CollectdRole;
 
-import static io.confluent.castle.action.ActionPaths.COLLECTD;
-
 /**
  * Stop the collectd monitoring system.
  */
@@ -45,8 +42,8 @@ public final class CollectdStopAction extends Action {
             return;
         }
         // Flush the collectd cache
-        CastleUtil.killProcess(cluster, node, COLLECTD, "SIGUSR1");
+        CastleDaemon.COLLECTD.kill(cluster, node, "SIGUSR1");
         Thread.sleep(COLLECTD_STOP_DELAY_MS);
-        CastleUtil.killProcess(cluster, node, COLLECTD);
+        CastleDaemon.COLLECTD.kill(cluster, node, "SIGTERM");
     }
 }
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The status of a daemon on a node.
+ */
+public final class DaemonStatus {
+    private final String daemon;
+    private final List<Integer> pids;
+
+    /**
+     * The systemd properties of the daemon's unit, such as ActiveState and
+     * Result.  Empty if the daemon isn't supervised.
+     */
+    private final Map<String, String> unit;
+
+    @JsonCreator
+    public DaemonStatus(@JsonProperty("daemon") String daemon,
+                        @JsonProperty("pids") List<Integer> pids,
+                        @JsonProperty("unit") Map<String, String> unit) {
+        this.daemon = daemon == null ? "" : daemon;
+        this.pids = pids == null ? Collections.<Integer>emptyList() :
+            Collections.unmodifiableList(new ArrayList<>(pids));
+        this.unit = unit == null ? Collections.<String, String>emptyMap() :
+            Collections.unmodifiableMap(new TreeMap<>(unit));
+    }
+
+    @JsonProperty
+    public String daemon() {
+        return daemon;
+    }
+
+    @JsonProperty
+    public List<Integer> pids() {
+        return pids;
+    }
+
+    @JsonProperty
+    public Map<String, String> unit() {
+        return unit;
+    }
+
+    public boolean running() {
+        return !pids.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DaemonStatus(daemon=" + daemon + ", pids=" + pids + ", unit=" + unit + ")";
+    }
+}
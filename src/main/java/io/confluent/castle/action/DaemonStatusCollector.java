@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the status of the daemons on each node.
+ *
+ * The first time the status of a daemon on a node is requested, we query all
+ * of the daemons for the roles of that node with a single remote command.
+ * Subsequent requests for the same node are answered from the stored result,
+ * until a daemon on the node is started or stopped.  Failures are not
+ * stored, so the next request tries again.  There is one collector per castle
+ * run, so that the status actions for each role don't need to contact the
+ * node separately.
+ */
+public final class DaemonStatusCollector {
+    interface StatusFetcher {
+        Map<CastleDaemon, DaemonStatus> fetch(CastleNode node) throws Exception;
+    }
+
+    private final StatusFetcher fetcher;
+
+    private final Map<String, NodeStatuses> nodes = new HashMap<>();
+
+    private final class NodeStatuses {
+        private final CastleNode node;
+        private Map<CastleDaemon, DaemonStatus> statuses = null;
+
+        NodeStatuses(CastleNode node) {
+            this.node = node;
+        }
+
+        synchronized Map<CastleDaemon, DaemonStatus> get() throws Exception {
+            if (statuses == null) {
+                statuses = fetcher.fetch(node);
+            }
+            return statuses;
+        }
+    }
+
+    public DaemonStatusCollector() {
+        this(DaemonStatusCollector::fetchStatuses);
+    }
+
+    DaemonStatusCollector(StatusFetcher fetcher) {
+        this.fetcher = fetcher;
+    }
+
+    private static Map<CastleDaemon, DaemonStatus> fetchStatuses(CastleNode node) throws Exception {
+        List<CastleDaemon> daemons = CastleDaemon.forNode(node);
+        return daemons.isEmpty() ?
+            Collections.<CastleDaemon, DaemonStatus>emptyMap() :
+            CastleDaemon.status(node, daemons);
+    }
+
+    private synchronized NodeStatuses nodeStatuses(CastleNode node) {
+        NodeStatuses nodeStatuses = nodes.get(node.nodeName());
+        if (nodeStatuses == null) {
+            nodeStatuses = new NodeStatuses(node);
+            nodes.put(node.nodeName(), nodeStatuses);
+        }
+        return nodeStatuses;
+    }
+
+    /**
+     * Forget the stored statuses for a node.  This should be called whenever
+     * a daemon on the node is started or stopped.
+     */
+    public synchronized void invalidate(CastleNode node) {
+        nodes.remove(node.nodeName());
+    }
+
+    /**
+     * Get the status of all the daemons for the roles of a node.
+     */
+    public Map<CastleDaemon, DaemonStatus> statuses(CastleNode node) throws Exception {
+        return nodeStatuses(node).get();
+    }
+
+    /**
+     * Get the status of a daemon on a node.
+     *
+     * If the daemon doesn't belong to any of the roles of the node, it is
+     * queried separately.
+     */
+    public DaemonStatus status(CastleNode node, CastleDaemon daemon) throws Exception {
+        DaemonStatus status = statuses(node).get(daemon);
+        if (status == null) {
+            status = daemon.status(node);
+        }
+        return status;
+    }
+}
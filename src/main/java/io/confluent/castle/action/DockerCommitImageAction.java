@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cloud.DockerCloud;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.DockerNodeRole;
+import io.confluent.castle.uplink.DockerUplink;
+
+/**
+ * Saves a Docker container which has been set up as a cached image.
+ *
+ * Containers which are created later with the same base image and setup
+ * start from the cached image, so UbuntuSetupAction can skip its work.
+ * The commit waits for every setup action on the node, so that the image
+ * always includes the additional files.
+ */
+public final class DockerCommitImageAction extends Action {
+    public final static String TYPE = "dockerCommitImage";
+
+    private final DockerNodeRole role;
+
+    public DockerCommitImageAction(String scope, DockerNodeRole role) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE, scope),
+                new TargetId(SourceSetupAction.TYPE, scope),
+                new TargetId(CopyAdditionalFilesAction.TYPE, scope),
+                new TargetId(StorageSetupAction.TYPE, scope)
+            },
+            new String[] {},
+            0);
+        this.role = role;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!role.cacheImages()) {
+            return;
+        }
+        if (!node.uplink().started()) {
+            node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
+            return;
+        }
+        DockerUplink uplink = (DockerUplink) node.uplink();
+        String tag = uplink.cachedImageTag();
+        if (uplink.cloud().commitImage(node, role.containerName(), tag)) {
+            CastleLog.printToAll(String.format("*** %s: Saved %s as image %s:%s.%n",
+                node.nodeName(), role.containerName(), DockerCloud.IMAGE_CACHE_REPO, tag),
+                node.log(), cluster.clusterLog());
+        } else {
+            node.log().printf("*** Image %s:%s already exists.%n",
+                DockerCloud.IMAGE_CACHE_REPO, tag);
+        }
+    }
+}
@@ -24,6 +24,9 @@ import io.confluent.castle.tool.CastleReturnCode;
 import io.confluent.castle.tool.CastleShutdownHook;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
 
@@ -87,16 +90,18 @@ public final class DockerInitAction extends Action {
             }
         }
 
+        @SuppressWarnings("rawtypes")
         private synchronized void terminateInstances() throws Throwable {
-            boolean terminatedInstances = false;
+            // Start all the shutdowns before waiting, so that they are removed as a batch.
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
             for (CastleNode node : cluster.nodes().values()) {
                 DockerNodeRole dockerRole = node.getRole(DockerNodeRole.class);
                 if ((dockerRole != null) && (!dockerRole.containerName().isEmpty())) {
-                    node.uplink().shutdown().get();
-                    terminatedInstances = true;
+                    futures.add(node.uplink().shutdown());
                 }
             }
-            if (terminatedInstances) {
+            if (!futures.isEmpty()) {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
                 cluster.clusterLog().info("*** Terminated docker nodes.");
             }
         }
@@ -53,11 +53,11 @@ public final class JmxDumperStartAction extends Action {
         File configFile = null;
         try {
             configFile = writeJmxDumperConf(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, JmxDumperRole.CLASS_NAME, true);
+            CastleDaemon.JMX_DUMPER.kill(cluster, node, "SIGKILL");
             node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 JMX_DUMPER_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
+            CastleDaemon.JMX_DUMPER.launch(cluster, node, createRunDaemonCommandLine());
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
         }
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.JmxDumperRole;
 
 /**
@@ -38,6 +37,6 @@ public final class JmxDumperStatusAction extends Action {
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, JmxDumperRole.CLASS_NAME));
+            CastleDaemon.JMX_DUMPER.checkStatus(cluster, node));
     }
 }
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.JmxDumperRole;
 
 /**
@@ -41,6 +40,6 @@ public final class JmxDumperStopAction extends Action {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
         }
-        CastleUtil.killJavaProcess(cluster, node, JmxDumperRole.CLASS_NAME, false);
+        CastleDaemon.JMX_DUMPER.kill(cluster, node, "SIGTERM");
     }
 }
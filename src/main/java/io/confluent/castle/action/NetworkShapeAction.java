@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.NetworkProfile;
+import io.confluent.castle.role.NetworkShapeRole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shapes the traffic which a node sends, using tc netem.
+ *
+ * This replaces any shaping which was applied before, so it can be run again
+ * after changing the cluster file to try a different profile.
+ */
+public final class NetworkShapeAction extends Action {
+    public final static String TYPE = "networkShape";
+
+    /**
+     * The maximum number of bands which the prio qdisc supports.
+     */
+    private final static int MAX_BANDS = 16;
+
+    private final NetworkShapeRole role;
+
+    public NetworkShapeAction(String scope, NetworkShapeRole role) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE, scope)
+            },
+            new String[] {},
+            0);
+        this.role = role;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!node.uplink().canLogin()) {
+            node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
+            return;
+        }
+        Map<String, NetworkProfile> links = new TreeMap<>();
+        for (Map.Entry<String, NetworkProfile> entry : role.linkProfiles().entrySet()) {
+            CastleNode destination = cluster.nodes().get(entry.getKey());
+            if (destination == null) {
+                throw new RuntimeException("Unknown node " + entry.getKey() +
+                    " in the network links of " + node.nodeName());
+            }
+            if (destination != node) {
+                links.put(destination.uplink().internalDns(), entry.getValue());
+            }
+        }
+        node.uplink().command().args("-n", "--",
+            createShapeScript(role.profile(), links)).mustRun();
+    }
+
+    /**
+     * Create a script which shapes the traffic on the node's default interface.
+     *
+     * @param profile   The profile for traffic which is not covered by links,
+     *                  or null to leave that traffic alone.
+     * @param links     Maps destination hostnames to profiles.
+     */
+    public static String createShapeScript(NetworkProfile profile,
+                                           Map<String, NetworkProfile> links) {
+        StringBuilder bld = new StringBuilder();
+        bld.append("dev=$(ip route show default | awk '{print $5; exit}'); ");
+        bld.append("dev=${dev:-eth0}; ");
+        bld.append("sudo tc qdisc del dev $dev root 2> /dev/null; ");
+        if (links.isEmpty()) {
+            if (profile == null) {
+                bld.append("echo \"Removed network shaping from $dev.\"");
+            } else {
+                bld.append("sudo tc qdisc add dev $dev root netem ").
+                    append(String.join(" ", profile.netemArgs()));
+            }
+            return bld.toString();
+        }
+        // Each distinct link profile gets its own band of a prio qdisc.
+        // Band 1 holds the traffic which no filter matches.
+        List<NetworkProfile> bands = new ArrayList<>();
+        for (NetworkProfile linkProfile : links.values()) {
+            if (!bands.contains(linkProfile)) {
+                bands.add(linkProfile);
+            }
+        }
+        if (bands.size() + 1 > MAX_BANDS) {
+            throw new RuntimeException("There can be at most " + (MAX_BANDS - 1) +
+                " distinct link profiles per node.");
+        }
+        bld.append("sudo tc qdisc add dev $dev root handle 1: prio bands ").
+            append(Math.max(2, bands.size() + 1)).
+            append(" priomap 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0 0");
+        if (profile != null) {
+            bld.append(" && sudo tc qdisc add dev $dev parent 1:1 handle 10: netem ").
+                append(String.join(" ", profile.netemArgs()));
+        }
+        for (int i = 0; i < bands.size(); i++) {
+            String band = Integer.toHexString(i + 2);
+            bld.append(" && sudo tc qdisc add dev $dev parent 1:").append(band).
+                append(" handle ").append(Integer.toHexString(0x10 + i + 2)).
+                append(": netem ").append(String.join(" ", bands.get(i).netemArgs()));
+        }
+        for (Map.Entry<String, NetworkProfile> entry : links.entrySet()) {
+            String band = Integer.toHexString(bands.indexOf(entry.getValue()) + 2);
+            bld.append(" && ip=$(getent ahostsv4 ").append(entry.getKey()).
+                append(" | awk 'NR == 1 {print $1}')").
+                append(" && [ -n \"$ip\" ]").
+                append(" && sudo tc filter add dev $dev parent 1: protocol ip prio 1 u32 ").
+                append("match ip dst $ip/32 flowid 1:").append(band);
+        }
+        return bld.toString();
+    }
+}
@@ -62,25 +62,19 @@ public class SchemaRegistryStartAction extends Action  {
             DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
             configFile = writeSchemaRegistryConfig(expander, cluster, node);
             log4jFile = writeSchemaRegistryLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME, false);
+            CastleDaemon.SCHEMA_REGISTRY.kill(cluster, node, "SIGTERM");
             node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 ActionPaths.SCHEMA_REGISTRY_PROPERTIES).mustRun();
             node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
                 ActionPaths.SCHEMA_REGISTRY_LOG4J).mustRun();
             writeSchemas(cluster, node);
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
+            CastleDaemon.SCHEMA_REGISTRY.launch(cluster, node, createRunDaemonCommandLine());
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
             CastleUtil.deleteFileOrLog(node.log(), log4jFile);
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME)).run();
-            }
-        });
+        CastleDaemon.SCHEMA_REGISTRY.waitForRunning(node);
         CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
             @Override
             public Boolean call() throws Exception {
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.SchemaRegistryRole;
 
 /**
@@ -38,6 +37,6 @@ public final class SchemaRegistryStatusAction extends Action {
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME));
+            CastleDaemon.SCHEMA_REGISTRY.checkStatus(cluster, node));
     }
 }
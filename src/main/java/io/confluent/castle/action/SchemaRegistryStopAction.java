@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.SchemaRegistryRole;
 import io.confluent.castle.role.ZooKeeperRole;
 
@@ -44,6 +43,6 @@ public final class SchemaRegistryStopAction extends Action {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
         }
-        CastleUtil.killJavaProcess(cluster, node, SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME, false);
+        CastleDaemon.SCHEMA_REGISTRY.kill(cluster, node, "SIGTERM");
     }
 }
@@ -31,7 +31,11 @@ public final class SetupAction extends Action {
             new String[] {
                 SourceSetupAction.TYPE,
                 LinuxSetupAction.TYPE,
+                StorageSetupAction.TYPE,
+                NetworkShapeAction.TYPE,
                 CopyAdditionalFilesAction.TYPE,
+                AgentStartAction.TYPE,
+                DockerCommitImageAction.TYPE,
             },
             0);
     }
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+
+import static io.confluent.castle.action.ActionPaths.KAFKA_OPLOGS;
+
+/**
+ * Formats the node's unused block devices and mounts them on the Kafka data
+ * directory.
+ *
+ * A disk is unused if it has no partitions and no filesystem signature.  If
+ * there is more than one, they are combined into a RAID 0 array.  The
+ * filesystem is labelled, so that it can be mounted again after the node
+ * has been stopped and started.
+ */
+public final class StorageSetupAction extends Action {
+    public final static String TYPE = "storageSetup";
+
+    /**
+     * The label of the filesystem which holds the Kafka data directory.
+     * XFS labels can be at most 12 characters long.
+     */
+    private final static String OPLOGS_LABEL = "castle-oplog";
+
+    public StorageSetupAction(String scope) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE, scope)
+            },
+            new String[] {},
+            0);
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!node.uplink().canLogin()) {
+            node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
+            return;
+        }
+        node.uplink().command().args("-n", "--", createMountScript()).mustRun();
+    }
+
+    public static String createMountScript() {
+        return String.format(
+            "if mountpoint -q %1$s; then " +
+                "echo '%1$s is already mounted.'; " +
+            "elif [ -b /dev/disk/by-label/%2$s ]; then " +
+                "sudo mkdir -p %1$s && sudo mount -o noatime LABEL=%2$s %1$s; " +
+            "else " +
+                "devs=; " +
+                "for d in $(lsblk -dnpo NAME,TYPE | awk '$2 == \"disk\" && $1 !~ /zram/ {print $1}'); do " +
+                    "[ \"$(lsblk -nr $d | wc -l)\" = 1 ] && " +
+                    "! sudo blkid $d > /dev/null 2>&1 && devs=\"$devs $d\"; " +
+                "done; " +
+                "set -- $devs; " +
+                "if [ $# -eq 0 ]; then " +
+                    "echo 'No unused block devices found for %1$s.' >&2; exit 1; " +
+                "elif [ $# -eq 1 ]; then " +
+                    "dev=$1; " +
+                "else " +
+                    "dev=/dev/md0; " +
+                    "sudo mdadm --create $dev --run --level=0 --raid-devices=$# \"$@\" || exit 1; " +
+                "fi; " +
+                "echo \"Formatting $dev for %1$s.\"; " +
+                "sudo mkfs.xfs -f -L %2$s $dev && " +
+                "sudo mkdir -p %1$s && sudo mount -o noatime $dev %1$s; " +
+            "fi && sudo chown `whoami` %1$s", KAFKA_OPLOGS, OPLOGS_LABEL);
+    }
+}
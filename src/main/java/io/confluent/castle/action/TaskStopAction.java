@@ -46,8 +46,17 @@ public class TaskStopAction extends Action  {
             node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
             return;
         }
-        if (CastleUtil.getJavaProcessStatus(cluster, node,
-                TrogdorDaemonType.COORDINATOR.className()) != CastleReturnCode.SUCCESS) {
+        // Query the coordinator directly rather than through the daemon status
+        // collector, since it may have been started or stopped during this run.
+        boolean running;
+        try {
+            running = CastleDaemon.TROGDOR_COORDINATOR.status(node).running();
+        } catch (Exception e) {
+            node.log().printf("*** Unable to determine if the Trogdor coordinator " +
+                "is running: %s%n", e.getMessage());
+            running = false;
+        }
+        if (!running) {
             node.log().printf("*** Ignoring TaskStopAction because the Trogdor " +
                 "coordinator process does not appear to be running.%n");
             return;
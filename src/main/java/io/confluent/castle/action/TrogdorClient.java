@@ -20,6 +20,9 @@ package io.confluent.castle.action;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.confluent.castle.agent.AgentClient;
+import io.confluent.castle.agent.AgentOp;
+import io.confluent.castle.agent.AgentResult;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
 import io.confluent.castle.command.CommandResultException;
@@ -39,7 +42,8 @@ import java.util.TreeMap;
 import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
 
 /**
- * A Trogdor client which uses curl to send JSON requests.
+ * A Trogdor client which sends JSON requests through the castle agent, or
+ * with curl when the agent is not available.
  */
 public class TrogdorClient {
     private final CastleNode node;
@@ -54,6 +58,13 @@ public class TrogdorClient {
     }
 
     private JsonNode coordinatorCurl(String endpoint, String op, JsonNode input) throws Exception {
+        AgentClient agent = node.uplink().agentLink().client();
+        if (agent != null) {
+            byte[] body = (input == null) ? null : JSON_SERDE.writeValueAsBytes(input);
+            AgentResult result = agent.call(AgentOp.http(op, coordinatorUrl(endpoint), body)).check();
+            return parseResponse(result.returnCode(), result.stdout(), input,
+                op + " " + coordinatorUrl(endpoint));
+        }
         List<String> cmd = new ArrayList<>(Arrays.asList("curl",
             "-H", "Content-Type:application/json",
             "-w", "_%{http_code}",
@@ -85,20 +96,29 @@ public class TrogdorClient {
             throw new RuntimeException(String.format("%s: failed to parse HTTP status " +
                 "code for curl command %s", node.nodeName(), Command.joinArgs(cmd)));
         }
+        return parseResponse(httpReturnCode, output.substring(0, atIndex), input,
+            Command.joinArgs(cmd));
+    }
+
+    private JsonNode parseResponse(int httpReturnCode, String json, JsonNode input,
+                                   String request) {
         if (httpReturnCode != 200) {
             throw new RuntimeException(String.format("%s: got HTTP error %d when sending: %s%n",
                 node.nodeName(), httpReturnCode, input));
         }
-        String json = output.substring(0, atIndex);
         try {
             return JSON_SERDE.readTree(json);
         } catch (IOException e) {
             throw new RuntimeException(String.format("%s: JSON parse error when " +
                 "handling the return value '%s' from %s", node.nodeName(), json,
-                Command.joinArgs(cmd)), e);
+                request), e);
         }
     }
 
+    public JsonNode status() throws Exception {
+        return coordinatorCurl("status", "GET", null);
+    }
+
     public void createTask(String taskId, JsonNode taskSpec) throws Exception {
         ObjectNode node = new ObjectNode(JsonNodeFactory.instance);
         node.put("id", taskId);
@@ -77,6 +77,10 @@ public class TrogdorDaemonType {
         return String.format("%s/trogdor-%s", LOGS_ROOT, name);
     }
 
+    public CastleDaemon daemon() {
+        return (this == AGENT) ? CastleDaemon.TROGDOR_AGENT : CastleDaemon.TROGDOR_COORDINATOR;
+    }
+
     public String logPath() {
         return String.format("%s/trogdor-%s/%s.log", LOGS_ROOT, name, name);
     }
@@ -30,7 +30,6 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.TROGDOR_START_SCRIPT;
 
@@ -59,25 +58,36 @@ public class TrogdorStartAction extends Action  {
         try {
             configFile = writeTrogdorConfig(cluster, node);
             log4jFile = writeTrogdorLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, daemonType.className(), false);
+            daemonType.daemon().kill(cluster, node, "SIGTERM");
             node.uplink().command().args(createSetupPathsCommandLine(daemonType)).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 daemonType.propertiesPath()).mustRun();
             node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
                 daemonType.log4jConfPath()).mustRun();
-            node.uplink().command().args(
-                runDaemonCommandLine(daemonType, node.nodeName())).mustRun();
+            daemonType.daemon().launch(cluster, node,
+                runDaemonCommandLine(daemonType, node.nodeName()));
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
             CastleUtil.deleteFileOrLog(node.log(), log4jFile);
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(daemonType.className())).run();
+        daemonType.daemon().waitForRunning(node);
+    }
+
+    /**
+     * The Trogdor daemon is ready once it answers status requests.
+     */
+    @Override
+    public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (daemonType == TrogdorDaemonType.COORDINATOR) {
+            try {
+                new TrogdorClient(node).status();
+                return true;
+            } catch (Exception e) {
+                return false;
             }
-        });
+        }
+        return 0 == node.uplink().command().args("-n", "--", "curl", "-sf", "-o", "/dev/null",
+            String.format("http://localhost:%d/agent/status", TrogdorAgentRole.PORT)).run();
     }
 
     public static String[] createSetupPathsCommandLine(TrogdorDaemonType daemonType) {
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 
 public class TrogdorStatusAction extends Action {
     private final TrogdorDaemonType daemonType;
@@ -35,6 +34,6 @@ public class TrogdorStatusAction extends Action {
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, daemonType.className()));
+            daemonType.daemon().checkStatus(cluster, node));
     }
 };
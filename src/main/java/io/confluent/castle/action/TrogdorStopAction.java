@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 
 /**
  * Stop Trogdor.
@@ -42,6 +41,6 @@ public final class TrogdorStopAction extends Action {
                 daemonType.stopType());
             return;
         }
-        CastleUtil.killJavaProcess(cluster, node, daemonType.className(), false);
+        daemonType.daemon().kill(cluster, node, "SIGTERM");
     }
 }
@@ -19,8 +19,12 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.UbuntuNodeRole;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Install some necessary components on Ubuntu.
  */
@@ -41,8 +45,32 @@ public final class UbuntuSetupAction extends Action {
         this.role = role;
     }
 
+    /**
+     * Get the packages which we install.
+     */
+    public static List<String> packages(UbuntuNodeRole role) {
+        return Arrays.asList("iptables", "iproute2", "rsync", "wget", "curl", "collectd-core",
+            "coreutils", "cmake", "pkg-config", "libfuse-dev", role.jdkPackage());
+    }
+
+    /**
+     * Get a fingerprint of the setup which this action performs.  Once the
+     * setup succeeds, the fingerprint is written to a marker file on the node,
+     * so that a node which is reused can skip the setup.
+     */
+    public static String setupFingerprint(UbuntuNodeRole role) {
+        return CastleUtil.sha256Hex(TYPE + ":" + String.join(" ", packages(role)));
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        String fingerprint = setupFingerprint(role);
+        if (node.uplink().command().args("-n", "--",
+                "grep", "-qx", fingerprint, ActionPaths.UBUNTU_SETUP_MARKER).run() == 0) {
+            node.log().printf("*** %s: Skipping UbuntuSetup, because it has already " +
+                "been done on this node.%n", node.nodeName());
+            return;
+        }
         node.log().printf("*** %s: Beginning UbuntuSetup...%n", node.nodeName());
         for (int tries = 0; tries < MAX_TRIES; tries++) {
             int result = node.uplink().command().args("-n", "--",
@@ -51,8 +79,10 @@ public final class UbuntuSetupAction extends Action {
                 "sudo", "-E", "apt-get", "update", "-y", "&&",
                 "sudo", "-E", "apt-get", "upgrade", "-y", "&&",
                 "sudo", "-E", "apt-get", "install", "--option", "\"Dpkg::Options::=--force-confold\"", "-y",
-                    "iptables", "rsync", "wget", "curl", "collectd-core",
-                    "coreutils", "cmake", "pkg-config", "libfuse-dev", role.jdkPackage()).run();
+                    String.join(" ", packages(role)), "&&",
+                "sudo", "mkdir", "-p", ActionPaths.SETUP_MARKER_ROOT, "&&",
+                "echo", fingerprint, "|", "sudo", "tee", ActionPaths.UBUNTU_SETUP_MARKER,
+                    ">", "/dev/null").run();
             if (result == 0) {
                 node.log().printf("*** %s: Finished UbuntuSetup.%n", node.nodeName());
                 return;
@@ -28,7 +28,6 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import static io.confluent.castle.action.ActionPaths.ZK_CONF;
@@ -57,7 +56,7 @@ public class ZooKeeperStartAction extends Action  {
             configFile = writeZooKeeperConfig(cluster, node);
             log4jFile = writeZooKeeperLog4j(cluster, node);
             myidFile = writeMyID(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false);
+            CastleDaemon.ZOOKEEPER.kill(cluster, node, "SIGTERM");
             node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
             node.uplink().command().syncTo(configFile.getAbsolutePath(),
                 ActionPaths.ZK_PROPERTIES).mustRun();
@@ -65,19 +64,32 @@ public class ZooKeeperStartAction extends Action  {
                 ActionPaths.ZK_LOG4J).mustRun();
             node.uplink().command().syncTo(myidFile.getAbsolutePath(),
                 ActionPaths.ZK_MYID).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
+            CastleDaemon.ZOOKEEPER.launch(cluster, node, createRunDaemonCommandLine());
         } finally {
             CastleUtil.deleteFileOrLog(node.log(), configFile);
             CastleUtil.deleteFileOrLog(node.log(), log4jFile);
             CastleUtil.deleteFileOrLog(node.log(), myidFile);
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(ZooKeeperRole.ZOOKEEPER_CLASS_NAME)).run();
-            }
-        });
+        CastleDaemon.ZOOKEEPER.waitForRunning(node);
+    }
+
+    /**
+     * ZooKeeper is ready once it reports a mode, which means that it is either
+     * standalone or has joined a quorum.
+     */
+    @Override
+    public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+        StringBuilder output = new StringBuilder();
+        int retVal = node.uplink().command().args(createCheckQuorumCommandLine()).
+            captureOutput(output).
+            setCaptureStderr(false).
+            run();
+        return (retVal == 0) && output.toString().contains("Mode: ");
+    }
+
+    public static String[] createCheckQuorumCommandLine() {
+        return new String[] {"-n", "--", "exec", "3<>/dev/tcp/localhost/" + ZooKeeperRole.PORT,
+            "2>/dev/null", "&&", "echo", "srvr", ">&3", "&&", "cat", "<&3"};
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -121,7 +133,7 @@ public class ZooKeeperStartAction extends Action  {
                 osw.write(String.format("syncLimit=%d%n", role.getSyncLimit()));
             }
             osw.write(String.format("dataDir=%s%n", ZK_OPLOGS));
-            osw.write(String.format("clientPort=2181%n"));
+            osw.write(String.format("clientPort=%d%n", ZooKeeperRole.PORT));
             osw.write(String.format("maxClientCnxns=0%n"));
             for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
                 int serverIdx = getServerIdx(cluster, nodeName);
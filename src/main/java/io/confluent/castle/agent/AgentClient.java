@@ -0,0 +1,286 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.Command;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * A client for the castle agent running on a node.
+ *
+ * The client forwards a local port to the agent's loopback port with ssh.  ssh
+ * carries any number of connections over the one tunnel, so each call which is
+ * in flight gets a connection of its own.  A slow command therefore only holds
+ * up its own caller.  Connections are kept for reuse once their call is done.
+ */
+public final class AgentClient implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+
+    private static final int CONNECT_POLL_MS = 50;
+
+    /**
+     * The maximum number of idle connections to keep open.
+     */
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+
+    private final CastleNode node;
+
+    private final Process tunnel;
+
+    private final int localPort;
+
+    private final String secret;
+
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+
+    private final Set<Connection> open = new HashSet<>();
+
+    private boolean closed = false;
+
+    /**
+     * A connection to the agent, which carries one call at a time.
+     */
+    private static final class Connection implements AutoCloseable {
+        private final Socket socket;
+
+        private final BufferedReader reader;
+
+        private final OutputStream output;
+
+        Connection(Socket socket, String secret) throws IOException {
+            this.socket = socket;
+            this.reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.output = socket.getOutputStream();
+            socket.setTcpNoDelay(true);
+            output.write(secret.getBytes(StandardCharsets.UTF_8));
+            output.write('\n');
+        }
+
+        String call(byte[] request) throws IOException {
+            output.write(request);
+            output.write('\n');
+            output.flush();
+            return reader.readLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Connect to the castle agent on a node.
+     *
+     * @param node          The node.
+     * @param sshPreamble   The ssh command line to use, not including the
+     *                      destination host.
+     * @param dns           The address to ssh to.
+     * @param secret        The secret which the agent expects.
+     */
+    public static AgentClient connect(CastleNode node, List<String> sshPreamble,
+                                      String dns, String secret) throws Exception {
+        int localPort;
+        try (ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            localPort = serverSocket.getLocalPort();
+        }
+        List<String> commandLine = new ArrayList<>(sshPreamble);
+        commandLine.add("-N");
+        commandLine.add("-o");
+        commandLine.add("ExitOnForwardFailure=yes");
+        commandLine.add("-L");
+        commandLine.add(String.format("%d:localhost:%d", localPort, CastleAgent.PORT));
+        commandLine.add(dns);
+        node.log().printf("** %s: OPENING AGENT TUNNEL %s%n", node.nodeName(),
+            Command.joinArgs(commandLine));
+        ProcessBuilder builder = new ProcessBuilder(commandLine);
+        builder.redirectInput(new File("/dev/null"));
+        builder.redirectOutput(new File("/dev/null"));
+        builder.redirectError(new File("/dev/null"));
+        Process tunnel = builder.start();
+        AgentClient client = new AgentClient(node, tunnel, localPort, secret);
+        try {
+            long deadlineMs = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            while (true) {
+                if (!tunnel.isAlive()) {
+                    throw new IOException("The ssh tunnel exited with code " + tunnel.exitValue());
+                }
+                try {
+                    // ssh accepts the local connection even if nothing is listening on
+                    // the remote end.  Send an empty batch to make sure that the agent
+                    // is really there, and that it accepted the secret.
+                    client.call(Collections.<AgentOp>emptyList());
+                    break;
+                } catch (IOException e) {
+                    if (System.currentTimeMillis() > deadlineMs) {
+                        throw new IOException("Timed out connecting to the agent tunnel.", e);
+                    }
+                    Thread.sleep(CONNECT_POLL_MS);
+                }
+            }
+            return client;
+        } catch (Exception e) {
+            client.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connect to an agent which is listening on a local port, without a tunnel.
+     */
+    static AgentClient connectLocal(CastleNode node, int port, String secret) throws Exception {
+        AgentClient client = new AgentClient(node, null, port, secret);
+        try {
+            client.call(Collections.<AgentOp>emptyList());
+        } catch (Exception e) {
+            client.close();
+            throw e;
+        }
+        return client;
+    }
+
+    private AgentClient(CastleNode node, Process tunnel, int localPort, String secret) {
+        this.node = node;
+        this.tunnel = tunnel;
+        this.localPort = localPort;
+        this.secret = secret;
+    }
+
+    public CastleNode node() {
+        return node;
+    }
+
+    private synchronized Connection takeConnection() throws IOException {
+        if (closed) {
+            throw new IOException("The castle agent client for " + node.nodeName() +
+                " has been closed.");
+        }
+        Connection connection = idle.pollFirst();
+        if (connection == null) {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), localPort);
+            try {
+                connection = new Connection(socket, secret);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            open.add(connection);
+        }
+        return connection;
+    }
+
+    private synchronized void returnConnection(Connection connection) throws IOException {
+        if (closed || (idle.size() >= MAX_IDLE_CONNECTIONS)) {
+            open.remove(connection);
+            connection.close();
+        } else {
+            idle.addFirst(connection);
+        }
+    }
+
+    private synchronized void dropConnection(Connection connection) {
+        open.remove(connection);
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Ignore.
+        }
+    }
+
+    /**
+     * Send a batch of operations to the agent.
+     *
+     * This may be called by several threads at once.  Each call uses its own
+     * connection.
+     *
+     * @param ops       The operations to perform.
+     * @return          The results, in the same order as the operations.
+     */
+    public List<AgentResult> call(List<AgentOp> ops) throws IOException {
+        byte[] request = CastleAgent.WRITER.writeValueAsBytes(ops);
+        Connection connection = takeConnection();
+        String line;
+        try {
+            line = connection.call(request);
+        } catch (IOException e) {
+            dropConnection(connection);
+            throw e;
+        }
+        if (line == null) {
+            dropConnection(connection);
+            throw new EOFException("The castle agent on " + node.nodeName() +
+                " closed the connection.");
+        }
+        returnConnection(connection);
+        List<AgentResult> results = JSON_SERDE.readValue(line, CastleAgent.RESULTS_TYPE);
+        if (results.size() != ops.size()) {
+            throw new IOException(String.format("Expected %d result(s) from the castle agent " +
+                "on %s, but got %d: %s", ops.size(), node.nodeName(), results.size(), line));
+        }
+        return results;
+    }
+
+    /**
+     * Perform a single operation.
+     */
+    public AgentResult call(AgentOp op) throws IOException {
+        return call(Collections.singletonList(op)).get(0);
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            synchronized (this) {
+                closed = true;
+                idle.clear();
+                for (Connection connection : open) {
+                    try {
+                        connection.close();
+                    } catch (IOException e) {
+                        // Ignore.
+                    }
+                }
+                open.clear();
+            }
+        } finally {
+            if (tunnel != null) {
+                tunnel.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.AgentCommand;
+import io.confluent.castle.command.Command;
+import io.confluent.castle.command.SshCommand;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Manages the connection from an uplink to the castle agent on its node.
+ *
+ * The connection is opened lazily, the first time a command needs it, through
+ * an ssh tunnel.  If the agent is disabled or can't be reached, commands fall
+ * back to the uplink's direct command, such as plain ssh.
+ */
+public final class AgentLink implements AutoCloseable {
+    private static final String AGENT_SECRETS_DIR = "agent-secrets";
+
+    private final CastleCluster cluster;
+
+    private final CastleNode node;
+
+    private final Supplier<? extends Command> directSupplier;
+
+    private final Supplier<SshCommand> sshSupplier;
+
+    private AgentClient client = null;
+
+    private boolean failed = false;
+
+    public AgentLink(CastleCluster cluster, CastleNode node, Supplier<SshCommand> sshSupplier) {
+        this(cluster, node, sshSupplier, sshSupplier);
+    }
+
+    /**
+     * Create a new agent link.
+     *
+     * @param directSupplier    Creates the commands to use when the agent is not available.
+     * @param sshSupplier       Creates the ssh commands used to tunnel to the agent,
+     *                          or null if the agent can't be used on this node.
+     */
+    public AgentLink(CastleCluster cluster, CastleNode node,
+                     Supplier<? extends Command> directSupplier,
+                     Supplier<SshCommand> sshSupplier) {
+        this.cluster = cluster;
+        this.node = node;
+        this.directSupplier = directSupplier;
+        this.sshSupplier = sshSupplier;
+    }
+
+    /**
+     * Return true if the agent can be used on this node.
+     */
+    public boolean supported() {
+        return sshSupplier != null;
+    }
+
+    /**
+     * Get a client for the agent, or null if the agent is not available.
+     */
+    public synchronized AgentClient client() {
+        if (client != null) {
+            return client;
+        }
+        if (failed || !supported() || !cluster.conf().nodeAgent() ||
+                !node.uplink().canLogin()) {
+            return null;
+        }
+        SshCommand ssh = sshSupplier.get();
+        try {
+            String secret = CastleAgent.readSecret(secretPath());
+            client = AgentClient.connect(node, ssh.createSshCommandPreamble(), ssh.dns(), secret);
+            node.log().printf("*** Connected to the castle agent.%n");
+        } catch (Exception e) {
+            node.log().printf("*** Unable to connect to the castle agent; falling " +
+                "back to ssh: %s%n", e.getMessage());
+            failed = true;
+        }
+        return client;
+    }
+
+    /**
+     * Get the local copy of the secret which the agent on this node expects.
+     */
+    public Path secretPath() {
+        return Paths.get(cluster.env().workingDirectory(), AGENT_SECRETS_DIR,
+            node.nodeName() + ".secret");
+    }
+
+    /**
+     * Get how long a command run through the agent may take.  Nothing can take
+     * longer than the global timeout, so there is no point in letting a hung
+     * command run for longer than that.
+     */
+    public long execTimeoutMs() {
+        return TimeUnit.SECONDS.toMillis(cluster.conf().globalTimeout());
+    }
+
+    /**
+     * Create a new command, which will run through the agent if possible.
+     */
+    public Command command() {
+        Command direct = directSupplier.get();
+        AgentClient agentClient = client();
+        if (agentClient == null) {
+            return direct;
+        }
+        return new AgentCommand(this, agentClient, direct);
+    }
+
+    /**
+     * Create a new command which bypasses the agent.
+     */
+    public Command directCommand() {
+        return directSupplier.get();
+    }
+
+    /**
+     * Forget about any previous connection or connection failure.
+     *
+     * This should be called when the agent is (re)started.
+     */
+    public synchronized void reset() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (Exception e) {
+                node.log().printf("*** Error closing the castle agent client: %s%n", e.getMessage());
+            }
+            client = null;
+        }
+        failed = false;
+    }
+
+    /**
+     * Drop the given client after a communication failure.
+     */
+    public synchronized void invalidate(AgentClient agentClient) {
+        if (client == agentClient) {
+            reset();
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        reset();
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A single operation which the castle agent should perform.
+ *
+ * Operations are sent to the agent in batches.  Each operation in a batch
+ * produces exactly one AgentResult.
+ */
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public final class AgentOp {
+    public enum Type {
+        /**
+         * Run a shell command.
+         */
+        EXEC,
+
+        /**
+         * Write a file.
+         */
+        WRITE_FILE,
+
+        /**
+         * Make an HTTP request to a local service.
+         */
+        HTTP;
+    }
+
+    private final Type type;
+    private final String command;
+    private final byte[] data;
+    private final String path;
+    private final String method;
+    private final String url;
+    private final String name;
+    private final int mode;
+    private final long timeoutMs;
+
+    @JsonCreator
+    public AgentOp(@JsonProperty("type") Type type,
+                   @JsonProperty("command") String command,
+                   @JsonProperty("data") byte[] data,
+                   @JsonProperty("path") String path,
+                   @JsonProperty("method") String method,
+                   @JsonProperty("url") String url,
+                   @JsonProperty("name") String name,
+                   @JsonProperty("mode") int mode,
+                   @JsonProperty("timeoutMs") long timeoutMs) {
+        if (type == null) {
+            throw new RuntimeException("You must supply an agent operation type.");
+        }
+        this.type = type;
+        this.command = command == null ? "" : command;
+        this.data = data;
+        this.path = path == null ? "" : path;
+        this.method = method == null ? "" : method;
+        this.url = url == null ? "" : url;
+        this.name = name == null ? "" : name;
+        this.mode = mode;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Run a command with bash.
+     *
+     * @param command       The command line.
+     * @param stdin         The bytes to send to stdin, or null to use /dev/null.
+     */
+    public static AgentOp exec(String command, byte[] stdin) {
+        return exec(command, stdin, 0);
+    }
+
+    /**
+     * Run a command with bash, killing it if it takes too long.
+     *
+     * @param command       The command line.
+     * @param stdin         The bytes to send to stdin, or null to use /dev/null.
+     * @param timeoutMs     How long to let the command run, or 0 to let it run
+     *                      for as long as it needs.
+     */
+    public static AgentOp exec(String command, byte[] stdin, long timeoutMs) {
+        return new AgentOp(Type.EXEC, command, stdin, null, null,
+            null, null, 0, timeoutMs);
+    }
+
+    public static AgentOp writeFile(String path, byte[] data) {
+        return writeFile(path, data, null, 0);
+    }
+
+    /**
+     * Write a file, in the same way that rsync would copy a local file.
+     *
+     * @param path          The path to write.  If this is a directory, or ends
+     *                      with a slash, the file is written inside it.
+     * @param data          The contents of the file.
+     * @param name          The name of the local file, or null.
+     * @param mode          The permission bits to give the file, such as 0755,
+     *                      or 0 to use the agent's defaults.
+     */
+    public static AgentOp writeFile(String path, byte[] data, String name, int mode) {
+        return new AgentOp(Type.WRITE_FILE, null, data, path, null,
+            null, name, mode, 0);
+    }
+
+    public static AgentOp http(String method, String url, byte[] body) {
+        return new AgentOp(Type.HTTP, null, body, null, method, url,
+            null, 0, 0);
+    }
+
+    @JsonProperty
+    public Type type() {
+        return type;
+    }
+
+    @JsonProperty
+    public String command() {
+        return command;
+    }
+
+    @JsonProperty
+    public byte[] data() {
+        return data;
+    }
+
+    @JsonProperty
+    public String path() {
+        return path;
+    }
+
+    @JsonProperty
+    public String method() {
+        return method;
+    }
+
+    @JsonProperty
+    public String url() {
+        return url;
+    }
+
+    @JsonProperty
+    public String name() {
+        return name;
+    }
+
+    @JsonProperty
+    public int mode() {
+        return mode;
+    }
+
+    @JsonProperty
+    public long timeoutMs() {
+        return timeoutMs;
+    }
+
+    @Override
+    public String toString() {
+        return "AgentOp(type=" + type +
+            ", command=" + command +
+            ", data=" + (data == null ? "null" : data.length + " bytes") +
+            ", path=" + path +
+            ", method=" + method +
+            ", url=" + url +
+            ", name=" + name +
+            ", mode=" + Integer.toOctalString(mode) +
+            ", timeoutMs=" + timeoutMs +
+            ")";
+    }
+}
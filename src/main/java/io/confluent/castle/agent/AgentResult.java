@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The result of a single AgentOp.
+ *
+ * For EXEC operations, the return code is the exit status of the command.
+ * For HTTP operations, it is the HTTP status code.  If the agent was unable
+ * to perform the operation at all, error will be non-empty.
+ */
+@JsonInclude(JsonInclude.Include.NON_DEFAULT)
+public final class AgentResult {
+    private final int returnCode;
+    private final String stdout;
+    private final String stderr;
+    private final String error;
+
+    @JsonCreator
+    public AgentResult(@JsonProperty("returnCode") int returnCode,
+                       @JsonProperty("stdout") String stdout,
+                       @JsonProperty("stderr") String stderr,
+                       @JsonProperty("error") String error) {
+        this.returnCode = returnCode;
+        this.stdout = stdout == null ? "" : stdout;
+        this.stderr = stderr == null ? "" : stderr;
+        this.error = error == null ? "" : error;
+    }
+
+    public static AgentResult error(String error) {
+        return new AgentResult(-1, null, null, error);
+    }
+
+    @JsonProperty
+    public int returnCode() {
+        return returnCode;
+    }
+
+    @JsonProperty
+    public String stdout() {
+        return stdout;
+    }
+
+    @JsonProperty
+    public String stderr() {
+        return stderr;
+    }
+
+    @JsonProperty
+    public String error() {
+        return error;
+    }
+
+    /**
+     * Throw an exception if the agent could not perform the operation.
+     */
+    public AgentResult check() {
+        if (!error.isEmpty()) {
+            throw new RuntimeException("The castle agent failed to perform the " +
+                "operation: " + error);
+        }
+        return this;
+    }
+}
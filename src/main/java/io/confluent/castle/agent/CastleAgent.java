@@ -0,0 +1,417 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.confluent.castle.common.CastleUtil;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * The castle agent.
+ *
+ * The agent runs on each cluster node and listens on a loopback port.  The
+ * castle tool reaches it through an ssh tunnel.  Each request is a single line
+ * containing a JSON array of AgentOp objects; the agent replies with a single
+ * line containing a JSON array of AgentResult objects, in the same order.
+ *
+ * This lets the castle tool perform many operations over one long-lived
+ * connection, rather than paying for a new ssh session (and sometimes a new
+ * JVM) per operation.
+ *
+ * Any local user can connect to a loopback port, so the first line of each
+ * connection must be the secret which agentStart wrote to the node.  The agent
+ * closes connections which don't start with the secret.
+ */
+public final class CastleAgent {
+    public static final int PORT = 8790;
+
+    private static final int SECRET_BYTES = 32;
+
+    /**
+     * How long to wait after sending SIGTERM to a command which timed out
+     * before sending SIGKILL.
+     */
+    private static final int KILL_AFTER_SECONDS = 10;
+
+    static final ObjectWriter WRITER = JSON_SERDE.writer().
+        without(SerializationFeature.INDENT_OUTPUT);
+
+    static final TypeReference<List<AgentOp>> OPS_TYPE =
+        new TypeReference<List<AgentOp>>() { };
+
+    static final TypeReference<List<AgentResult>> RESULTS_TYPE =
+        new TypeReference<List<AgentResult>>() { };
+
+    private final ServerSocket serverSocket;
+
+    private final byte[] secret;
+
+    private final ExecutorService executorService;
+
+    CastleAgent(int port, String secret) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.executorService = Executors.newCachedThreadPool(
+            CastleUtil.createThreadFactory("CastleAgentConnection%d", false));
+    }
+
+    void run() throws Exception {
+        System.out.printf("Castle agent listening on %s%n", serverSocket.getLocalSocketAddress());
+        while (true) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            executorService.submit(new ConnectionHandler(socket));
+        }
+    }
+
+    int localPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Create a new random secret.
+     */
+    public static String generateSecret() {
+        byte[] bytes = new byte[SECRET_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder bld = new StringBuilder();
+        for (byte b : bytes) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Read a secret from a file.  The file must not be readable by other users.
+     */
+    public static String readSecret(Path path) throws IOException {
+        Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+        for (PosixFilePermission permission : permissions) {
+            if (permission != PosixFilePermission.OWNER_READ &&
+                    permission != PosixFilePermission.OWNER_WRITE) {
+                throw new IOException("The permissions of " + path + " are too open: " +
+                    PosixFilePermissions.toString(permissions));
+            }
+        }
+        String secret = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim();
+        if (secret.isEmpty()) {
+            throw new IOException(path + " is empty.");
+        }
+        return secret;
+    }
+
+    /**
+     * Write a secret to a file which only the owner can read.
+     */
+    public static void writeSecret(Path path, String secret) throws IOException {
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Files.deleteIfExists(path);
+        Files.createFile(path, PosixFilePermissions.asFileAttribute(
+            PosixFilePermissions.fromString("rw-------")));
+        Files.write(path, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private final class ConnectionHandler implements Runnable {
+        private final Socket socket;
+
+        ConnectionHandler(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try (Socket s = socket) {
+                BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream output = s.getOutputStream();
+                String first = reader.readLine();
+                if ((first == null) || !MessageDigest.isEqual(secret,
+                        first.getBytes(StandardCharsets.UTF_8))) {
+                    System.out.println("Rejecting a connection which did not supply the secret.");
+                    return;
+                }
+                while (true) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    List<AgentResult> results = new ArrayList<>();
+                    try {
+                        for (AgentOp op : JSON_SERDE.<List<AgentOp>>readValue(line, OPS_TYPE)) {
+                            results.add(perform(op));
+                        }
+                    } catch (IOException e) {
+                        results.add(AgentResult.error("Unable to parse request: " + e.getMessage()));
+                    }
+                    output.write(WRITER.writeValueAsBytes(results));
+                    output.write('\n');
+                    output.flush();
+                }
+            } catch (Throwable e) {
+                System.out.println("Connection handler failed: " + CastleUtil.fullStackTrace(e));
+            }
+        }
+    }
+
+    static AgentResult perform(AgentOp op) {
+        try {
+            switch (op.type()) {
+                case EXEC:
+                    return exec(op.command(), op.data(), op.timeoutMs());
+                case WRITE_FILE:
+                    return writeFile(op.path(), op.name(), op.mode(), op.data());
+                case HTTP:
+                    return http(op.method(), op.url(), op.data());
+                default:
+                    return AgentResult.error("Unknown operation type " + op.type());
+            }
+        } catch (Throwable e) {
+            return AgentResult.error(e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a command with bash.
+     *
+     * If there is a timeout, the command runs under coreutils timeout, which
+     * kills its whole process group if it takes too long.  Like timeout, we
+     * return 124 when that happens.
+     */
+    static AgentResult exec(String command, byte[] stdin, long timeoutMs) throws Exception {
+        List<String> commandLine = new ArrayList<>();
+        if (timeoutMs > 0) {
+            commandLine.addAll(Arrays.asList("timeout", "--kill-after=" + KILL_AFTER_SECONDS,
+                Long.toString((timeoutMs + 999) / 1000)));
+        }
+        commandLine.addAll(Arrays.asList("bash", "-c", command));
+        ProcessBuilder builder = new ProcessBuilder(commandLine);
+        builder.directory(new File(System.getProperty("user.home")));
+        if (stdin == null) {
+            builder.redirectInput(new File("/dev/null"));
+        }
+        Process process = builder.start();
+        final InputStream errorStream = process.getErrorStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        Thread stderrThread = new Thread(() -> {
+            try {
+                copy(errorStream, stderr);
+            } catch (IOException e) {
+                // The process exited.
+            }
+        }, "CastleAgentStderr");
+        stderrThread.start();
+        if (stdin != null) {
+            try (OutputStream processStdin = process.getOutputStream()) {
+                processStdin.write(stdin);
+            } catch (IOException e) {
+                // The process may exit without reading all of its input.
+            }
+        }
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        copy(process.getInputStream(), stdout);
+        int returnCode = process.waitFor();
+        stderrThread.join();
+        return new AgentResult(returnCode,
+            new String(stdout.toByteArray(), StandardCharsets.UTF_8),
+            new String(stderr.toByteArray(), StandardCharsets.UTF_8),
+            null);
+    }
+
+    /**
+     * Find the path which rsync would copy a file with the given name to.
+     *
+     * Like rsync, relative paths are relative to the home directory, and if the
+     * destination is a directory or ends with a slash, the file goes inside it.
+     */
+    static Path resolveWritePath(String pathString, String name) {
+        String home = System.getProperty("user.home");
+        Path path;
+        if (pathString.equals("~")) {
+            path = Paths.get(home);
+        } else if (pathString.startsWith("~/")) {
+            path = Paths.get(home, pathString.substring(2));
+        } else {
+            path = Paths.get(home).resolve(pathString);
+        }
+        if (pathString.isEmpty() || pathString.endsWith("/") || Files.isDirectory(path)) {
+            if (name.isEmpty()) {
+                throw new RuntimeException("Unable to write to the directory " + path +
+                    " without a file name.");
+            }
+            path = path.resolve(name);
+        }
+        return path;
+    }
+
+    /**
+     * Convert permission bits, such as 0755, to a set of permissions.
+     */
+    static Set<PosixFilePermission> modeToPermissions(int mode) {
+        Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] values = PosixFilePermission.values();
+        for (int i = 0; i < values.length; i++) {
+            if ((mode & (1 << (values.length - 1 - i))) != 0) {
+                permissions.add(values[i]);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Convert a set of permissions to permission bits, such as 0755.
+     */
+    public static int permissionsToMode(Set<PosixFilePermission> permissions) {
+        PosixFilePermission[] values = PosixFilePermission.values();
+        int mode = 0;
+        for (PosixFilePermission permission : permissions) {
+            mode |= 1 << (values.length - 1 - permission.ordinal());
+        }
+        return mode;
+    }
+
+    private static AgentResult writeFile(String pathString, String name, int mode,
+                                         byte[] data) throws IOException {
+        Path path = resolveWritePath(pathString, name);
+        Files.createDirectories(path.getParent());
+        // The temporary file is only readable by us until it has the right mode.
+        Path tempPath = Files.createTempFile(path.getParent(), ".castle-agent", ".tmp");
+        try {
+            Files.write(tempPath, data == null ? new byte[0] : data);
+            if (mode != 0) {
+                Files.setPosixFilePermissions(tempPath, modeToPermissions(mode));
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+        return new AgentResult(0, null, null, null);
+    }
+
+    private static AgentResult http(String method, String url, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setRequestMethod(method.isEmpty() ? "GET" : method);
+            connection.setRequestProperty("Content-Type", "application/json");
+            if (body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream output = connection.getOutputStream()) {
+                    output.write(body);
+                }
+            }
+            int status = connection.getResponseCode();
+            InputStream input = (status >= 400) ?
+                connection.getErrorStream() : connection.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            if (input != null) {
+                try (InputStream in = input) {
+                    copy(in, response);
+                }
+            }
+            return new AgentResult(status,
+                new String(response.toByteArray(), StandardCharsets.UTF_8), null, null);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buf = new byte[32768];
+        while (true) {
+            int ret = input.read(buf);
+            if (ret < 0) {
+                return;
+            }
+            output.write(buf, 0, ret);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("castle-agent").
+            addHelp(true).build().
+            description("Performs operations on behalf of the castle tool.");
+
+        parser.addArgument("--port")
+            .action(store())
+            .type(Integer.class)
+            .setDefault(PORT)
+            .dest("port")
+            .metavar("PORT")
+            .help("The loopback port to listen on.");
+
+        parser.addArgument("--secret-file")
+            .action(store())
+            .type(String.class)
+            .required(true)
+            .dest("secret_file")
+            .metavar("SECRET_FILE")
+            .help("The file containing the secret which clients must supply.");
+
+        Namespace res = parser.parseArgsOrFail(args);
+        String secret = readSecret(Paths.get(res.getString("secret_file")));
+        new CastleAgent(res.getInt("port"), secret).run();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns disjoint sets of CPUs to containers.
+ *
+ * Each owner, normally a container name, gets its own CPUs.  Where possible
+ * they are contiguous, so that a container tends to stay within one core
+ * complex or socket.
+ */
+public final class CpusetAllocator {
+    private final int numCpus;
+
+    private final BitSet used = new BitSet();
+
+    private final Map<String, BitSet> owners = new HashMap<>();
+
+    public CpusetAllocator(int numCpus) {
+        if (numCpus <= 0) {
+            throw new RuntimeException("The number of CPUs must be positive.");
+        }
+        this.numCpus = numCpus;
+    }
+
+    public int numCpus() {
+        return numCpus;
+    }
+
+    /**
+     * Record that an owner is already using a set of CPUs.  This is used for
+     * explicitly configured cpusets, and for containers which were started earlier.
+     *
+     * @param owner         The owner.
+     * @param cpuset        The CPUs, in the cpuset format used by docker, such as "0-3,6".
+     */
+    public synchronized void reserve(String owner, String cpuset) {
+        BitSet cpus = parse(cpuset);
+        release(owner);
+        owners.put(owner, cpus);
+        used.or(cpus);
+    }
+
+    /**
+     * Reserve a set of CPUs which must not overlap with any other owner's.  This
+     * is used for the cpusets which the cluster file gives explicitly.
+     *
+     * @param owner         The owner.
+     * @param cpuset        The CPUs, in the cpuset format used by docker, such as "0-3,6".
+     */
+    public synchronized void reserveExclusive(String owner, String cpuset) {
+        BitSet cpus = parse(cpuset);
+        if (cpus.length() > numCpus) {
+            throw new RuntimeException(String.format("The cpuset %s of %s uses CPUs " +
+                "which do not exist: there are only %d CPU(s).", cpuset, owner, numCpus));
+        }
+        for (Map.Entry<String, BitSet> entry : owners.entrySet()) {
+            if ((!entry.getKey().equals(owner)) && entry.getValue().intersects(cpus)) {
+                throw new RuntimeException(String.format("The cpuset %s of %s overlaps " +
+                    "with the cpuset %s of %s.", cpuset, owner,
+                    format(entry.getValue()), entry.getKey()));
+            }
+        }
+        reserve(owner, cpuset);
+    }
+
+    /**
+     * Allocate CPUs which no other owner is using.
+     *
+     * @param owner         The owner.
+     * @param count         The number of CPUs to allocate.
+     * @return              The CPUs, in the cpuset format used by docker.
+     */
+    public synchronized String allocate(String owner, int count) {
+        if (count <= 0) {
+            throw new RuntimeException("The number of CPUs to allocate must be positive.");
+        }
+        release(owner);
+        BitSet cpus = findContiguous(count);
+        if (cpus == null) {
+            cpus = findAny(count);
+        }
+        if (cpus == null) {
+            throw new RuntimeException(String.format("Unable to allocate %d CPU(s) for %s: " +
+                "only %d of %d CPU(s) are free.", count, owner,
+                numCpus - used.cardinality(), numCpus));
+        }
+        owners.put(owner, cpus);
+        used.or(cpus);
+        return format(cpus);
+    }
+
+    /**
+     * Release the CPUs used by an owner.
+     */
+    public synchronized void release(String owner) {
+        BitSet cpus = owners.remove(owner);
+        if (cpus != null) {
+            used.andNot(cpus);
+            // An explicitly configured cpuset may overlap with another owner's.
+            for (BitSet other : owners.values()) {
+                used.or(other);
+            }
+        }
+    }
+
+    private BitSet findContiguous(int count) {
+        int start = used.nextClearBit(0);
+        while (start + count <= numCpus) {
+            int end = used.nextSetBit(start);
+            if ((end < 0) || (end >= start + count)) {
+                BitSet cpus = new BitSet();
+                cpus.set(start, start + count);
+                return cpus;
+            }
+            start = used.nextClearBit(end);
+        }
+        return null;
+    }
+
+    private BitSet findAny(int count) {
+        BitSet cpus = new BitSet();
+        for (int cpu = used.nextClearBit(0); (cpu < numCpus) && (cpus.cardinality() < count);
+                cpu = used.nextClearBit(cpu + 1)) {
+            cpus.set(cpu);
+        }
+        return (cpus.cardinality() == count) ? cpus : null;
+    }
+
+    /**
+     * Parse a cpuset such as "0-3,6".
+     */
+    static BitSet parse(String cpuset) {
+        BitSet cpus = new BitSet();
+        for (String part : cpuset.split(",")) {
+            String trimmed = part.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            try {
+                int dash = trimmed.indexOf('-');
+                if (dash < 0) {
+                    cpus.set(Integer.parseInt(trimmed));
+                } else {
+                    int start = Integer.parseInt(trimmed.substring(0, dash).trim());
+                    int end = Integer.parseInt(trimmed.substring(dash + 1).trim());
+                    if (end < start) {
+                        throw new RuntimeException("Invalid CPU range " + trimmed +
+                            " in cpuset " + cpuset);
+                    }
+                    cpus.set(start, end + 1);
+                }
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid cpuset " + cpuset, e);
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * Format a set of CPUs as a cpuset, such as "0-3,6".
+     */
+    static String format(BitSet cpus) {
+        StringBuilder bld = new StringBuilder();
+        String prefix = "";
+        int start = cpus.nextSetBit(0);
+        while (start >= 0) {
+            int end = cpus.nextClearBit(start) - 1;
+            bld.append(prefix);
+            prefix = ",";
+            bld.append(start);
+            if (end > start) {
+                bld.append("-").append(end);
+            }
+            start = cpus.nextSetBit(end + 1);
+        }
+        return bld.toString();
+    }
+}
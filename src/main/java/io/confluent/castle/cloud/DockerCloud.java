@@ -17,46 +17,89 @@
 
 package io.confluent.castle.cloud;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.confluent.castle.action.ActionPaths;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.command.NodeShellRunner;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.DockerNodeRole;
 
-import java.io.BufferedWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public final class DockerCloud implements AutoCloseable {
     private final static String NETWORK = "ducknet";
 
-    private final ExecutorService executorService;
+    /**
+     * The repository which holds the images created by commitImage.
+     */
+    public final static String IMAGE_CACHE_REPO = "castle-cache";
+
+    /**
+     * How long to wait for more containers to remove before removing a batch.
+     */
+    private final static int COALESCE_DELAY_MS = 20;
+
+    /**
+     * How long a container's processes get to exit after SIGTERM when the
+     * container is destroyed.  The daemons have normally been stopped already.
+     */
+    private final static int STOP_GRACE_SECONDS = 2;
+
+    private final DockerEngineClient client;
+
+    private final ScheduledExecutorService executorService;
+
+    /**
+     * Runs Engine API requests which can proceed in parallel, such as removing
+     * the containers in a batch.
+     */
+    private final ExecutorService workerService;
+
+    private final List<RemoveContainerOp> removes = new ArrayList<>();
+
+    /**
+     * The number of our containers which are attached to the network, or -1
+     * if we have not counted them yet.
+     */
+    private int networkRefs = -1;
 
     private Future<Void> networkCheckFuture;
 
+    private CpusetAllocator cpusetAllocator = null;
+
+    private final Set<String> imagesBeingCommitted = new HashSet<>();
+
     private boolean shutdownAllInvoked = false;
 
     public DockerCloud() {
+        this.client = new DockerEngineClient();
         this.executorService = Executors.newSingleThreadScheduledExecutor(
             CastleUtil.createThreadFactory("DockerCloudThread", false));
+        this.workerService = Executors.newCachedThreadPool(
+            CastleUtil.createThreadFactory("DockerCloudWorker%d", true));
         this.networkCheckFuture = null;
     }
 
     @Override
     public void close() throws Exception {
-        // nothing to do
+        executorService.shutdown();
+        workerService.shutdown();
     }
 
     @Override
@@ -64,39 +107,129 @@ public final class DockerCloud implements AutoCloseable {
         return "DockerCloud{}";
     }
 
+    public DockerEngineClient client() {
+        return client;
+    }
+
     public synchronized Future<Void> getNetworkCheckFuture(CastleNode node) throws Exception {
         if (networkCheckFuture != null) {
             return networkCheckFuture;
         }
-        networkCheckFuture = executorService.submit(new NetworkCheck(node));
+        networkCheckFuture = executorService.submit(new NetworkCheck(client, node));
         return networkCheckFuture;
     }
 
+    /**
+     * Get the allocator for container cpusets, creating it if needed.
+     *
+     * When it is created, the allocator reserves every cpuset which the cluster
+     * file gives explicitly, under the name of the node which it belongs to.
+     * Nodes start in parallel, so we can't wait until a node starts to reserve
+     * its CPUs: a node with a cpuCount might take them first.  It also reserves
+     * the CPUs of the containers which are already running, so that new
+     * containers do not share them.
+     */
+    private synchronized CpusetAllocator cpusetAllocator(CastleCluster cluster,
+                                                         CastleNode node) throws Exception {
+        if (cpusetAllocator != null) {
+            return cpusetAllocator;
+        }
+        int numCpus = client.info(node).path("NCPU").asInt();
+        node.log().printf("** The docker daemon has %d CPU(s).%n", numCpus);
+        CpusetAllocator allocator = new CpusetAllocator(numCpus);
+        Collection<String> nodeNames = cluster.nodesWithRole(DockerNodeRole.class).values();
+        for (String nodeName : nodeNames) {
+            DockerNodeRole role = cluster.nodes().get(nodeName).getRole(DockerNodeRole.class);
+            if (!role.resources().cpus().isEmpty()) {
+                allocator.reserveExclusive(nodeName, role.resources().cpus());
+            }
+        }
+        for (String nodeName : nodeNames) {
+            DockerNodeRole role = cluster.nodes().get(nodeName).getRole(DockerNodeRole.class);
+            if (role.resources().cpus().isEmpty() && (!role.containerName().isEmpty()) &&
+                    (!role.cpuset().isEmpty())) {
+                allocator.reserve(role.containerName(), role.cpuset());
+            }
+        }
+        cpusetAllocator = allocator;
+        return cpusetAllocator;
+    }
+
+    /**
+     * Choose the CPUs to pin a container to.
+     *
+     * @return              The cpuset, or the empty string if the container
+     *                      should not be pinned.
+     */
+    public String allocateCpuset(CastleCluster cluster, CastleNode node,
+                                 DockerResources resources,
+                                 String containerName) throws Exception {
+        if (!resources.cpus().isEmpty()) {
+            // This was reserved for the node when the allocator was created.
+            cpusetAllocator(cluster, node);
+            return resources.cpus();
+        } else if (resources.cpuCount() > 0) {
+            return cpusetAllocator(cluster, node).allocate(containerName, resources.cpuCount());
+        }
+        return "";
+    }
+
+    public synchronized void releaseCpuset(String containerName) {
+        if (cpusetAllocator != null) {
+            cpusetAllocator.release(containerName);
+        }
+    }
+
+    public boolean imageExists(CastleNode node, String image) throws Exception {
+        return client.imageExists(node, image);
+    }
+
+    /**
+     * Commit a container into a cached image, unless the image already exists
+     * or another node is already creating it.
+     *
+     * @param containerName The container to commit.
+     * @param tag           The tag of the image in IMAGE_CACHE_REPO.
+     * @return              True if we created the image.
+     */
+    public boolean commitImage(CastleNode node, String containerName,
+                               String tag) throws Exception {
+        synchronized (this) {
+            if (!imagesBeingCommitted.add(tag)) {
+                return false;
+            }
+        }
+        try {
+            if (client.imageExists(node, IMAGE_CACHE_REPO + ":" + tag)) {
+                return false;
+            }
+            client.commitContainer(node, containerName, IMAGE_CACHE_REPO, tag);
+            return true;
+        } finally {
+            synchronized (this) {
+                imagesBeingCommitted.remove(tag);
+            }
+        }
+    }
+
     public String startup(CastleCluster cluster, CastleNode node,
-                          DockerNodeRole role, String containerName) throws Exception {
+                          DockerNodeRole role, String containerName,
+                          String imageId, String cpuset) throws Exception {
         getNetworkCheckFuture(node).get();
-        List<String> run = new ArrayList<>();
-        run.addAll(Arrays.asList(new String[] {"docker", "run", "-d",
-            "--privileged", "--memory=3G", "--memory-swappiness=1",
-            "--name", containerName, "-h", containerName,
-            "--network=" + NETWORK,
-            "-p", "::22"}));
+        List<String> binds = new ArrayList<>();
         if (!cluster.conf().castlePath().isEmpty()) {
             cluster.conf().validateCastlePath();
-            run.add("-v");
-            run.add(String.format("%s:%s", cluster.conf().castlePath(),
+            binds.add(String.format("%s:%s", cluster.conf().castlePath(),
                 ActionPaths.CASTLE_SRC));
         }
         if (!cluster.conf().kafkaPath().isEmpty()) {
             cluster.conf().validateKafkaPath();
-            run.add("-v");
-            run.add(String.format("%s:%s", cluster.conf().kafkaPath(),
+            binds.add(String.format("%s:%s", cluster.conf().kafkaPath(),
                 ActionPaths.KAFKA_SRC));
         }
         if (!cluster.conf().schemaRegistryPath().isEmpty()) {
             cluster.conf().validateSchemaRegistryPath();
-            run.add("-v");
-            run.add(String.format("%s:%s", cluster.conf().schemaRegistryPath(),
+            binds.add(String.format("%s:%s", cluster.conf().schemaRegistryPath(),
                 ActionPaths.SCHEMA_REGISTRY_SRC));
         }
         if (!cluster.env().clusterOutputPath().isEmpty()) {
@@ -104,87 +237,37 @@ public final class DockerCloud implements AutoCloseable {
                 "logs",
                 node.nodeName()).toAbsolutePath();
             Files.createDirectories(logDir);
-            run.add("-v");
-            run.add(String.format("%s:%s", logDir.toString(), ActionPaths.LOGS_ROOT));
+            binds.add(String.format("%s:%s", logDir.toString(), ActionPaths.LOGS_ROOT));
         }
-        run.add("--");
-        run.add(role.imageId());
-        StringBuilder stringBuilder = new StringBuilder();
-        new NodeShellRunner(node, run).
-            setCaptureOutput(stringBuilder).
-            setCaptureStderr(false).
-            mustRun();
-        return stringBuilder.toString().trim();
-    }
-
-    /**
-     * Get the port which is used by the docker container.
-     */
-    public int getDockerPort(CastleCluster cluster, CastleNode node,
-                             String containerName) throws Exception {
-        getNetworkCheckFuture(node).get();
-        List<String> docker = new ArrayList<>();
-        docker.addAll(Arrays.asList(new String[]{"docker", "port"}));
-        docker.add(containerName);
-        StringBuilder stringBuilder = new StringBuilder();
-        new NodeShellRunner(node, docker).
-            setCaptureOutput(stringBuilder).
-            setCaptureStderr(false).
-            mustRun();
-        String text = stringBuilder.toString().trim();
-        // The format of the "docker port" output is something like:
-        // 22/tcp -> 0.0.0.0:32768
-        // We assume that there is only one port.
-        int index = text.lastIndexOf(":");
-        if (index < 0) {
-            throw new RuntimeException("Expected to find a colon in the " +
-                "'docker port' output for " + node.nodeName());
+        ObjectNode spec = DockerEngineClient.containerSpec(imageId, containerName,
+            NETWORK, binds);
+        ObjectNode hostConfig = (ObjectNode) spec.get("HostConfig");
+        hostConfig.put("Privileged", true);
+        role.resources().applyTo(hostConfig, cpuset);
+        String containerId = client.createContainer(node, containerName, spec);
+        synchronized (this) {
+            countNetworkRefs(cluster);
+            networkRefs++;
         }
-        String portString = text.substring(index + 1);
-        int port = Integer.parseInt(portString);
-        return port;
+        client.startContainer(node, containerId);
+        return containerId;
     }
 
     /**
-     * Save the ssh private key from the docker container.
-     * This will let us ssh into the container.
+     * Count the containers which the cluster file says are attached to the
+     * network, if we have not done so yet.
      */
-    public String saveSshKeyFile(CastleCluster cluster, CastleNode node,
-                                 String containerName, String dockerUser) throws Exception {
-        getNetworkCheckFuture(node).get();
-        List<String> run = new ArrayList<>();
-        run.add("docker");
-        run.add("exec");
-        if (!dockerUser.isEmpty()) {
-            run.add("--user");
-            run.add(dockerUser);
-        }
-        // Run this command through the shell, so that "~" will be expanded to
-        // the current home directory.
-        run.addAll(Arrays.asList(new String[] {
-            containerName, "bash", "-c", "cat ~/.ssh/id_rsa"
-        }));
-        StringBuilder stringBuilder = new StringBuilder();
-        if (new NodeShellRunner(node, run).
-            setCaptureOutput(stringBuilder).
-                setCaptureStderr(false).
-                setLogOutputOnSuccess(false).
-                run() != 0) {
-            throw new RuntimeException("Failed to get the ssh key file for " + containerName);
+    private synchronized void countNetworkRefs(CastleCluster cluster) {
+        if (networkRefs >= 0) {
+            return;
         }
-        Path sshKeyPath = Paths.get(cluster.env().workingDirectory(),
-            containerName + ".id_rsa").toAbsolutePath();
-        try (BufferedWriter writer = Files.newBufferedWriter(sshKeyPath)) {
-            writer.write(stringBuilder.toString());
+        networkRefs = 0;
+        for (String nodeName : cluster.nodesWithRole(DockerNodeRole.class).values()) {
+            DockerNodeRole role = cluster.nodes().get(nodeName).getRole(DockerNodeRole.class);
+            if (!role.containerName().isEmpty()) {
+                networkRefs++;
+            }
         }
-        // We have to set the permissions to 0600, or else ssh refuses to use it.
-        List<String> chmod = Arrays.asList(new String[] {
-            "chmod", "0600", sshKeyPath.toString()
-        });
-        new NodeShellRunner(node, chmod).
-            setCaptureOutput(stringBuilder).
-            mustRun();
-        return sshKeyPath.toString();
     }
 
     /**
@@ -192,71 +275,134 @@ public final class DockerCloud implements AutoCloseable {
      */
     public TreeSet<String> listContainers(CastleNode node) throws Exception {
         getNetworkCheckFuture(node).get();
-        StringBuilder stringBuilder = new StringBuilder();
-        new NodeShellRunner(node,
-            Arrays.asList(new String[] { "docker", "ps", "-a", "--no-trunc",
-                "-f=network=" + NETWORK, "-q", "--format", "{{.Names}}"})).
-            setCaptureOutput(stringBuilder).
-            setCaptureStderr(false).
-            mustRun();
-        TreeSet<String> containers = new TreeSet<>();
-        for (String line : stringBuilder.toString().trim().split(System.lineSeparator())) {
-            if (!line.isEmpty()) {
-                containers.add(line);
-            }
-        }
-        return containers;
+        return client.listContainers(node, NETWORK);
     }
 
-    public static void cleanupNetwork(CastleNode node) throws Exception {
-        List<String> rmNet = Arrays.asList(new String[] {"docker", "network", "rm", NETWORK});
-        new NodeShellRunner(node, rmNet).run();
-    }
+    private static class NetworkCheck implements Callable<Void> {
+        private final DockerEngineClient client;
+        private final CastleNode node;
 
-    public static void createNetwork(CastleNode node) throws Exception {
-        List<String> create = Arrays.asList(new String[]{
-            "docker", "network", "create", NETWORK});
-        if (new NodeShellRunner(node, create).run() == 0) {
+        NetworkCheck(DockerEngineClient client, CastleNode node) {
+            this.client = client;
+            this.node = node;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (client.networkContainerCount(node, NETWORK) > 0) {
+                node.log().printf("** %s is running.%n", NETWORK);
+                return null;
+            }
+            node.log().printf("** Removing the old version of %s.%n", NETWORK);
+            client.removeNetwork(node, NETWORK);
+            client.createNetwork(node, NETWORK);
             node.log().printf("** Successfully created %s.%n", NETWORK);
-            return;
+            return null;
         }
-        throw new RuntimeException("Failed to create " + NETWORK + ".");
     }
 
-    private static class NetworkCheck implements Callable<Void> {
+    private static final class RemoveContainerOp {
         private final CastleNode node;
+        private final String containerName;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
 
-        NetworkCheck(CastleNode node) {
+        RemoveContainerOp(CastleNode node, String containerName) {
             this.node = node;
+            this.containerName = containerName;
         }
+    }
 
-        @Override
-        public Void call() throws Exception {
-            List<String> inspect = Arrays.asList(new String[]{
-                "docker", "network", "inspect", "ducknet", "-f", "{{len .Containers}}"
-            });
-            StringBuilder output = new StringBuilder();
-            if (new NodeShellRunner(node, inspect).setCaptureOutput(output).run() == 0) {
-                int numContainers = Integer.parseInt(output.toString().trim());
-                if (numContainers > 0) {
-                    node.log().printf("** ducknet is running.%n");
-                    return null;
+    /**
+     * Stop and remove a container.
+     *
+     * Containers which are removed at about the same time are handled as a
+     * batch, and their removals run in parallel.  When the last of our
+     * containers is removed, we remove the network as well.
+     */
+    public synchronized CompletableFuture<Void> shutdown(CastleCluster cluster, CastleNode node,
+                                                         String containerName) {
+        countNetworkRefs(cluster);
+        RemoveContainerOp op = new RemoveContainerOp(node, containerName);
+        removes.add(op);
+        if (removes.size() == 1) {
+            executorService.schedule(this::flushRemoves, COALESCE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+        return op.future;
+    }
+
+    private void flushRemoves() {
+        List<RemoveContainerOp> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(removes);
+            removes.clear();
+        }
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (RemoveContainerOp op : batch) {
+            futures.add(runOnWorker(() -> {
+                client.stopContainer(op.node, op.containerName, STOP_GRACE_SECONDS);
+                client.removeContainer(op.node, op.containerName);
+                releaseCpuset(op.containerName);
+                return null;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).
+            whenComplete((result, exception) -> {
+                int removed = 0;
+                for (CompletableFuture<Void> future : futures) {
+                    if (!future.isCompletedExceptionally()) {
+                        removed++;
+                    }
                 }
+                CastleNode node = batch.get(0).node;
+                try {
+                    releaseNetworkRefs(node, removed);
+                } catch (Throwable e) {
+                    node.log().printf("** Failed to remove %s: %s%n", NETWORK, e.getMessage());
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    RemoveContainerOp op = batch.get(i);
+                    futures.get(i).whenComplete((r, e) -> {
+                        if (e != null) {
+                            op.future.completeExceptionally(e);
+                        } else {
+                            op.future.complete(null);
+                        }
+                    });
+                }
+            });
+    }
+
+    /**
+     * Drop references to the network, and remove it if no containers are left.
+     * Other castle clusters may share the network, so we check that docker
+     * agrees that it is unused before removing it.
+     */
+    private void releaseNetworkRefs(CastleNode node, int count) throws Exception {
+        synchronized (this) {
+            networkRefs = Math.max(0, networkRefs - count);
+            if (networkRefs > 0) {
+                return;
+            }
+        }
+        if (client.networkContainerCount(node, NETWORK) == 0) {
+            client.removeNetwork(node, NETWORK);
+            node.log().printf("** Removed %s.%n", NETWORK);
+            synchronized (this) {
+                networkCheckFuture = null;
             }
-            node.log().printf("** Removing the old version of %s.%n", NETWORK);
-            cleanupNetwork(node);
-            createNetwork(node);
-            return null;
         }
     }
 
-    public void shutdown(CastleNode node, String containerName) throws Exception {
-        List<String> kill = Arrays.asList(new String[] {"docker", "kill", containerName});
-        new NodeShellRunner(node, kill).run();
-        List<String> rm = Arrays.asList(new String[] {"docker", "rm", containerName});
-        new NodeShellRunner(node, rm).run();
-        List<String> rmNet = Arrays.asList(new String[] {"docker", "network", "rm", NETWORK});
-        new NodeShellRunner(node, rmNet).run();
+    private <T> CompletableFuture<T> runOnWorker(Callable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        workerService.submit(() -> {
+            try {
+                future.complete(callable.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
     }
 
     public void shutdownAll(CastleCluster cluster, CastleNode node) throws Exception {
@@ -276,13 +422,19 @@ public final class DockerCloud implements AutoCloseable {
             CastleLog.printToAll(String.format("*** %s: Removing docker container(s): %s.%n",
                 node.nodeName(), String.join(", ", containers)),
                 node.log(), cluster.clusterLog());
-            List<String> killAll = new ArrayList<>(Arrays.asList(new String[]{"docker", "kill"}));
-            killAll.addAll(containers);
-            new NodeShellRunner(node, killAll).run();
-            List<String> rmAll = new ArrayList<>(Arrays.asList(new String[]{"docker", "rm"}));
-            rmAll.addAll(containers);
-            new NodeShellRunner(node, rmAll).run();
+            // There is no need for a grace period, since we are cleaning up.
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            for (String container : containers) {
+                futures.add(runOnWorker(() -> client.removeContainer(node, container)));
+            }
+            for (CompletableFuture<Boolean> future : futures) {
+                future.get();
+            }
+        }
+        client.removeNetwork(node, NETWORK);
+        synchronized (this) {
+            networkRefs = 0;
+            networkCheckFuture = null;
         }
-        cleanupNetwork(node);
     }
 }
@@ -0,0 +1,426 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.NodeShellRunner;
+import io.confluent.castle.common.CastleUtil;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * A client for the Docker Engine API.
+ *
+ * Requests are sent over the local Docker unix socket with curl, and the
+ * responses are parsed as JSON.  Java 8 cannot open unix sockets, so each call
+ * still starts a curl process.  curl is much lighter than the docker CLI,
+ * though, which loads its own configuration and negotiates the API version
+ * every time it runs.  This also gives us structured output for container
+ * lists, rather than text which we have to scrape.
+ *
+ * The daemon is found the same way the docker CLI finds it, so that the
+ * containers we create are the ones which docker exec later runs commands in.
+ * Only daemons which listen on a unix socket are supported.
+ */
+public final class DockerEngineClient {
+    /**
+     * The Docker Engine API version to use.  1.25 is supported by Docker 1.13 and later.
+     */
+    private final static String API_VERSION = "v1.25";
+
+    private final static String DEFAULT_SOCKET = "/var/run/docker.sock";
+
+    private final static String DEFAULT_CONTEXT = "default";
+
+    private final static String UNIX_PREFIX = "unix://";
+
+    private final static String STATUS_SEPARATOR = "\nCASTLE_HTTP_STATUS=";
+
+    private final String socketPath;
+
+    /**
+     * The result of an API call.
+     */
+    static final class Response {
+        private final int status;
+        private final JsonNode body;
+
+        Response(int status, JsonNode body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        int status() {
+            return status;
+        }
+
+        JsonNode body() {
+            return body;
+        }
+
+        boolean ok() {
+            return (status >= 200) && (status < 300);
+        }
+
+        String errorMessage() {
+            JsonNode message = body.get("message");
+            if (message != null) {
+                return message.asText();
+            }
+            return body.toString();
+        }
+    }
+
+    /**
+     * Find the endpoint of the docker daemon, the way the docker CLI does.
+     * DOCKER_HOST comes first.  Otherwise, we use the endpoint of the context
+     * named by DOCKER_CONTEXT, or of the current context in the CLI
+     * configuration.  The default context uses the default socket.
+     *
+     * @param env           The environment variables.
+     * @param configDir     The docker CLI configuration directory.
+     */
+    static String dockerHost(Map<String, String> env, Path configDir) throws IOException {
+        String host = env.get("DOCKER_HOST");
+        if ((host != null) && !host.isEmpty()) {
+            return host;
+        }
+        String context = env.get("DOCKER_CONTEXT");
+        if ((context == null) || context.isEmpty()) {
+            Path configPath = configDir.resolve("config.json");
+            if (Files.exists(configPath)) {
+                context = JSON_SERDE.readTree(configPath.toFile()).path("currentContext").asText();
+            }
+        }
+        if ((context == null) || context.isEmpty() || context.equals(DEFAULT_CONTEXT)) {
+            return UNIX_PREFIX + DEFAULT_SOCKET;
+        }
+        // The CLI stores the metadata of each context under the SHA-256 of its name.
+        Path metaPath = configDir.resolve(Paths.get("contexts", "meta",
+            CastleUtil.sha256Hex(context), "meta.json"));
+        if (!Files.exists(metaPath)) {
+            throw new RuntimeException("Unable to find the docker context " + context +
+                ": " + metaPath + " does not exist.");
+        }
+        host = JSON_SERDE.readTree(metaPath.toFile()).path("Endpoints").
+            path("docker").path("Host").asText();
+        if (host.isEmpty()) {
+            throw new RuntimeException("The docker context " + context +
+                " does not have a docker endpoint.");
+        }
+        return host;
+    }
+
+    /**
+     * Get the docker CLI configuration directory.
+     */
+    static Path configDir(Map<String, String> env) {
+        String dir = env.get("DOCKER_CONFIG");
+        if ((dir != null) && !dir.isEmpty()) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".docker");
+    }
+
+    /**
+     * Get the path of the unix socket for a docker endpoint.
+     */
+    static String socketPath(String dockerHost) {
+        if (!dockerHost.startsWith(UNIX_PREFIX)) {
+            throw new RuntimeException("The docker daemon is at " + dockerHost +
+                ", but castle can only reach a docker daemon through a unix socket.");
+        }
+        return dockerHost.substring(UNIX_PREFIX.length());
+    }
+
+    private static String defaultSocketPath() {
+        Map<String, String> env = System.getenv();
+        try {
+            return socketPath(dockerHost(env, configDir(env)));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read the docker CLI configuration", e);
+        }
+    }
+
+    public DockerEngineClient() {
+        this(defaultSocketPath());
+    }
+
+    public DockerEngineClient(String socketPath) {
+        this.socketPath = socketPath;
+    }
+
+    public String socketPath() {
+        return socketPath;
+    }
+
+    /**
+     * Parse the output of a curl invocation.  The body is followed by the
+     * HTTP status, which we ask curl to print after a separator.
+     */
+    static Response parseResponse(String output) throws Exception {
+        int index = output.lastIndexOf(STATUS_SEPARATOR);
+        if (index < 0) {
+            throw new RuntimeException("Unable to find the HTTP status in the " +
+                "docker engine response: " + output);
+        }
+        int status = Integer.parseInt(
+            output.substring(index + STATUS_SEPARATOR.length()).trim());
+        String text = output.substring(0, index).trim();
+        JsonNode body = text.isEmpty() ? NullNode.getInstance() :
+            JSON_SERDE.readTree(text);
+        return new Response(status, body);
+    }
+
+    Response request(CastleNode node, String method, String path,
+                     JsonNode body) throws Exception {
+        List<String> curl = new ArrayList<>(Arrays.asList(new String[] {
+            "curl", "-sS", "--unix-socket", socketPath, "-X", method,
+            "-w", STATUS_SEPARATOR + "%{http_code}"}));
+        byte[] stdin = null;
+        if (body != null) {
+            curl.addAll(Arrays.asList(new String[] {
+                "-H", "Content-Type: application/json", "--data-binary", "@-"}));
+            stdin = JSON_SERDE.writeValueAsBytes(body);
+        }
+        curl.add("http://localhost/" + API_VERSION + path);
+        StringBuilder output = new StringBuilder();
+        new NodeShellRunner(node, curl).
+            setCaptureOutput(output).
+            setCaptureStderr(false).
+            setStdin(stdin).
+            mustRun();
+        return parseResponse(output.toString());
+    }
+
+    private JsonNode mustRequest(CastleNode node, String method, String path,
+                                 JsonNode body, String what) throws Exception {
+        Response response = request(node, method, path, body);
+        if (!response.ok()) {
+            throw new RuntimeException("Failed to " + what + ": HTTP " +
+                response.status() + ": " + response.errorMessage());
+        }
+        return response.body();
+    }
+
+    private static String encode(String value) throws Exception {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+    }
+
+    /**
+     * Get system-wide information about the docker daemon, such as the
+     * number of CPUs which it can use.
+     */
+    public JsonNode info(CastleNode node) throws Exception {
+        return mustRequest(node, "GET", "/info", null, "get docker information");
+    }
+
+    /**
+     * Create a new container.
+     *
+     * @param node          The node to use for logging.
+     * @param name          The container name.
+     * @param spec          The container configuration, as the Engine API expects it.
+     * @return              The container ID.
+     */
+    public String createContainer(CastleNode node, String name,
+                                  ObjectNode spec) throws Exception {
+        JsonNode result = mustRequest(node, "POST",
+            "/containers/create?name=" + encode(name), spec,
+            "create container " + name);
+        return result.get("Id").asText();
+    }
+
+    public void startContainer(CastleNode node, String id) throws Exception {
+        Response response = request(node, "POST", "/containers/" + encode(id) + "/start", null);
+        // 304 means that the container was already started.
+        if ((!response.ok()) && (response.status() != 304)) {
+            throw new RuntimeException("Failed to start container " + id +
+                ": HTTP " + response.status() + ": " + response.errorMessage());
+        }
+    }
+
+    public JsonNode inspectContainer(CastleNode node, String name) throws Exception {
+        return mustRequest(node, "GET", "/containers/" + encode(name) + "/json",
+            null, "inspect container " + name);
+    }
+
+    /**
+     * Check whether an image exists.
+     *
+     * @param name          The image name or ID, such as "castle-cache:0123abcd".
+     */
+    public boolean imageExists(CastleNode node, String name) throws Exception {
+        Response response = request(node, "GET", "/images/" + encode(name) + "/json", null);
+        if (response.status() == 404) {
+            return false;
+        } else if (!response.ok()) {
+            throw new RuntimeException("Failed to inspect image " + name +
+                ": HTTP " + response.status() + ": " + response.errorMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Create a new image from a container's filesystem.  Volumes mounted into
+     * the container are not included.
+     *
+     * @param container     The container name or ID.
+     * @param repo          The repository to tag the image with.
+     * @param tag           The tag to use.
+     * @return              The ID of the new image.
+     */
+    public String commitContainer(CastleNode node, String container,
+                                  String repo, String tag) throws Exception {
+        JsonNode result = mustRequest(node, "POST", "/commit?container=" + encode(container) +
+            "&repo=" + encode(repo) + "&tag=" + encode(tag) + "&pause=1",
+            JSON_SERDE.createObjectNode(), "commit container " + container);
+        return result.get("Id").asText();
+    }
+
+    /**
+     * List the names of the containers attached to a network, whether they are running or not.
+     */
+    public TreeSet<String> listContainers(CastleNode node, String network) throws Exception {
+        ObjectNode filters = JSON_SERDE.createObjectNode();
+        filters.putArray("network").add(network);
+        JsonNode result = mustRequest(node, "GET", "/containers/json?all=1&filters=" +
+            encode(filters.toString()), null, "list containers");
+        return containerNames(result);
+    }
+
+    static TreeSet<String> containerNames(JsonNode containers) {
+        TreeSet<String> names = new TreeSet<>();
+        for (JsonNode container : containers) {
+            for (JsonNode name : container.path("Names")) {
+                String text = name.asText();
+                names.add(text.startsWith("/") ? text.substring(1) : text);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Stop a container.  The container's processes are sent SIGTERM, and then
+     * SIGKILL if they have not exited after the grace period.
+     *
+     * @param graceSeconds  The number of seconds to wait before killing the container.
+     */
+    public void stopContainer(CastleNode node, String name, int graceSeconds) throws Exception {
+        Response response = request(node, "POST",
+            "/containers/" + encode(name) + "/stop?t=" + graceSeconds, null);
+        // 304 means that the container was already stopped, and 404 that it does not exist.
+        if ((!response.ok()) && (response.status() != 304) && (response.status() != 404)) {
+            throw new RuntimeException("Failed to stop container " + name +
+                ": HTTP " + response.status() + ": " + response.errorMessage());
+        }
+    }
+
+    /**
+     * Forcibly remove a container, killing it first if it is running.
+     *
+     * @return              True if the container was removed; false if it did not exist.
+     */
+    public boolean removeContainer(CastleNode node, String name) throws Exception {
+        Response response = request(node, "DELETE",
+            "/containers/" + encode(name) + "?force=1", null);
+        if (response.status() == 404) {
+            return false;
+        } else if (!response.ok()) {
+            throw new RuntimeException("Failed to remove container " + name +
+                ": HTTP " + response.status() + ": " + response.errorMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of containers attached to a network.
+     *
+     * @return              The number of containers, or -1 if the network does not exist.
+     */
+    public int networkContainerCount(CastleNode node, String network) throws Exception {
+        Response response = request(node, "GET", "/networks/" + encode(network), null);
+        if (response.status() == 404) {
+            return -1;
+        } else if (!response.ok()) {
+            throw new RuntimeException("Failed to inspect network " + network +
+                ": HTTP " + response.status() + ": " + response.errorMessage());
+        }
+        int count = 0;
+        for (Iterator<String> iter = response.body().path("Containers").fieldNames();
+                iter.hasNext(); iter.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    public void createNetwork(CastleNode node, String network) throws Exception {
+        ObjectNode spec = JSON_SERDE.createObjectNode();
+        spec.put("Name", network);
+        spec.put("CheckDuplicate", true);
+        mustRequest(node, "POST", "/networks/create", spec, "create network " + network);
+    }
+
+    /**
+     * Remove a network.
+     *
+     * @return              True if the network was removed.
+     */
+    public boolean removeNetwork(CastleNode node, String network) throws Exception {
+        return request(node, "DELETE", "/networks/" + encode(network), null).ok();
+    }
+
+    /**
+     * Build the container configuration for a container attached to a network.
+     *
+     * @param image         The image to run.
+     * @param hostname      The hostname to give the container.
+     * @param network       The network to attach the container to.
+     * @param binds         Volumes to bind, in host:container form.
+     */
+    public static ObjectNode containerSpec(String image, String hostname, String network,
+                                           List<String> binds) {
+        ObjectNode spec = JSON_SERDE.createObjectNode();
+        spec.put("Image", image);
+        spec.put("Hostname", hostname);
+        ObjectNode hostConfig = spec.putObject("HostConfig");
+        ArrayNode bindArray = hostConfig.putArray("Binds");
+        for (String bind : binds) {
+            bindArray.add(bind);
+        }
+        hostConfig.put("NetworkMode", network);
+        return spec;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The resources which a Docker container may use.
+ *
+ * Containers can be pinned to CPUs, either with an explicit cpuset or by
+ * asking for a number of CPUs which castle assigns so that no two containers
+ * share them.  Containers can also have a CPU quota, memory limits, tmpfs
+ * mounts, and ulimits.
+ */
+public final class DockerResources {
+    private final static String DEFAULT_MEMORY = "3G";
+
+    private final static int DEFAULT_MEMORY_SWAPPINESS = 1;
+
+    /**
+     * The CPUs which the container may run on, such as "0-3".  Empty to let
+     * castle assign CPUs based on cpuCount.
+     */
+    private final String cpus;
+
+    /**
+     * The number of CPUs to assign to the container, if cpus is not set.
+     * 0 to let the container run on any CPU.
+     */
+    private final int cpuCount;
+
+    /**
+     * The maximum number of CPUs' worth of time which the container may use,
+     * such as 1.5.  0 for no limit.
+     */
+    private final double cpuLimit;
+
+    /**
+     * The memory limit, such as "3G".
+     */
+    private final String memory;
+
+    /**
+     * The memory swappiness of the container, from 0 to 100.
+     */
+    private final int memorySwappiness;
+
+    /**
+     * Maps paths in the container to tmpfs mount options, such as "size=1g".
+     * The options may be empty.
+     */
+    private final Map<String, String> tmpfs;
+
+    /**
+     * Maps ulimit names, such as "nofile", to either a single limit, or a soft
+     * and a hard limit separated by a colon.
+     */
+    private final Map<String, String> ulimits;
+
+    public static final DockerResources DEFAULT =
+        new DockerResources(null, 0, 0, null, null, null, null);
+
+    @JsonCreator
+    public DockerResources(@JsonProperty("cpus") String cpus,
+                           @JsonProperty("cpuCount") int cpuCount,
+                           @JsonProperty("cpuLimit") double cpuLimit,
+                           @JsonProperty("memory") String memory,
+                           @JsonProperty("memorySwappiness") Integer memorySwappiness,
+                           @JsonProperty("tmpfs") Map<String, String> tmpfs,
+                           @JsonProperty("ulimits") Map<String, String> ulimits) {
+        this.cpus = (cpus == null) ? "" : cpus;
+        this.cpuCount = Math.max(0, cpuCount);
+        this.cpuLimit = Math.max(0, cpuLimit);
+        this.memory = (memory == null || memory.isEmpty()) ? DEFAULT_MEMORY : memory;
+        this.memorySwappiness = (memorySwappiness == null) ?
+            DEFAULT_MEMORY_SWAPPINESS : memorySwappiness;
+        this.tmpfs = (tmpfs == null) ? Collections.emptyMap() :
+            Collections.unmodifiableMap(new TreeMap<>(tmpfs));
+        this.ulimits = (ulimits == null) ? Collections.emptyMap() :
+            Collections.unmodifiableMap(new TreeMap<>(ulimits));
+        if (!this.cpus.isEmpty()) {
+            CpusetAllocator.parse(this.cpus);
+        }
+        parseBytes(this.memory);
+    }
+
+    @JsonProperty
+    public String cpus() {
+        return cpus;
+    }
+
+    @JsonProperty
+    public int cpuCount() {
+        return cpuCount;
+    }
+
+    @JsonProperty
+    public double cpuLimit() {
+        return cpuLimit;
+    }
+
+    @JsonProperty
+    public String memory() {
+        return memory;
+    }
+
+    @JsonProperty
+    public int memorySwappiness() {
+        return memorySwappiness;
+    }
+
+    @JsonProperty
+    public Map<String, String> tmpfs() {
+        return tmpfs;
+    }
+
+    @JsonProperty
+    public Map<String, String> ulimits() {
+        return ulimits;
+    }
+
+    /**
+     * Set the resource limits in the HostConfig of a container specification.
+     *
+     * @param hostConfig    The HostConfig object.
+     * @param cpuset        The CPUs to pin the container to, or the empty string.
+     */
+    void applyTo(ObjectNode hostConfig, String cpuset) {
+        if (!cpuset.isEmpty()) {
+            hostConfig.put("CpusetCpus", cpuset);
+        }
+        if (cpuLimit > 0) {
+            hostConfig.put("NanoCpus", (long) (cpuLimit * 1000000000L));
+        }
+        hostConfig.put("Memory", parseBytes(memory));
+        hostConfig.put("MemorySwappiness", memorySwappiness);
+        if (!tmpfs.isEmpty()) {
+            ObjectNode tmpfsNode = hostConfig.putObject("Tmpfs");
+            for (Map.Entry<String, String> entry : tmpfs.entrySet()) {
+                tmpfsNode.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!ulimits.isEmpty()) {
+            ArrayNode ulimitArray = hostConfig.putArray("Ulimits");
+            for (Map.Entry<String, String> entry : ulimits.entrySet()) {
+                String value = entry.getValue();
+                int colon = value.indexOf(':');
+                String soft = (colon < 0) ? value : value.substring(0, colon);
+                String hard = (colon < 0) ? value : value.substring(colon + 1);
+                ulimitArray.addObject().
+                    put("Name", entry.getKey()).
+                    put("Soft", parseUlimit(entry.getKey(), soft)).
+                    put("Hard", parseUlimit(entry.getKey(), hard));
+            }
+        }
+    }
+
+    private static long parseUlimit(String name, String value) {
+        String trimmed = value.trim();
+        if (trimmed.equals("unlimited")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(trimmed);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid value " + value + " for ulimit " + name, e);
+        }
+    }
+
+    /**
+     * Parse a size such as "512m" or "3G" into a number of bytes.  As with
+     * docker, the suffixes are powers of 1024.
+     */
+    static long parseBytes(String size) {
+        String trimmed = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (trimmed.endsWith("b")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        if (!trimmed.isEmpty()) {
+            switch (trimmed.charAt(trimmed.length() - 1)) {
+                case 'k':
+                    multiplier = 1024L;
+                    break;
+                case 'm':
+                    multiplier = 1024L * 1024L;
+                    break;
+                case 'g':
+                    multiplier = 1024L * 1024L * 1024L;
+                    break;
+                case 't':
+                    multiplier = 1024L * 1024L * 1024L * 1024L;
+                    break;
+                default:
+                    break;
+            }
+            if (multiplier != 1) {
+                trimmed = trimmed.substring(0, trimmed.length() - 1);
+            }
+        }
+        try {
+            return Long.parseLong(trimmed.trim()) * multiplier;
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid size " + size, e);
+        }
+    }
+}
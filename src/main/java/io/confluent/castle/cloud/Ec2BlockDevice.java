@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Objects;
+
+/**
+ * An EBS volume to attach to an EC2 instance when it is created.
+ */
+public final class Ec2BlockDevice {
+    private static final String VOLUME_TYPE_DEFAULT = "gp3";
+
+    /**
+     * The device name, such as /dev/sdf.
+     */
+    private final String deviceName;
+
+    /**
+     * The EBS volume type, such as gp3 or io2.
+     */
+    private final String volumeType;
+
+    /**
+     * The size of the volume in GiB.
+     */
+    private final int volumeSize;
+
+    /**
+     * The provisioned IOPS, or 0 to use the default for the volume type.
+     */
+    private final int iops;
+
+    @JsonCreator
+    public Ec2BlockDevice(@JsonProperty("deviceName") String deviceName,
+                          @JsonProperty("volumeType") String volumeType,
+                          @JsonProperty("volumeSize") int volumeSize,
+                          @JsonProperty("iops") int iops) {
+        if (deviceName == null || deviceName.isEmpty()) {
+            throw new RuntimeException("You must specify a deviceName for each block device.");
+        }
+        if (volumeSize <= 0) {
+            throw new RuntimeException("You must specify a positive volumeSize for " +
+                deviceName + ".");
+        }
+        this.deviceName = deviceName;
+        this.volumeType = volumeType == null ? VOLUME_TYPE_DEFAULT : volumeType;
+        this.volumeSize = volumeSize;
+        this.iops = iops;
+    }
+
+    @JsonProperty
+    public String deviceName() {
+        return deviceName;
+    }
+
+    @JsonProperty
+    public String volumeType() {
+        return volumeType;
+    }
+
+    @JsonProperty
+    public int volumeSize() {
+        return volumeSize;
+    }
+
+    @JsonProperty
+    public int iops() {
+        return iops;
+    }
+
+    BlockDeviceMapping toMapping() {
+        EbsBlockDevice ebs = new EbsBlockDevice().
+            withVolumeType(volumeType).
+            withVolumeSize(volumeSize).
+            withDeleteOnTermination(true);
+        if (iops > 0) {
+            ebs.setIops(iops);
+        }
+        return new BlockDeviceMapping().withDeviceName(deviceName).withEbs(ebs);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Ec2BlockDevice other = (Ec2BlockDevice) o;
+        return deviceName.equals(other.deviceName) &&
+            volumeType.equals(other.volumeType) &&
+            volumeSize == other.volumeSize &&
+            iops == other.iops;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(deviceName, volumeType, volumeSize, iops);
+    }
+}
@@ -17,16 +17,25 @@
 
 package io.confluent.castle.cloud;
 
-import com.amazonaws.services.ec2.AmazonEC2;
-import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AmazonEC2Async;
+import com.amazonaws.services.ec2.AmazonEC2AsyncClientBuilder;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
-import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Filter;
 import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceNetworkInterfaceSpecification;
+import com.amazonaws.services.ec2.model.Placement;
 import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.ResourceType;
 import com.amazonaws.services.ec2.model.RunInstancesRequest;
-import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
 import com.amazonaws.services.ec2.model.Tag;
 import com.amazonaws.services.ec2.model.TagSpecification;
 import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
@@ -41,14 +50,22 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public final class Ec2Cloud implements AutoCloseable, Runnable {
+public final class Ec2Cloud implements AutoCloseable {
     private static final Logger log = LoggerFactory.getLogger(Ec2Cloud.class);
 
     /**
@@ -60,18 +77,76 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
     private final static int COALSCE_DELAY_MS = 20;
 
     /**
-     * The minimum delay to observe between making a request and making a
-     * subsequent request.  This helps avoid exceeding the ec2 rate limiting.
+     * How often the instance watcher describes the instances which it is
+     * waiting for.
      */
-    private final static int CALL_DELAY_MS = 500;
+    private final static int WATCH_INTERVAL_MS = 1000;
+
+    /**
+     * How long to wait for an instance to be running and to have its DNS names,
+     * unless the caller gives its own timeout.
+     */
+    private final static long DEFAULT_AWAIT_RUNNING_TIMEOUT_MS = 15 * 60 * 1000;
+
+    /**
+     * The maximum number of times to retry a call which was throttled.
+     */
+    private final static int MAX_THROTTLE_RETRIES = 10;
+
+    /**
+     * The maximum number of instance IDs to send in a single describe request.
+     * Larger sets of IDs are split into chunks which are described in parallel.
+     */
+    private final static int DESCRIBE_CHUNK_SIZE = 200;
+
+    /**
+     * The maximum number of results to ask for in each page of a filtered
+     * describe request.
+     */
+    private final static int DESCRIBE_PAGE_SIZE = 1000;
+
+    /**
+     * How often to check whether an image which we are creating is available.
+     */
+    private final static int IMAGE_POLL_INTERVAL_MS = 5000;
+
+    /**
+     * How long callers may share the result of a describe of all instances.
+     * Instance states such as pending go stale quickly, so this is short.
+     */
+    private final static int DESCRIBE_ALL_CACHE_TTL_MS = 5000;
 
     private final static Tag CASTLE_TAG = new Tag("CastleNodeVersion", "1");
 
+    /**
+     * The tag which marks a stopped instance as being in the warm pool.  The
+     * value is the fingerprint of the configuration which the instance has.
+     */
+    private final static String POOL_TAG_KEY = "CastlePoolFingerprint";
+
     private final Ec2Settings settings;
 
-    private final AmazonEC2 ec2;
+    private final CastleLog clusterLog;
 
-    private final Thread thread;
+    private final AmazonEC2Async ec2;
+
+    /**
+     * Limits the rate of calls which create or destroy resources.
+     * EC2 has lower limits for these than for describe calls.
+     */
+    private final RateLimiter mutatingLimiter;
+
+    /**
+     * Limits the rate of describe calls.
+     */
+    private final RateLimiter describeLimiter;
+
+    /**
+     * Runs the coalesced batches of operations, the instance watcher, and
+     * calls which are waiting for the rate limiter.  The calls themselves
+     * are made by the asynchronous EC2 client, so this never blocks.
+     */
+    private final ScheduledExecutorService scheduler;
 
     private final List<CreateInstanceOp> creates = new ArrayList<>();
 
@@ -81,21 +156,54 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
 
     private final List<TerminateInstanceOp> terminates = new ArrayList<>();
 
-    private boolean shouldExit = false;
+    private final List<StopInstanceOp> stops = new ArrayList<>();
 
-    private boolean shutdownAllInvoked = false;
+    private final List<ClaimInstanceOp> claims = new ArrayList<>();
+
+    /**
+     * The IDs of pooled instances which we have claimed.  This prevents two
+     * claims from getting the same instance before its pool tag is removed.
+     */
+    private final Set<String> claimedIds = new HashSet<>();
 
-    private long nextCallTimeMs = 0;
+    /**
+     * Instances which we are waiting to be running, mapped to the futures which
+     * we will complete once they are.
+     */
+    private final Map<String, CompletableFuture<Ec2InstanceInfo>> watches = new HashMap<>();
+
+    /**
+     * Maps the instances which we are waiting for to the times at which we give up.
+     */
+    private final Map<String, Long> watchDeadlines = new HashMap<>();
+
+    /**
+     * True if the instance watcher is scheduled or running.
+     */
+    private boolean watcherScheduled = false;
+
+    /**
+     * The result of the last describe of all instances, or null if there is none.
+     * This is shared by callers for a short time, or until we change an instance.
+     */
+    private CompletableFuture<Collection<Ec2InstanceInfo>> describeAllCache = null;
+
+    /**
+     * When the cached describe of all instances was started.
+     */
+    private long describeAllCacheMs = 0;
+
+    private boolean closed = false;
+
+    private boolean shutdownAllInvoked = false;
 
     private final static class CreateInstanceOp {
         private final CompletableFuture<String> future = new CompletableFuture<>();
-        private final String instanceType;
-        private final String imageId;
+        private final Ec2InstanceSpec spec;
         private final int nodeIndex;
 
-        CreateInstanceOp(String instanceType, String imageId, int nodeIndex) {
-            this.instanceType = instanceType;
-            this.imageId = imageId;
+        CreateInstanceOp(Ec2InstanceSpec spec, int nodeIndex) {
+            this.spec = spec;
             this.nodeIndex = nodeIndex;
         }
     }
@@ -123,262 +231,769 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         }
     }
 
-    public Ec2Cloud(Ec2Settings settings) {
-        this.settings = settings;
-        AmazonEC2ClientBuilder ec2Builder = AmazonEC2ClientBuilder.standard();
-        if (!settings.region().isEmpty()) {
-            ec2Builder.setRegion(settings.region());
+    private static final class StopInstanceOp {
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private final String instanceId;
+        private final String fingerprint;
+
+        StopInstanceOp(String instanceId, String fingerprint) {
+            this.instanceId = instanceId;
+            this.fingerprint = fingerprint;
         }
-        this.ec2 = ec2Builder.build();
-        this.thread = new Thread(this, "Ec2CloudThread");
-        this.thread.start();
     }
 
-    @Override
-    public void run() {
-        try {
-            while (true) {
-                synchronized (this) {
-                    long delayMs = calculateDelayMs();
-                    if (delayMs < 0) {
-                        break;
-                    } else if (delayMs > 0) {
-                        log.trace("Ec2Cloud thread waiting for {} ms.", delayMs);
-                        wait(delayMs);
-                    } else {
-                        makeCalls();
-                    }
-                }
-            }
-            log.trace("Ec2Cloud thread exiting");
-        } catch (Exception e) {
-            log.warn("Ec2Cloud thread exiting with error", e);
-            throw new RuntimeException(e);
-        } finally {
-            synchronized (this) {
-                RuntimeException e = new RuntimeException("Ec2Cloud is shutting down.");
-                for (CreateInstanceOp op : creates) {
-                    op.future.completeExceptionally(e);
-                }
-                for (DescribeInstanceOp describe : describes) {
-                    describe.future.completeExceptionally(e);
-                }
-                for (DescribeAllInstancesOp describeAll : describeAlls) {
-                    describeAll.future.completeExceptionally(e);
-                }
-                for (TerminateInstanceOp terminate : terminates) {
-                    terminate.future.completeExceptionally(e);
-                }
-            }
+    private static final class ClaimInstanceOp {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final String fingerprint;
+
+        ClaimInstanceOp(String fingerprint) {
+            this.fingerprint = fingerprint;
         }
     }
 
-    private synchronized long calculateDelayMs() throws Exception {
-        if (shouldExit) {
-            // Should exit.
-            return -1;
-        } else if (creates.isEmpty() &&
-                    describes.isEmpty() &&
-                    describeAlls.isEmpty() &&
-                    terminates.isEmpty()) {
-            // Nothing to do.
-            return Long.MAX_VALUE;
+    public Ec2Cloud(Ec2Settings settings, CastleLog clusterLog) {
+        this.settings = settings;
+        this.clusterLog = clusterLog;
+        long now = System.currentTimeMillis();
+        this.mutatingLimiter = new RateLimiter("mutating", 0.1, 2, 5, 5, now);
+        this.describeLimiter = new RateLimiter("describe", 0.2, 10, 20, 20, now);
+        if (settings.fake() != null) {
+            this.ec2 = new FakeEc2(settings.fake());
         } else {
-            long now = System.currentTimeMillis();
-            if (nextCallTimeMs > now) {
-                return nextCallTimeMs - now;
-            } else {
-                return 0;
+            AmazonEC2AsyncClientBuilder ec2Builder = AmazonEC2AsyncClientBuilder.standard();
+            if (!settings.region().isEmpty()) {
+                ec2Builder.setRegion(settings.region());
             }
+            this.ec2 = ec2Builder.build();
         }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            CastleUtil.createThreadFactory("Ec2CloudSchedulerThread", true));
     }
 
-    private synchronized void makeCalls() throws Exception {
-        log.info("Ec2Cloud#makeCalls.  creates.size=" + creates.size());
-        if (!creates.isEmpty()) {
-            List<CreateInstanceOp> batchCreates = new ArrayList<>();
-            Iterator<CreateInstanceOp> iter = creates.iterator();
-            CreateInstanceOp firstCreate = iter.next();
-            iter.remove();
-            batchCreates.add(firstCreate);
-            while (iter.hasNext()) {
-                CreateInstanceOp runner = iter.next();
-                if (runner.equals(firstCreate)) {
-                    batchCreates.add(runner);
-                    iter.remove();
-                }
-            }
+    /**
+     * Get the EC2 client.  This is exposed for tests which use a fake client.
+     */
+    AmazonEC2Async ec2() {
+        return ec2;
+    }
+
+    /**
+     * Add an operation to a queue.  When the operation is the first one in the
+     * queue, we schedule the queue to be flushed after the coalesce delay.
+     * Each type of operation has its own queue, so different types of
+     * operation do not wait for each other.
+     */
+    private synchronized <T> void enqueue(List<T> queue, T op, Runnable flush) {
+        queue.add(op);
+        if (queue.size() == 1) {
+            schedule(flush, COALSCE_DELAY_MS);
+        }
+    }
+
+    private boolean schedule(Runnable runnable, long delayMs) {
+        try {
+            scheduler.schedule(runnable, delayMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.debug("Ec2Cloud: unable to schedule {}: the scheduler is shut down.", runnable);
+            return false;
+        }
+    }
+
+    private static <T> List<T> drain(List<T> ops) {
+        List<T> drained = new ArrayList<>(ops);
+        ops.clear();
+        return drained;
+    }
+
+    private void flushCreates() {
+        List<CreateInstanceOp> batchCreates;
+        synchronized (this) {
+            batchCreates = drain(creates);
+        }
+        log.info("Ec2Cloud#flushCreates.  creates.size=" + batchCreates.size());
+        // Instances with the same spec can be created by a single RunInstances
+        // call.  Calls for different specs are made concurrently.
+        Map<Ec2InstanceSpec, List<CreateInstanceOp>> groups = new HashMap<>();
+        for (CreateInstanceOp op : batchCreates) {
+            groups.computeIfAbsent(op.spec, k -> new ArrayList<>()).add(op);
+        }
+        for (List<CreateInstanceOp> group : groups.values()) {
+            runInstances(group);
+        }
+    }
+
+    private void runInstances(List<CreateInstanceOp> batchCreates) {
+        Ec2InstanceSpec spec = batchCreates.get(0).spec;
+        if (settings.keyPair().isEmpty()) {
+            failAll(batchCreates, op -> op.future, new RuntimeException("You must " +
+                "specify a keypair in order to create a new AWS instance."));
+            return;
+        }
+        if (settings.securityGroup().isEmpty()) {
+            failAll(batchCreates, op -> op.future, new RuntimeException("You must " +
+                "specify a security group in order to create a new AWS instance."));
+            return;
+        }
+        log.info("Ec2Cloud#runInstances.  batchCreates.size={}, spec={}, " +
+                "keyName={}, securityGroups={}", batchCreates.size(), spec,
+            settings.keyPair(), settings.securityGroup());
+        RunInstancesRequest req = new RunInstancesRequest()
+            .withInstanceType(spec.instanceType())
+            .withImageId(spec.imageId())
+            .withMinCount(batchCreates.size())
+            .withMaxCount(batchCreates.size())
+            .withKeyName(settings.keyPair())
+            .withTagSpecifications(
+                new TagSpecification().withResourceType(ResourceType.Instance).
+                    withTags(CASTLE_TAG));
+        if (spec.subnetId().isEmpty()) {
+            req.setSecurityGroups(Collections.singletonList(settings.securityGroup()));
+        } else {
+            // Instances in a VPC subnet must refer to security groups by ID.
+            // We reach nodes through their public DNS names, so ask for a
+            // public IP address even if the subnet does not assign one.
+            req.setNetworkInterfaces(Collections.singletonList(
+                new InstanceNetworkInterfaceSpecification().
+                    withDeviceIndex(0).
+                    withSubnetId(spec.subnetId()).
+                    withGroups(Collections.singletonList(settings.securityGroup())).
+                    withAssociatePublicIpAddress(true)));
+        }
+        if (!spec.placementGroup().isEmpty()) {
+            req.setPlacement(new Placement().withGroupName(spec.placementGroup()));
+        }
+        if (spec.ebsOptimized()) {
+            req.setEbsOptimized(true);
+        }
+        if (!spec.blockDevices().isEmpty()) {
+            req.setBlockDeviceMappings(spec.blockDevices().stream().
+                map(Ec2BlockDevice::toMapping).collect(Collectors.toList()));
+        }
+        call(mutatingLimiter, req, ec2::runInstancesAsync).whenComplete((result, exception) -> {
             Iterator<CreateInstanceOp> runInstanceIterator = batchCreates.iterator();
-            Exception failureException = new RuntimeException("Unable to create instance");
-            try {
-                if (settings.keyPair().isEmpty()) {
-                    throw new RuntimeException("You must specify a keypair in " +
-                        "order to create a new AWS instance.");
-                }
-                if (settings.securityGroup().isEmpty()) {
-                    throw new RuntimeException("You must specify a security group in " +
-                        "order to create a new AWS instance.");
-                }
-                log.info("Ec2Cloud#makeCalls.  batchCreates.size={}, imageId={}, keyName={}, securityGroups={}",
-                    batchCreates.size(), firstCreate.imageId, settings.keyPair(), settings.securityGroup());
-                RunInstancesRequest req = new RunInstancesRequest()
-                    .withInstanceType(firstCreate.instanceType)
-                    .withImageId(firstCreate.imageId)
-                    .withMinCount(batchCreates.size())
-                    .withMaxCount(batchCreates.size())
-                    .withKeyName(settings.keyPair())
-                    .withSecurityGroups(settings.securityGroup())
-                    .withTagSpecifications(
-                        new TagSpecification().withResourceType(ResourceType.Instance).
-                            withTags(CASTLE_TAG));
-
-                RunInstancesResult result = ec2.runInstances(req);
-                Reservation reservation = result.getReservation();
-                Iterator<Instance> instanceIterator = reservation.getInstances().iterator();
+            if (exception == null) {
+                Iterator<Instance> instanceIterator =
+                    result.getReservation().getInstances().iterator();
                 while (runInstanceIterator.hasNext() && instanceIterator.hasNext()) {
                     CreateInstanceOp runInstance = runInstanceIterator.next();
                     Instance instance = instanceIterator.next();
                     runInstance.future.complete(instance.getInstanceId());
                 }
-            } catch (Exception e) {
-                failureException = e;
+                exception = new RuntimeException("Unable to create instance");
             }
             while (runInstanceIterator.hasNext()) {
                 CreateInstanceOp runInstance = runInstanceIterator.next();
-                runInstance.future.completeExceptionally(failureException);
+                runInstance.future.completeExceptionally(exception);
             }
-        }
-        if (!describes.isEmpty()) {
-            Map<String, DescribeInstanceOp> idToDescribe = new HashMap<>();
-            for (Iterator<DescribeInstanceOp> iter = describes.iterator(); iter.hasNext();
-                     iter.remove()) {
-                DescribeInstanceOp describe = iter.next();
-                idToDescribe.put(describe.instanceId, describe);
+        });
+    }
+
+    private void flushDescribes() {
+        Map<String, List<DescribeInstanceOp>> idToDescribes = new HashMap<>();
+        synchronized (this) {
+            for (DescribeInstanceOp op : drain(describes)) {
+                idToDescribes.computeIfAbsent(op.instanceId, k -> new ArrayList<>()).add(op);
             }
-            Exception failureException = new RuntimeException("Result did not include instanceID.");
-            try {
-                DescribeInstancesRequest req = new DescribeInstancesRequest()
-                    .withInstanceIds(idToDescribe.keySet());
-                DescribeInstancesResult result = ec2.describeInstances(req);
-                for (Reservation reservation : result.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-                        DescribeInstanceOp op = idToDescribe.get(instance.getInstanceId());
-                        if (op != null) {
-                            Ec2InstanceInfo info =
-                                new Ec2InstanceInfo(instance.getInstanceId(),
-                                    instance.getPrivateDnsName(),
-                                    instance.getPublicDnsName(),
-                                    instance.getState().toString());
+        }
+        describeInstancesById(idToDescribes.keySet()).whenComplete((instances, exception) -> {
+            if (exception == null) {
+                for (Instance instance : instances) {
+                    List<DescribeInstanceOp> ops = idToDescribes.remove(instance.getInstanceId());
+                    if (ops != null) {
+                        Ec2InstanceInfo info = toInfo(instance);
+                        for (DescribeInstanceOp op : ops) {
                             op.future.complete(info);
-                            idToDescribe.remove(instance.getInstanceId());
                         }
                     }
                 }
-            } catch (Exception e) {
-                failureException = e;
+                exception = new RuntimeException("Result did not include instanceID.");
             }
-            for (Map.Entry<String, DescribeInstanceOp> entry : idToDescribe.entrySet()) {
-                entry.getValue().future.completeExceptionally(failureException);
+            for (List<DescribeInstanceOp> ops : idToDescribes.values()) {
+                failAll(ops, op -> op.future, exception);
             }
+        });
+    }
+
+    private void flushDescribeAlls() {
+        List<DescribeAllInstancesOp> batchDescribeAlls;
+        synchronized (this) {
+            batchDescribeAlls = drain(describeAlls);
         }
-        if (!describeAlls.isEmpty()) {
-            try {
-                if (settings.keyPair().isEmpty()) {
-                    throw new RuntimeException("You must specify a keypair with --keypair in " +
-                        "order to describe all AWS instances.");
-                }
-                DescribeInstancesRequest req = new DescribeInstancesRequest().withFilters(
-                    new Filter("key-name",
-                        Collections.singletonList(settings.keyPair())),
-                    new Filter("tag:" + CASTLE_TAG.getKey(),
-                        Collections.singletonList(CASTLE_TAG.getValue())));
-                ArrayList<Ec2InstanceInfo> all = new ArrayList<>();
-                DescribeInstancesResult result = ec2.describeInstances(req);
-                for (Reservation reservation : result.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-                        all.add(new Ec2InstanceInfo(instance.getInstanceId(),
-                            instance.getPrivateDnsName(),
-                            instance.getPublicDnsName(),
-                            instance.getState().toString()));
+        if (settings.keyPair().isEmpty()) {
+            failAll(batchDescribeAlls, op -> op.future, new RuntimeException("You must " +
+                "specify a keypair with --keypair in order to describe all AWS instances."));
+            return;
+        }
+        DescribeInstancesRequest req = new DescribeInstancesRequest().withFilters(
+            new Filter("key-name",
+                Collections.singletonList(settings.keyPair())),
+            new Filter("tag:" + CASTLE_TAG.getKey(),
+                Collections.singletonList(CASTLE_TAG.getValue())))
+            .withMaxResults(DESCRIBE_PAGE_SIZE);
+        describeInstancePages(req, new ArrayList<>()).whenComplete((instances, exception) -> {
+            if (exception != null) {
+                failAll(batchDescribeAlls, op -> op.future, exception);
+                return;
+            }
+            ArrayList<Ec2InstanceInfo> all = new ArrayList<>();
+            for (Instance instance : instances) {
+                all.add(toInfo(instance));
+            }
+            for (DescribeAllInstancesOp op : batchDescribeAlls) {
+                op.future.complete(all);
+            }
+        });
+    }
+
+    private void flushTerminates() {
+        List<TerminateInstanceOp> batchTerminates;
+        synchronized (this) {
+            batchTerminates = drain(terminates);
+        }
+        Set<String> instanceIds = new HashSet<>();
+        for (TerminateInstanceOp op : batchTerminates) {
+            instanceIds.add(op.instanceId);
+        }
+        TerminateInstancesRequest req = new TerminateInstancesRequest()
+            .withInstanceIds(instanceIds);
+        call(mutatingLimiter, req, ec2::terminateInstancesAsync).whenComplete((result, exception) -> {
+            if (exception != null) {
+                failAll(batchTerminates, op -> op.future, exception);
+                return;
+            }
+            for (TerminateInstanceOp op : batchTerminates) {
+                CastleUtil.completeNull(op.future);
+            }
+        });
+    }
+
+    private void flushStops() {
+        Map<String, List<StopInstanceOp>> groups = new HashMap<>();
+        synchronized (this) {
+            for (StopInstanceOp op : drain(stops)) {
+                groups.computeIfAbsent(op.fingerprint, k -> new ArrayList<>()).add(op);
+            }
+        }
+        // Tag the instances with their fingerprint before stopping them, so
+        // that a stopped instance is never in the pool with the wrong tag.
+        for (Map.Entry<String, List<StopInstanceOp>> entry : groups.entrySet()) {
+            List<StopInstanceOp> group = entry.getValue();
+            List<String> instanceIds = group.stream().map(op -> op.instanceId).
+                distinct().collect(Collectors.toList());
+            CreateTagsRequest tagReq = new CreateTagsRequest().withResources(instanceIds).
+                withTags(new Tag(POOL_TAG_KEY, entry.getKey()));
+            call(mutatingLimiter, tagReq, ec2::createTagsAsync).
+                thenCompose(r -> call(mutatingLimiter,
+                    new StopInstancesRequest().withInstanceIds(instanceIds),
+                    ec2::stopInstancesAsync)).
+                whenComplete((result, exception) -> {
+                    if (exception != null) {
+                        failAll(group, op -> op.future, exception);
+                        return;
+                    }
+                    for (StopInstanceOp op : group) {
+                        CastleUtil.completeNull(op.future);
+                    }
+                });
+        }
+    }
+
+    private void flushClaims() {
+        List<ClaimInstanceOp> batchClaims;
+        synchronized (this) {
+            batchClaims = drain(claims);
+        }
+        if (settings.keyPair().isEmpty()) {
+            failAll(batchClaims, op -> op.future, new RuntimeException("You must " +
+                "specify a keypair in order to use pooled AWS instances."));
+            return;
+        }
+        Map<String, List<ClaimInstanceOp>> groups = new HashMap<>();
+        for (ClaimInstanceOp op : batchClaims) {
+            groups.computeIfAbsent(op.fingerprint, k -> new ArrayList<>()).add(op);
+        }
+        for (Map.Entry<String, List<ClaimInstanceOp>> entry : groups.entrySet()) {
+            claimInstances(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Find stopped instances in the pool with the given fingerprint, and start
+     * as many of them as there are claims.  Claims which we can't satisfy from
+     * the pool are completed with the empty string.
+     */
+    private void claimInstances(String fingerprint, List<ClaimInstanceOp> group) {
+        DescribeInstancesRequest req = new DescribeInstancesRequest().withFilters(
+            new Filter("key-name",
+                Collections.singletonList(settings.keyPair())),
+            new Filter("tag:" + CASTLE_TAG.getKey(),
+                Collections.singletonList(CASTLE_TAG.getValue())),
+            new Filter("tag:" + POOL_TAG_KEY,
+                Collections.singletonList(fingerprint)),
+            new Filter("instance-state-name",
+                Collections.singletonList("stopped")))
+            .withMaxResults(DESCRIBE_PAGE_SIZE);
+        describeInstancePages(req, new ArrayList<>()).thenCompose(instances -> {
+            List<String> instanceIds = new ArrayList<>();
+            synchronized (this) {
+                for (Instance instance : instances) {
+                    if (instanceIds.size() >= group.size()) {
+                        break;
+                    }
+                    if (claimedIds.add(instance.getInstanceId())) {
+                        instanceIds.add(instance.getInstanceId());
                     }
                 }
-                for (Iterator<DescribeAllInstancesOp> iter = describeAlls.iterator();
-                     iter.hasNext(); iter.remove()) {
-                    DescribeAllInstancesOp op = iter.next();
-                    op.future.complete(all);
-                }
-            } catch (Exception e) {
-                for (Iterator<DescribeAllInstancesOp> iter = describeAlls.iterator();
-                     iter.hasNext(); iter.remove()) {
-                    DescribeAllInstancesOp op = iter.next();
-                    op.future.completeExceptionally(e);
+            }
+            if (instanceIds.isEmpty()) {
+                return CompletableFuture.completedFuture(instanceIds);
+            }
+            log.info("Ec2Cloud#claimInstances.  fingerprint={}, instanceIds={}",
+                fingerprint, instanceIds);
+            DeleteTagsRequest untagReq = new DeleteTagsRequest().withResources(instanceIds).
+                withTags(new Tag().withKey(POOL_TAG_KEY));
+            return call(mutatingLimiter, untagReq, ec2::deleteTagsAsync).
+                thenCompose(r -> call(mutatingLimiter,
+                    new StartInstancesRequest().withInstanceIds(instanceIds),
+                    ec2::startInstancesAsync)).
+                thenApply(r -> instanceIds);
+        }).whenComplete((instanceIds, exception) -> {
+            if (exception != null) {
+                failAll(group, op -> op.future, exception);
+                return;
+            }
+            Iterator<String> idIterator = instanceIds.iterator();
+            for (ClaimInstanceOp op : group) {
+                op.future.complete(idIterator.hasNext() ? idIterator.next() : "");
+            }
+        });
+    }
+
+    private static <T> void failAll(Collection<T> ops,
+                                    Function<T, CompletableFuture<?>> getFuture,
+                                    Throwable exception) {
+        for (T op : ops) {
+            getFuture.apply(op).completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Describe a set of instances by ID.
+     *
+     * The IDs are split into chunks of at most DESCRIBE_CHUNK_SIZE, and the
+     * chunks are described concurrently.
+     */
+    private CompletableFuture<List<Instance>> describeInstancesById(Collection<String> instanceIds) {
+        List<String> ids = new ArrayList<>(instanceIds);
+        List<CompletableFuture<List<Instance>>> futures = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += DESCRIBE_CHUNK_SIZE) {
+            DescribeInstancesRequest req = new DescribeInstancesRequest().withInstanceIds(
+                new ArrayList<>(ids.subList(i, Math.min(ids.size(), i + DESCRIBE_CHUNK_SIZE))));
+            futures.add(describeInstancePages(req, new ArrayList<>()));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).
+            thenApply(v -> {
+                List<Instance> instances = new ArrayList<>();
+                for (CompletableFuture<List<Instance>> future : futures) {
+                    instances.addAll(future.join());
                 }
+                return instances;
+            });
+    }
+
+    /**
+     * Make a describe request, following the NextToken of each response until
+     * we have all of the pages.
+     */
+    private CompletableFuture<List<Instance>> describeInstancePages(DescribeInstancesRequest req,
+                                                                    List<Instance> instances) {
+        return call(describeLimiter, req, ec2::describeInstancesAsync).thenCompose(result -> {
+            for (Reservation reservation : result.getReservations()) {
+                instances.addAll(reservation.getInstances());
             }
+            String nextToken = result.getNextToken();
+            if (nextToken == null || nextToken.isEmpty()) {
+                return CompletableFuture.completedFuture(instances);
+            }
+            return describeInstancePages(req.withNextToken(nextToken), instances);
+        });
+    }
+
+    /**
+     * Describe the instances which we are waiting for, and complete the futures
+     * of the ones which are now running.  Watches which have passed their
+     * deadlines fail.  While there are still instances to wait for, we schedule
+     * another refresh.
+     */
+    private void refreshWatches() {
+        List<String> instanceIds;
+        synchronized (this) {
+            instanceIds = new ArrayList<>(watches.keySet());
         }
-        if (!terminates.isEmpty()) {
-            Map<String, TerminateInstanceOp> idToTerminate = new HashMap<>();
-            for (Iterator<TerminateInstanceOp> iter = terminates.iterator(); iter.hasNext();
-                     iter.remove()) {
-                TerminateInstanceOp op = iter.next();
-                idToTerminate.put(op.instanceId, op);
+        describeInstancesById(instanceIds).whenComplete((instances, exception) -> {
+            Map<String, String> states = new HashMap<>();
+            if (exception != null) {
+                // Newly created instances may not be visible yet, so keep watching.
+                log.info("Ec2Cloud#refreshWatches: unable to describe instances", exception);
+            } else {
+                for (Instance instance : instances) {
+                    String stateName = instance.getState().getName();
+                    states.put(instance.getInstanceId(), stateName);
+                    if (stateName.equals("running")) {
+                        Ec2InstanceInfo info = toInfo(instance);
+                        if (!info.privateDns().isEmpty() && !info.publicDns().isEmpty()) {
+                            completeWatch(info);
+                        }
+                    } else if (!stateName.equals("pending")) {
+                        failWatch(instance.getInstanceId(), new RuntimeException(
+                            "Instance " + instance.getInstanceId() + " is " + stateName));
+                    }
+                }
             }
-            TerminateInstancesRequest req = new TerminateInstancesRequest()
-                .withInstanceIds(idToTerminate.keySet());
-            ec2.terminateInstances(req);
-            for (TerminateInstanceOp op : idToTerminate.values()) {
-                CastleUtil.completeNull(op.future);
+            expireWatches(instanceIds, states);
+            synchronized (this) {
+                watcherScheduled = !watches.isEmpty() &&
+                    schedule(this::refreshWatches, WATCH_INTERVAL_MS);
+            }
+        });
+    }
+
+    /**
+     * Fail the watches which have passed their deadlines.
+     *
+     * @param instanceIds   The instances which we just tried to describe.
+     * @param states        Maps the instances which we described to their states.
+     */
+    private synchronized void expireWatches(List<String> instanceIds, Map<String, String> states) {
+        long now = System.currentTimeMillis();
+        for (String instanceId : instanceIds) {
+            Long deadline = watchDeadlines.get(instanceId);
+            if ((deadline == null) || (now < deadline)) {
+                continue;
+            }
+            String state = states.get(instanceId);
+            String reason;
+            if (state == null) {
+                reason = "it could not be described";
+            } else if (state.equals("running")) {
+                reason = "it is running, but it does not have both a private and a public " +
+                    "DNS name.  Check that its subnet's VPC has DNS hostnames enabled";
+            } else {
+                reason = "it is " + state;
             }
+            failWatch(instanceId, new RuntimeException("Timed out waiting for instance " +
+                instanceId + " to be running: " + reason + "."));
         }
-        updateNextCallTime(CALL_DELAY_MS);
     }
 
-    private synchronized void updateNextCallTime(long minDelay) {
-        nextCallTimeMs = Math.max(nextCallTimeMs, System.currentTimeMillis() + minDelay);
+    private synchronized void completeWatch(Ec2InstanceInfo info) {
+        watchDeadlines.remove(info.instanceId());
+        CompletableFuture<Ec2InstanceInfo> future = watches.remove(info.instanceId());
+        if (future != null) {
+            future.complete(info);
+        }
+    }
+
+    private synchronized void failWatch(String instanceId, Exception e) {
+        watchDeadlines.remove(instanceId);
+        CompletableFuture<Ec2InstanceInfo> future = watches.remove(instanceId);
+        if (future != null) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static Ec2InstanceInfo toInfo(Instance instance) {
+        return new Ec2InstanceInfo(instance.getInstanceId(),
+            instance.getPrivateDnsName(),
+            instance.getPublicDnsName(),
+            instance.getState().toString());
+    }
+
+    /**
+     * Make an asynchronous EC2 API call, subject to a rate limiter.  If the
+     * rate limiter has no tokens, the call is scheduled for when it will.  If
+     * EC2 throttles the call, we slow down the rate limiter and try again.
+     *
+     * @param limiter   The rate limiter to use.
+     * @param req       The request.
+     * @param method    The asynchronous client method to call.
+     * @return          A future which is completed with the result of the call.
+     */
+    private <Q extends AmazonWebServiceRequest, R> CompletableFuture<R> call(RateLimiter limiter,
+            Q req, BiFunction<Q, AsyncHandler<Q, R>, Future<R>> method) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        attemptCall(limiter, req, method, future, 0);
+        return future;
+    }
+
+    private <Q extends AmazonWebServiceRequest, R> void attemptCall(RateLimiter limiter,
+            Q req, BiFunction<Q, AsyncHandler<Q, R>, Future<R>> method,
+            CompletableFuture<R> future, int retries) {
+        long delayMs = limiter.tryAcquire(System.currentTimeMillis());
+        if (delayMs > 0) {
+            if (!schedule(() -> attemptCall(limiter, req, method, future, retries), delayMs)) {
+                future.completeExceptionally(new RuntimeException("Ec2Cloud is shutting down."));
+            }
+            return;
+        }
+        try {
+            method.apply(req, new AsyncHandler<Q, R>() {
+                @Override
+                public void onError(Exception e) {
+                    if ((e instanceof AmazonServiceException) &&
+                            isThrottlingError((AmazonServiceException) e)) {
+                        limiter.onThrottle();
+                        if (retries < MAX_THROTTLE_RETRIES) {
+                            log.info("Ec2Cloud: call throttled.  Slowing down to {}", limiter);
+                            attemptCall(limiter, req, method, future, retries + 1);
+                            return;
+                        }
+                    }
+                    future.completeExceptionally(e);
+                }
+
+                @Override
+                public void onSuccess(Q request, R result) {
+                    limiter.onSuccess();
+                    future.complete(result);
+                }
+            });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static boolean isThrottlingError(AmazonServiceException e) {
+        return "RequestLimitExceeded".equals(e.getErrorCode()) ||
+            "Throttling".equals(e.getErrorCode());
     }
 
     @Override
     public void close() throws InterruptedException {
         synchronized (this) {
-            shouldExit = true;
-            notifyAll();
+            closed = true;
+            RuntimeException e = new RuntimeException("Ec2Cloud is shutting down.");
+            failAll(drain(creates), op -> op.future, e);
+            failAll(drain(describes), op -> op.future, e);
+            failAll(drain(describeAlls), op -> op.future, e);
+            failAll(drain(terminates), op -> op.future, e);
+            failAll(drain(stops), op -> op.future, e);
+            failAll(drain(claims), op -> op.future, e);
+            failAll(watches.values(), future -> future, e);
+            watches.clear();
+            watchDeadlines.clear();
         }
-        thread.join();
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.DAYS);
         ec2.shutdown();
+        clusterLog.printf("*** EC2 API calls: %s; %s%n", mutatingLimiter, describeLimiter);
     }
 
-    public synchronized CompletableFuture<String> createInstance(String instanceType,
-                String imageId, int nodeIndex) {
-        CreateInstanceOp op = new CreateInstanceOp(instanceType, imageId, nodeIndex);
-        creates.add(op);
-        updateNextCallTime(COALSCE_DELAY_MS);
-        notifyAll();
-        return op.future;
+    private static <T> CompletableFuture<T> closedFuture() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new RuntimeException("Ec2Cloud is shutting down."));
+        return future;
+    }
+
+    public synchronized CompletableFuture<String> createInstance(Ec2InstanceSpec spec,
+                                                                 int nodeIndex) {
+        if (closed) {
+            return closedFuture();
+        }
+        CreateInstanceOp op = new CreateInstanceOp(spec, nodeIndex);
+        enqueue(creates, op, this::flushCreates);
+        return invalidatesDescribeAll(op.future);
     }
 
     public synchronized CompletableFuture<Ec2InstanceInfo> describeInstance(String instanceId)
             throws Exception {
+        if (closed) {
+            return closedFuture();
+        }
         DescribeInstanceOp op = new DescribeInstanceOp(instanceId);
-        describes.add(op);
-        updateNextCallTime(COALSCE_DELAY_MS);
-        notifyAll();
+        enqueue(describes, op, this::flushDescribes);
         return op.future;
     }
 
+    /**
+     * Wait for an instance to be running and to have both a private and a
+     * public DNS name.
+     *
+     * All of the instances being waited for are described together, by a single
+     * periodic watcher.
+     */
+    public CompletableFuture<Ec2InstanceInfo> awaitRunning(String instanceId) {
+        return awaitRunning(instanceId, DEFAULT_AWAIT_RUNNING_TIMEOUT_MS);
+    }
+
+    /**
+     * Wait for an instance to be running and to have both a private and a
+     * public DNS name.
+     *
+     * @param timeoutMs     How long to wait before the future fails.  If the
+     *                      instance is already being waited for, the existing
+     *                      deadline is kept.
+     */
+    public synchronized CompletableFuture<Ec2InstanceInfo> awaitRunning(String instanceId,
+                                                                       long timeoutMs) {
+        if (closed) {
+            return closedFuture();
+        }
+        CompletableFuture<Ec2InstanceInfo> future = watches.get(instanceId);
+        if (future == null) {
+            future = new CompletableFuture<>();
+            watches.put(instanceId, future);
+            watchDeadlines.put(instanceId, System.currentTimeMillis() + timeoutMs);
+            if (!watcherScheduled) {
+                watcherScheduled = schedule(this::refreshWatches, COALSCE_DELAY_MS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Describe all of the castle instances which use our keypair.
+     *
+     * Callers share the result of a single describe for a few seconds, unless
+     * an instance is created, terminated, stopped, or claimed from the pool, or
+     * the describe fails.
+     */
     public synchronized CompletableFuture<Collection<Ec2InstanceInfo>> describeAllInstances()
                 throws Exception {
+        if (closed) {
+            return closedFuture();
+        }
+        long now = System.currentTimeMillis();
+        if (describeAllCache != null && !describeAllCache.isCompletedExceptionally() &&
+                (now - describeAllCacheMs < DESCRIBE_ALL_CACHE_TTL_MS)) {
+            return describeAllCache;
+        }
         DescribeAllInstancesOp op = new DescribeAllInstancesOp();
-        describeAlls.add(op);
-        updateNextCallTime(COALSCE_DELAY_MS);
-        notifyAll();
+        enqueue(describeAlls, op, this::flushDescribeAlls);
+        describeAllCache = op.future;
+        describeAllCacheMs = now;
         return op.future;
     }
 
+    /**
+     * Forget the cached describe of all instances when an operation which
+     * changes an instance is queued, and again when it completes.  Otherwise,
+     * a describe made while the operation was in flight would be shared after
+     * it was out of date.
+     */
+    private <T> CompletableFuture<T> invalidatesDescribeAll(CompletableFuture<T> future) {
+        describeAllCache = null;
+        future.whenComplete((result, exception) -> clearDescribeAllCache());
+        return future;
+    }
+
+    private synchronized void clearDescribeAllCache() {
+        describeAllCache = null;
+    }
+
     public synchronized CompletableFuture<Void> terminateInstance(String instanceId) {
+        if (closed) {
+            return closedFuture();
+        }
         TerminateInstanceOp op = new TerminateInstanceOp(instanceId);
-        terminates.add(op);
-        updateNextCallTime(COALSCE_DELAY_MS);
-        notifyAll();
-        return op.future;
+        enqueue(terminates, op, this::flushTerminates);
+        return invalidatesDescribeAll(op.future);
+    }
+
+    /**
+     * Stop an instance and put it in the warm pool.
+     *
+     * @param instanceId    The instance to stop.
+     * @param fingerprint   The fingerprint of the instance's configuration.
+     *                      Only claims with the same fingerprint will reuse it.
+     */
+    public synchronized CompletableFuture<Void> stopInstance(String instanceId,
+                                                             String fingerprint) {
+        if (closed) {
+            return closedFuture();
+        }
+        StopInstanceOp op = new StopInstanceOp(instanceId, fingerprint);
+        enqueue(stops, op, this::flushStops);
+        return invalidatesDescribeAll(op.future);
+    }
+
+    /**
+     * Claim a stopped instance from the warm pool and start it.
+     *
+     * @param fingerprint   The fingerprint of the configuration we need.
+     * @return              A future which is completed with the ID of the
+     *                      instance, or the empty string if the pool had no
+     *                      matching instance.
+     */
+    public synchronized CompletableFuture<String> claimPooledInstance(String fingerprint) {
+        if (closed) {
+            return closedFuture();
+        }
+        ClaimInstanceOp op = new ClaimInstanceOp(fingerprint);
+        enqueue(claims, op, this::flushClaims);
+        return invalidatesDescribeAll(op.future);
+    }
+
+    /**
+     * Start creating an image from an instance.
+     *
+     * The instance is not rebooted, so the caller should make sure that its
+     * filesystems are in a consistent state first.  The image captures the
+     * instance's volumes as they are when this request is made, so the caller
+     * may change them again once the future completes.
+     *
+     * @param instanceId    The instance to create the image from.
+     * @param name          The name of the new image.
+     * @return              A future which is completed with the ID of the
+     *                      new image, which may still be pending.
+     */
+    public CompletableFuture<String> createImage(String instanceId, String name) {
+        synchronized (this) {
+            if (closed) {
+                return closedFuture();
+            }
+        }
+        CreateImageRequest req = new CreateImageRequest().
+            withInstanceId(instanceId).
+            withName(name).
+            withDescription("Created by castle from " + instanceId).
+            withNoReboot(true);
+        return call(mutatingLimiter, req, ec2::createImageAsync).
+            thenApply(result -> result.getImageId());
+    }
+
+    /**
+     * Wait for an image to become available.
+     *
+     * @return              A future which is completed with the image ID once
+     *                      the image is available.
+     */
+    public CompletableFuture<String> awaitImage(String imageId) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        pollImage(imageId, future);
+        return future;
+    }
+
+    private void pollImage(String imageId, CompletableFuture<String> future) {
+        DescribeImagesRequest req = new DescribeImagesRequest().withImageIds(imageId);
+        call(describeLimiter, req, ec2::describeImagesAsync).whenComplete((result, exception) -> {
+            if (exception != null) {
+                future.completeExceptionally(exception);
+                return;
+            }
+            // A new image may not be visible to describe calls right away.
+            String state = result.getImages().isEmpty() ? "pending" :
+                result.getImages().get(0).getState();
+            if (state.equals("available")) {
+                future.complete(imageId);
+            } else if (!state.equals("pending")) {
+                future.completeExceptionally(new RuntimeException("Image " +
+                    imageId + " is " + state));
+            } else if (!schedule(() -> pollImage(imageId, future), IMAGE_POLL_INTERVAL_MS)) {
+                future.completeExceptionally(new RuntimeException("Ec2Cloud is shutting down."));
+            }
+        });
     }
 
     public void destroyAll(CastleCluster cluster, CastleNode node) throws Exception {
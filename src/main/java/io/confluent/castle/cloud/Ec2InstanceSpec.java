@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Describes the EC2 instances to create.  Instances with equal specs can be
+ * created by the same RunInstances request.
+ */
+public final class Ec2InstanceSpec {
+    private final String instanceType;
+    private final String imageId;
+    private final String placementGroup;
+    private final String subnetId;
+    private final boolean ebsOptimized;
+    private final List<Ec2BlockDevice> blockDevices;
+
+    public Ec2InstanceSpec(String instanceType, String imageId, String placementGroup,
+                           String subnetId, boolean ebsOptimized,
+                           List<Ec2BlockDevice> blockDevices) {
+        this.instanceType = instanceType;
+        this.imageId = imageId;
+        this.placementGroup = placementGroup;
+        this.subnetId = subnetId;
+        this.ebsOptimized = ebsOptimized;
+        this.blockDevices = Collections.unmodifiableList(new ArrayList<>(blockDevices));
+    }
+
+    @JsonProperty
+    public String instanceType() {
+        return instanceType;
+    }
+
+    @JsonProperty
+    public String imageId() {
+        return imageId;
+    }
+
+    @JsonProperty
+    public String placementGroup() {
+        return placementGroup;
+    }
+
+    @JsonProperty
+    public String subnetId() {
+        return subnetId;
+    }
+
+    @JsonProperty
+    public boolean ebsOptimized() {
+        return ebsOptimized;
+    }
+
+    @JsonProperty
+    public List<Ec2BlockDevice> blockDevices() {
+        return blockDevices;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Ec2InstanceSpec other = (Ec2InstanceSpec) o;
+        return instanceType.equals(other.instanceType) &&
+            imageId.equals(other.imageId) &&
+            placementGroup.equals(other.placementGroup) &&
+            subnetId.equals(other.subnetId) &&
+            ebsOptimized == other.ebsOptimized &&
+            blockDevices.equals(other.blockDevices);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(instanceType, imageId, placementGroup, subnetId,
+            ebsOptimized, blockDevices);
+    }
+
+    @Override
+    public String toString() {
+        try {
+            return JSON_SERDE.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -31,13 +31,20 @@ public final class Ec2Settings {
     private final String securityGroup;
     private final String region;
 
+    /**
+     * The settings for a fake EC2 backend, or null to use the real EC2 API.
+     */
+    private final FakeEc2Settings fake;
+
     @JsonCreator
     public Ec2Settings(@JsonProperty("keyPair") String keyPair,
                        @JsonProperty("securityGroup") String securityGroup,
-                       @JsonProperty("region") String region) {
+                       @JsonProperty("region") String region,
+                       @JsonProperty("fake") FakeEc2Settings fake) {
         this.keyPair = keyPair == null ? "" : keyPair;
         this.securityGroup = securityGroup == null ? "" : securityGroup;
         this.region = region == null ? "" : region;
+        this.fake = fake;
     }
 
     @JsonProperty
@@ -55,6 +62,11 @@ public final class Ec2Settings {
         return region;
     }
 
+    @JsonProperty
+    public FakeEc2Settings fake() {
+        return fake;
+    }
+
     @Override
     public String toString() {
         try {
@@ -0,0 +1,412 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.ec2.AbstractAmazonEC2Async;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.CreateTagsRequest;
+import com.amazonaws.services.ec2.model.CreateTagsResult;
+import com.amazonaws.services.ec2.model.DeleteTagsRequest;
+import com.amazonaws.services.ec2.model.DeleteTagsResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.StartInstancesRequest;
+import com.amazonaws.services.ec2.model.StartInstancesResult;
+import com.amazonaws.services.ec2.model.StopInstancesRequest;
+import com.amazonaws.services.ec2.model.StopInstancesResult;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TagSpecification;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import io.confluent.castle.common.CastleUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fake, in-memory implementation of the parts of the EC2 API which
+ * Ec2Cloud uses.
+ *
+ * Instances never really run, but they go through the same states that real
+ * instances do, with the delays given in FakeEc2Settings.  Calls can be
+ * throttled or fail, so that we can test how Ec2Cloud handles that.
+ */
+public final class FakeEc2 extends AbstractAmazonEC2Async {
+    private static final class FakeInstance {
+        private final String instanceId;
+        private final String instanceType;
+        private final String imageId;
+        private final String keyName;
+        private final boolean publicIp;
+        private final Map<String, String> tags = new TreeMap<>();
+        private String state = "pending";
+        private long runningTimeMs;
+        private long dnsTimeMs;
+
+        FakeInstance(String instanceId, String instanceType, String imageId, String keyName,
+                     boolean publicIp) {
+            this.instanceId = instanceId;
+            this.instanceType = instanceType;
+            this.imageId = imageId;
+            this.keyName = keyName;
+            this.publicIp = publicIp;
+        }
+
+        void launch(long nowMs, FakeEc2Settings settings) {
+            state = "pending";
+            runningTimeMs = nowMs + settings.bootDelayMs();
+            dnsTimeMs = nowMs + settings.dnsDelayMs();
+        }
+
+        Instance toInstance(long nowMs) {
+            if (state.equals("pending") && nowMs >= runningTimeMs) {
+                state = "running";
+            }
+            boolean hasDns = (state.equals("pending") || state.equals("running")) &&
+                nowMs >= dnsTimeMs;
+            List<Tag> tagList = new ArrayList<>();
+            for (Map.Entry<String, String> entry : tags.entrySet()) {
+                tagList.add(new Tag(entry.getKey(), entry.getValue()));
+            }
+            return new Instance().
+                withInstanceId(instanceId).
+                withInstanceType(instanceType).
+                withImageId(imageId).
+                withKeyName(keyName).
+                withState(new InstanceState().withName(state)).
+                withPrivateDnsName(hasDns ? instanceId + ".ec2.internal" : "").
+                withPublicDnsName((hasDns && publicIp) ? instanceId + ".compute.amazonaws.com" : "").
+                withTags(tagList);
+        }
+    }
+
+    private final FakeEc2Settings settings;
+
+    private final ScheduledExecutorService executor;
+
+    private final Random random = new Random();
+
+    private final Map<String, FakeInstance> instances = new TreeMap<>();
+
+    /**
+     * Maps image IDs to the time at which they become available.
+     */
+    private final Map<String, Long> images = new HashMap<>();
+
+    private final Map<String, Long> calls = new TreeMap<>();
+
+    private long throttles = 0;
+
+    private long nextId = 0;
+
+    private long windowStartMs = 0;
+
+    private int windowCalls = 0;
+
+    public FakeEc2(FakeEc2Settings settings) {
+        this.settings = settings;
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+            CastleUtil.createThreadFactory("FakeEc2Thread", true));
+    }
+
+    /**
+     * Get the number of calls which have been made, by operation name.
+     */
+    public synchronized Map<String, Long> calls() {
+        return new TreeMap<>(calls);
+    }
+
+    /**
+     * Get the number of calls which were throttled.
+     */
+    public synchronized long throttles() {
+        return throttles;
+    }
+
+    /**
+     * Run a call after the configured latency, and pass the result to the
+     * handler, as the real asynchronous client would.
+     */
+    private <Q extends AmazonWebServiceRequest, R> Future<R> submit(String name, Q req,
+            AsyncHandler<Q, R> handler, Callable<R> callable) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        executor.schedule(() -> {
+            R result;
+            try {
+                synchronized (this) {
+                    calls.merge(name, 1L, Long::sum);
+                    maybeThrottle();
+                    result = callable.call();
+                }
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+                handler.onError(e);
+                return;
+            }
+            future.complete(result);
+            handler.onSuccess(req, result);
+        }, settings.callLatencyMs(), TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private void maybeThrottle() {
+        long nowMs = System.currentTimeMillis();
+        if (nowMs - windowStartMs >= 1000) {
+            windowStartMs = nowMs;
+            windowCalls = 0;
+        }
+        windowCalls++;
+        if (((settings.maxCallsPerSecond() > 0) && (windowCalls > settings.maxCallsPerSecond())) ||
+                (random.nextDouble() < settings.throttleProbability())) {
+            throttles++;
+            throw error("RequestLimitExceeded", "Request limit exceeded.");
+        }
+    }
+
+    private void maybeFail() {
+        if (random.nextDouble() < settings.failureProbability()) {
+            throw error("InsufficientInstanceCapacity",
+                "There is no capacity available for this request.");
+        }
+    }
+
+    private static AmazonServiceException error(String code, String message) {
+        AmazonServiceException e = new AmazonServiceException(message);
+        e.setErrorCode(code);
+        e.setServiceName("AmazonEC2");
+        e.setStatusCode(code.equals("RequestLimitExceeded") ? 503 : 400);
+        return e;
+    }
+
+    private FakeInstance getInstance(String instanceId) {
+        FakeInstance instance = instances.get(instanceId);
+        if (instance == null) {
+            throw error("InvalidInstanceID.NotFound",
+                "The instance ID '" + instanceId + "' does not exist");
+        }
+        return instance;
+    }
+
+    @Override
+    public Future<RunInstancesResult> runInstancesAsync(RunInstancesRequest req,
+            AsyncHandler<RunInstancesRequest, RunInstancesResult> handler) {
+        return submit("RunInstances", req, handler, () -> {
+            maybeFail();
+            long nowMs = System.currentTimeMillis();
+            // Fake subnets never assign public IP addresses unless they are asked to.
+            boolean publicIp = (req.getSubnetId() == null) || req.getSubnetId().isEmpty();
+            if ((req.getNetworkInterfaces() != null) && !req.getNetworkInterfaces().isEmpty()) {
+                publicIp = Boolean.TRUE.equals(
+                    req.getNetworkInterfaces().get(0).getAssociatePublicIpAddress());
+            }
+            List<Instance> created = new ArrayList<>();
+            for (int i = 0; i < req.getMaxCount(); i++) {
+                FakeInstance instance = new FakeInstance(String.format("i-%017x", nextId++),
+                    req.getInstanceType(), req.getImageId(), req.getKeyName(), publicIp);
+                if (req.getTagSpecifications() != null) {
+                    for (TagSpecification spec : req.getTagSpecifications()) {
+                        for (Tag tag : spec.getTags()) {
+                            instance.tags.put(tag.getKey(), tag.getValue());
+                        }
+                    }
+                }
+                instance.launch(nowMs, settings);
+                instances.put(instance.instanceId, instance);
+                created.add(instance.toInstance(nowMs));
+            }
+            return new RunInstancesResult().withReservation(
+                new Reservation().withInstances(created));
+        });
+    }
+
+    @Override
+    public Future<DescribeInstancesResult> describeInstancesAsync(DescribeInstancesRequest req,
+            AsyncHandler<DescribeInstancesRequest, DescribeInstancesResult> handler) {
+        return submit("DescribeInstances", req, handler, () -> {
+            long nowMs = System.currentTimeMillis();
+            List<Instance> matches = new ArrayList<>();
+            if (req.getInstanceIds() != null && !req.getInstanceIds().isEmpty()) {
+                for (String instanceId : req.getInstanceIds()) {
+                    matches.add(getInstance(instanceId).toInstance(nowMs));
+                }
+            } else {
+                for (FakeInstance instance : instances.values()) {
+                    matches.add(instance.toInstance(nowMs));
+                }
+            }
+            List<Filter> filters = req.getFilters() == null ?
+                Collections.emptyList() : req.getFilters();
+            matches.removeIf(instance -> !matchesFilters(instance, filters));
+            int start = (req.getNextToken() == null || req.getNextToken().isEmpty()) ?
+                0 : Integer.parseInt(req.getNextToken());
+            int pageSize = (req.getMaxResults() == null) ?
+                Integer.MAX_VALUE : req.getMaxResults();
+            int end = (int) Math.min(matches.size(), (long) start + pageSize);
+            DescribeInstancesResult result = new DescribeInstancesResult().withReservations(
+                new Reservation().withInstances(matches.subList(start, end)));
+            if (end < matches.size()) {
+                result.setNextToken(Integer.toString(end));
+            }
+            return result;
+        });
+    }
+
+    private static boolean matchesFilters(Instance instance, List<Filter> filters) {
+        for (Filter filter : filters) {
+            String value;
+            if (filter.getName().equals("key-name")) {
+                value = instance.getKeyName();
+            } else if (filter.getName().equals("instance-state-name")) {
+                value = instance.getState().getName();
+            } else if (filter.getName().startsWith("tag:")) {
+                String key = filter.getName().substring("tag:".length());
+                value = null;
+                for (Tag tag : instance.getTags()) {
+                    if (tag.getKey().equals(key)) {
+                        value = tag.getValue();
+                    }
+                }
+            } else {
+                throw error("InvalidParameterValue",
+                    "The filter '" + filter.getName() + "' is invalid");
+            }
+            if (!filter.getValues().contains(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Future<TerminateInstancesResult> terminateInstancesAsync(TerminateInstancesRequest req,
+            AsyncHandler<TerminateInstancesRequest, TerminateInstancesResult> handler) {
+        return submit("TerminateInstances", req, handler, () -> {
+            for (String instanceId : req.getInstanceIds()) {
+                getInstance(instanceId).state = "terminated";
+            }
+            return new TerminateInstancesResult();
+        });
+    }
+
+    @Override
+    public Future<StopInstancesResult> stopInstancesAsync(StopInstancesRequest req,
+            AsyncHandler<StopInstancesRequest, StopInstancesResult> handler) {
+        return submit("StopInstances", req, handler, () -> {
+            for (String instanceId : req.getInstanceIds()) {
+                getInstance(instanceId).state = "stopped";
+            }
+            return new StopInstancesResult();
+        });
+    }
+
+    @Override
+    public Future<StartInstancesResult> startInstancesAsync(StartInstancesRequest req,
+            AsyncHandler<StartInstancesRequest, StartInstancesResult> handler) {
+        return submit("StartInstances", req, handler, () -> {
+            maybeFail();
+            long nowMs = System.currentTimeMillis();
+            for (String instanceId : req.getInstanceIds()) {
+                getInstance(instanceId).launch(nowMs, settings);
+            }
+            return new StartInstancesResult();
+        });
+    }
+
+    @Override
+    public Future<CreateTagsResult> createTagsAsync(CreateTagsRequest req,
+            AsyncHandler<CreateTagsRequest, CreateTagsResult> handler) {
+        return submit("CreateTags", req, handler, () -> {
+            for (String instanceId : req.getResources()) {
+                for (Tag tag : req.getTags()) {
+                    getInstance(instanceId).tags.put(tag.getKey(), tag.getValue());
+                }
+            }
+            return new CreateTagsResult();
+        });
+    }
+
+    @Override
+    public Future<DeleteTagsResult> deleteTagsAsync(DeleteTagsRequest req,
+            AsyncHandler<DeleteTagsRequest, DeleteTagsResult> handler) {
+        return submit("DeleteTags", req, handler, () -> {
+            for (String instanceId : req.getResources()) {
+                for (Tag tag : req.getTags()) {
+                    getInstance(instanceId).tags.remove(tag.getKey());
+                }
+            }
+            return new DeleteTagsResult();
+        });
+    }
+
+    @Override
+    public Future<CreateImageResult> createImageAsync(CreateImageRequest req,
+            AsyncHandler<CreateImageRequest, CreateImageResult> handler) {
+        return submit("CreateImage", req, handler, () -> {
+            getInstance(req.getInstanceId());
+            String imageId = String.format("ami-%017x", nextId++);
+            images.put(imageId, System.currentTimeMillis() + settings.bootDelayMs());
+            return new CreateImageResult().withImageId(imageId);
+        });
+    }
+
+    @Override
+    public Future<DescribeImagesResult> describeImagesAsync(DescribeImagesRequest req,
+            AsyncHandler<DescribeImagesRequest, DescribeImagesResult> handler) {
+        return submit("DescribeImages", req, handler, () -> {
+            long nowMs = System.currentTimeMillis();
+            List<Image> found = new ArrayList<>();
+            for (String imageId : req.getImageIds()) {
+                Long availableTimeMs = images.get(imageId);
+                if (availableTimeMs != null) {
+                    found.add(new Image().withImageId(imageId).
+                        withState(nowMs >= availableTimeMs ? "available" : "pending"));
+                }
+            }
+            return new DescribeImagesResult().withImages(found);
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
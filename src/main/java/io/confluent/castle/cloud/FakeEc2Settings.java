@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The settings for a fake, in-memory EC2 backend.  This lets us exercise
+ * Ec2Cloud without using the real EC2 API.
+ */
+public final class FakeEc2Settings {
+    /**
+     * How long an instance takes to go from pending to running.
+     */
+    private final int bootDelayMs;
+
+    /**
+     * How long after launching an instance it is assigned DNS names.
+     */
+    private final int dnsDelayMs;
+
+    /**
+     * How long each API call takes.
+     */
+    private final int callLatencyMs;
+
+    /**
+     * The maximum number of API calls per second.  Calls beyond this are
+     * throttled.  0 means there is no limit.
+     */
+    private final int maxCallsPerSecond;
+
+    /**
+     * The probability that any API call is throttled.
+     */
+    private final double throttleProbability;
+
+    /**
+     * The probability that a RunInstances or StartInstances call fails with
+     * InsufficientInstanceCapacity.
+     */
+    private final double failureProbability;
+
+    @JsonCreator
+    public FakeEc2Settings(@JsonProperty("bootDelayMs") int bootDelayMs,
+                           @JsonProperty("dnsDelayMs") int dnsDelayMs,
+                           @JsonProperty("callLatencyMs") int callLatencyMs,
+                           @JsonProperty("maxCallsPerSecond") int maxCallsPerSecond,
+                           @JsonProperty("throttleProbability") double throttleProbability,
+                           @JsonProperty("failureProbability") double failureProbability) {
+        this.bootDelayMs = bootDelayMs;
+        this.dnsDelayMs = dnsDelayMs;
+        this.callLatencyMs = callLatencyMs;
+        this.maxCallsPerSecond = maxCallsPerSecond;
+        this.throttleProbability = throttleProbability;
+        this.failureProbability = failureProbability;
+    }
+
+    @JsonProperty
+    public int bootDelayMs() {
+        return bootDelayMs;
+    }
+
+    @JsonProperty
+    public int dnsDelayMs() {
+        return dnsDelayMs;
+    }
+
+    @JsonProperty
+    public int callLatencyMs() {
+        return callLatencyMs;
+    }
+
+    @JsonProperty
+    public int maxCallsPerSecond() {
+        return maxCallsPerSecond;
+    }
+
+    @JsonProperty
+    public double throttleProbability() {
+        return throttleProbability;
+    }
+
+    @JsonProperty
+    public double failureProbability() {
+        return failureProbability;
+    }
+}
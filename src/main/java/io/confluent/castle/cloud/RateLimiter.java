@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+/**
+ * An adaptive token bucket which limits the rate of calls to a category of
+ * cloud APIs.
+ *
+ * Each call takes one token.  Tokens are added at the current rate, up to the
+ * burst size.  When the cloud throttles us, the rate is halved.  Each
+ * successful call increases the rate slightly, up to the maximum rate.
+ */
+final class RateLimiter {
+    /**
+     * The amount by which each successful call increases the rate, in calls
+     * per second.
+     */
+    private final static double RATE_INCREMENT = 0.1;
+
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private double rate;
+    private double tokens;
+    private long lastRefillMs;
+    private long requests = 0;
+    private long throttles = 0;
+
+    RateLimiter(String name, double minRate, double initialRate, double maxRate,
+                double burst, long nowMs) {
+        this.name = name;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burst = burst;
+        this.rate = initialRate;
+        this.tokens = burst;
+        this.lastRefillMs = nowMs;
+    }
+
+    /**
+     * Try to take a token.
+     *
+     * @param nowMs     The current time in milliseconds.
+     * @return          0 if we took a token; otherwise, the number of
+     *                  milliseconds to wait before trying again.
+     */
+    synchronized long tryAcquire(long nowMs) {
+        if (nowMs > lastRefillMs) {
+            tokens = Math.min(burst, tokens + ((nowMs - lastRefillMs) * rate) / 1000.0);
+            lastRefillMs = nowMs;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            requests++;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil(((1 - tokens) * 1000.0) / rate));
+    }
+
+    synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + RATE_INCREMENT);
+    }
+
+    synchronized void onThrottle() {
+        throttles++;
+        rate = Math.max(minRate, rate / 2);
+        tokens = Math.min(tokens, 0);
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    synchronized long requests() {
+        return requests;
+    }
+
+    synchronized long throttles() {
+        return throttles;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%s: %d request(s), %d throttled, %.1f calls/s",
+            name, requests, throttles, rate);
+    }
+}
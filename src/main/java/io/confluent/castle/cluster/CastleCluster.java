@@ -20,6 +20,7 @@ package io.confluent.castle.cluster;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.DaemonStatusCollector;
 import io.confluent.castle.cloud.CloudCache;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
@@ -53,6 +54,7 @@ public final class CastleCluster implements AutoCloseable {
     private final CastleEnvironment env;
     private final CastleLog clusterLog;
     private final CloudCache cloudCache;
+    private final DaemonStatusCollector daemonStatusCollector;
     private final Map<String, CastleNode> nodes;
     private final CastleShutdownManager shutdownManager;
     private final Map<String, Role> originalRoles;
@@ -64,6 +66,7 @@ public final class CastleCluster implements AutoCloseable {
         this.env = env;
         this.clusterLog = clusterLog;
         this.cloudCache = new CloudCache();
+        this.daemonStatusCollector = new DaemonStatusCollector();
         TreeMap<String, CastleNode> nodes = new TreeMap<>();
         int nodeIndex = 0;
         Map<String, Map<Class<? extends Role>, Role>> nodesToRoles = spec.nodesToRoles();
@@ -111,10 +114,22 @@ public final class CastleCluster implements AutoCloseable {
         return cloudCache;
     }
 
+    public DaemonStatusCollector daemonStatusCollector() {
+        return daemonStatusCollector;
+    }
+
     public CastleLog clusterLog() {
         return clusterLog;
     }
 
+    /**
+     * Get the roles as they appear in the cluster file, before any per-node
+     * patches are applied.
+     */
+    public Map<String, Role> originalRoles() {
+        return originalRoles;
+    }
+
     public Map<String, CastleNode> nodes() {
         return nodes;
     }
@@ -156,7 +171,7 @@ public final class CastleCluster implements AutoCloseable {
         for (String nodeName : nodesWithRole(ZooKeeperRole.class).values()) {
             bld.append(prefix);
             prefix = ",";
-            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":2181");
+            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":").append(ZooKeeperRole.PORT);
         }
         return bld.toString();
     }
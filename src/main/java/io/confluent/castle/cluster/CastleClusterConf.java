@@ -22,6 +22,9 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class CastleClusterConf {
     private final static int DEFAULT_GLOBAL_TIMEOUT = 3600;
@@ -30,16 +33,23 @@ public class CastleClusterConf {
     private final String schemaRegistryPath;
     private final String castlePath;
     private final int globalTimeout;
+    private final boolean nodeAgent;
+    private final Map<String, DaemonSupervision> supervision;
 
     @JsonCreator
     public CastleClusterConf(@JsonProperty("kafkaPath") String kafkaPath,
                              @JsonProperty("schemaRegistryPath") String schemaRegistryPath,
                              @JsonProperty("castlePath") String castlePath,
-                             @JsonProperty("globalTimeout") int globalTimeout) {
+                             @JsonProperty("globalTimeout") int globalTimeout,
+                             @JsonProperty("nodeAgent") boolean nodeAgent,
+                             @JsonProperty("supervision") Map<String, DaemonSupervision> supervision) {
         this.kafkaPath = (kafkaPath == null) ? "" : kafkaPath;
         this.schemaRegistryPath = (schemaRegistryPath == null) ? "" : schemaRegistryPath;
         this.castlePath = (castlePath == null) ? "" : castlePath;
         this.globalTimeout = (globalTimeout <= 0) ? DEFAULT_GLOBAL_TIMEOUT : globalTimeout;
+        this.nodeAgent = nodeAgent;
+        this.supervision = (supervision == null) ? Collections.emptyMap() :
+            Collections.unmodifiableMap(new HashMap<>(supervision));
     }
 
     @JsonProperty
@@ -86,4 +96,23 @@ public class CastleClusterConf {
     public int globalTimeout() {
         return globalTimeout;
     }
+
+    /**
+     * True if we should start the castle agent on each node, and send
+     * commands through it.
+     */
+    @JsonProperty
+    public boolean nodeAgent() {
+        return nodeAgent;
+    }
+
+    /**
+     * Maps daemon names, such as "broker" or "trogdor-agent", to the way
+     * those daemons should be supervised.  Daemons which are not listed here
+     * are run under nohup.
+     */
+    @JsonProperty
+    public Map<String, DaemonSupervision> supervision() {
+        return supervision;
+    }
 }
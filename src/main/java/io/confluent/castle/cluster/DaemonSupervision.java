@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cluster;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configures how a daemon is supervised on the cluster nodes.
+ *
+ * A supervised daemon runs in a transient systemd unit rather than under
+ * nohup.  The unit can have CPU and memory limits, can be pinned to a set of
+ * CPUs, and can be restarted if it fails.  systemd records why the daemon
+ * exited, which castle reports when checking the daemon's status.
+ */
+public class DaemonSupervision {
+    private final static String DEFAULT_RESTART = "no";
+
+    /**
+     * The systemd CPUQuota of the daemon, such as "200%".  Empty for no limit.
+     */
+    private final String cpuQuota;
+
+    /**
+     * The systemd MemoryMax of the daemon, such as "4G".  Empty for no limit.
+     */
+    private final String memoryMax;
+
+    /**
+     * The CPUs which the daemon may run on, such as "0-3" or "4 5 6 7".
+     * Empty to allow all CPUs.
+     */
+    private final String cpus;
+
+    /**
+     * The systemd restart policy, such as "no", "on-failure", or "always".
+     */
+    private final String restart;
+
+    /**
+     * The number of seconds to wait before restarting the daemon, or 0 to use
+     * the systemd default.
+     */
+    private final int restartSec;
+
+    @JsonCreator
+    public DaemonSupervision(@JsonProperty("cpuQuota") String cpuQuota,
+                             @JsonProperty("memoryMax") String memoryMax,
+                             @JsonProperty("cpus") String cpus,
+                             @JsonProperty("restart") String restart,
+                             @JsonProperty("restartSec") int restartSec) {
+        this.cpuQuota = (cpuQuota == null) ? "" : cpuQuota;
+        this.memoryMax = (memoryMax == null) ? "" : memoryMax;
+        this.cpus = (cpus == null) ? "" : cpus;
+        this.restart = (restart == null || restart.isEmpty()) ? DEFAULT_RESTART : restart;
+        this.restartSec = Math.max(0, restartSec);
+    }
+
+    @JsonProperty
+    public String cpuQuota() {
+        return cpuQuota;
+    }
+
+    @JsonProperty
+    public String memoryMax() {
+        return memoryMax;
+    }
+
+    @JsonProperty
+    public String cpus() {
+        return cpus;
+    }
+
+    @JsonProperty
+    public String restart() {
+        return restart;
+    }
+
+    @JsonProperty
+    public int restartSec() {
+        return restartSec;
+    }
+
+    /**
+     * Get the systemd-run arguments which set the unit properties.
+     */
+    public List<String> systemdRunArgs() {
+        List<String> args = new ArrayList<>();
+        if (!cpuQuota.isEmpty()) {
+            args.add("-p");
+            args.add("CPUQuota=" + cpuQuota);
+        }
+        if (!memoryMax.isEmpty()) {
+            args.add("-p");
+            args.add("MemoryMax=" + memoryMax);
+        }
+        if (!cpus.isEmpty()) {
+            args.add("-p");
+            args.add("'CPUAffinity=" + cpus + "'");
+        }
+        args.add("-p");
+        args.add("Restart=" + restart);
+        if (restartSec > 0) {
+            args.add("-p");
+            args.add("RestartSec=" + restartSec);
+        }
+        return args;
+    }
+}
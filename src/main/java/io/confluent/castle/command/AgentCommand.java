@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.agent.AgentClient;
+import io.confluent.castle.agent.AgentLink;
+import io.confluent.castle.agent.AgentOp;
+import io.confluent.castle.agent.AgentResult;
+import io.confluent.castle.agent.CastleAgent;
+import io.confluent.castle.cluster.CastleNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A command implementation that runs commands through the castle agent.
+ *
+ * Commands are run by the agent in the same way that sshd would run them: the
+ * arguments are joined with spaces and interpreted by the shell.  Directory
+ * syncs, symlinks, and syncs from the node still go through the uplink's
+ * direct command, such as rsync over ssh.
+ */
+public class AgentCommand implements Command {
+    private final AgentLink link;
+
+    private final AgentClient client;
+
+    private final Command direct;
+
+    private final CastleNode node;
+
+    private Operation operation = Operation.SSH;
+
+    private List<String> args = null;
+
+    private String local = null;
+
+    private String remote = null;
+
+    private boolean captureStderr = false;
+
+    private StringBuilder stringBuilder = null;
+
+    private byte[] stdin = null;
+
+    public AgentCommand(AgentLink link, AgentClient client, Command direct) {
+        this.link = link;
+        this.client = client;
+        this.direct = direct;
+        this.node = client.node();
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.operation = Operation.SSH;
+        this.args = new ArrayList<>(args);
+        this.local = null;
+        this.remote = null;
+        direct.argList(args);
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        this.operation = Operation.RSYNC_TO;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        direct.syncTo(local, remote);
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        this.operation = Operation.RSYNC_FROM;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        direct.syncFrom(remote, local);
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        this.stringBuilder = stringBuilder;
+        direct.captureOutput(stringBuilder);
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        this.captureStderr = captureStderr;
+        direct.setCaptureStderr(captureStderr);
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        if (stdin == null) {
+            this.stdin = null;
+        } else {
+            this.stdin = Arrays.copyOf(stdin, stdin.length);
+        }
+        direct.setStdin(stdin);
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        switch (operation) {
+            case SSH:
+                if (args == null) {
+                    throw new RuntimeException("You must supply ssh arguments.");
+                }
+                return runOp(AgentOp.exec(shellCommand(), shellStdin(), link.execTimeoutMs()));
+            case RSYNC_TO:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                // The agent can copy a single regular file.  It gives the copy the
+                // same mode, and resolves directory destinations, as rsync -a would.
+                Path localPath = Paths.get(local);
+                if (Files.isRegularFile(localPath, LinkOption.NOFOLLOW_LINKS)) {
+                    return runOp(AgentOp.writeFile(remote, Files.readAllBytes(localPath),
+                        localPath.getFileName().toString(),
+                        CastleAgent.permissionsToMode(Files.getPosixFilePermissions(localPath))));
+                }
+                return direct.run();
+            default:
+                return direct.run();
+        }
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        int returnCode = run();
+        if (returnCode != 0) {
+            throw new CommandResultException(describe(), returnCode);
+        }
+    }
+
+    @Override
+    public void exec() throws Exception {
+        direct.exec();
+    }
+
+    /**
+     * Translate the arguments into the command line that sshd would run.
+     */
+    private String shellCommand() {
+        return ShellArgs.shellCommand(args);
+    }
+
+    /**
+     * Get the stdin for the command.  Like ssh, "-n" means that stdin is /dev/null.
+     */
+    private byte[] shellStdin() {
+        if (ShellArgs.noStdin(args)) {
+            return null;
+        }
+        return stdin;
+    }
+
+    private List<String> describe() {
+        if (operation == Operation.SSH) {
+            return Arrays.asList("agent", shellCommand());
+        }
+        return Arrays.asList("agent", operation.toString(), local, remote);
+    }
+
+    private int runOp(AgentOp op) throws Exception {
+        String description = Command.joinArgs(describe());
+        node.log().printf("** %s: RUNNING %s%n", node.nodeName(), description);
+        AgentResult result;
+        try {
+            result = client.call(op);
+        } catch (IOException e) {
+            link.invalidate(client);
+            throw e;
+        }
+        result.check();
+        if (stringBuilder != null) {
+            stringBuilder.append(result.stdout());
+            if (captureStderr) {
+                stringBuilder.append(result.stderr());
+            }
+        }
+        logOutput(result.stdout());
+        logOutput(result.stderr());
+        node.log().printf("** %s: FINISHED %s with RESULT %d%n",
+            node.nodeName(), description, result.returnCode());
+        return result.returnCode();
+    }
+
+    private void logOutput(String output) {
+        if (output.isEmpty()) {
+            return;
+        }
+        node.log().print(output);
+        if (!output.endsWith("\n")) {
+            node.log().print(System.lineSeparator());
+        }
+    }
+}
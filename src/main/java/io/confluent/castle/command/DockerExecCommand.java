@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A command implementation that uses docker exec to run commands in a container.
+ *
+ * Commands are interpreted by bash inside the container, in the same way that
+ * sshd would interpret them.  Syncs use rsync, with docker exec as the remote
+ * shell, so the container does not need to run sshd.
+ */
+public class DockerExecCommand implements Command {
+    private final CastleNode node;
+
+    private final String containerName;
+
+    private final String dockerUser;
+
+    private Operation operation = Operation.SSH;
+
+    private List<String> args = null;
+
+    private String local = null;
+
+    private String remote = null;
+
+    private boolean captureStderr = false;
+
+    private StringBuilder stringBuilder = null;
+
+    private byte[] stdin = null;
+
+    public DockerExecCommand(CastleNode node, String containerName, String dockerUser) {
+        this.node = node;
+        this.containerName = containerName;
+        this.dockerUser = dockerUser;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.operation = Operation.SSH;
+        this.args = new ArrayList<>(args);
+        this.local = null;
+        this.remote = null;
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        this.operation = Operation.RSYNC_TO;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        this.operation = Operation.RSYNC_FROM;
+        this.args = null;
+        this.local = local;
+        this.remote = remote;
+        return this;
+    }
+
+    @Override
+    public Command captureOutput(StringBuilder stringBuilder) {
+        this.stringBuilder = stringBuilder;
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        this.captureStderr = captureStderr;
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        if (stdin == null) {
+            this.stdin = null;
+        } else {
+            this.stdin = Arrays.copyOf(stdin, stdin.length);
+        }
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        return new NodeShellRunner(node, makeCommandLine(false)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setStdin(stdin()).
+            run();
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        new NodeShellRunner(node, makeCommandLine(false)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setStdin(stdin()).
+            mustRun();
+    }
+
+    @Override
+    public void exec() throws Exception {
+        new NodeShellRunner(node, makeCommandLine(true)).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(captureStderr).
+            setStdin(stdin()).
+            exec();
+    }
+
+    private byte[] stdin() {
+        if ((operation == Operation.SSH) && (args != null) && ShellArgs.noStdin(args)) {
+            return null;
+        }
+        return stdin;
+    }
+
+    /**
+     * Create the docker exec command line, without the container name.
+     *
+     * @param interactive   True if the command will use our terminal.
+     */
+    List<String> createDockerExecPreamble(boolean interactive) {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add("docker");
+        commandLine.add("exec");
+        commandLine.add("-i");
+        if (interactive && (System.console() != null)) {
+            commandLine.add("-t");
+        }
+        // Set the user to run as, if configured.
+        if (!dockerUser.isEmpty()) {
+            commandLine.add("--user");
+            commandLine.add(dockerUser);
+        }
+        return commandLine;
+    }
+
+    List<String> makeCommandLine(boolean interactive) {
+        List<String> commandLine = new ArrayList<>();
+        if (containerName.isEmpty()) {
+            throw new RuntimeException("No container name configured for " + node.nodeName());
+        }
+        switch (operation) {
+            case SSH:
+                if (args == null) {
+                    throw new RuntimeException("You must supply ssh arguments.");
+                }
+                commandLine.addAll(createDockerExecPreamble(interactive));
+                commandLine.add(containerName);
+                commandLine.add("bash");
+                if (args.size() == ShellArgs.commandStart(args)) {
+                    // Like ssh, start a login shell if there is no command.
+                    commandLine.add("-l");
+                } else {
+                    commandLine.add("-c");
+                    commandLine.add(ShellArgs.shellCommand(args));
+                }
+                break;
+            case RSYNC_TO:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(createRsyncPreamble());
+                commandLine.add(local);
+                commandLine.add(containerName + ":" + remote);
+                break;
+            case RSYNC_FROM:
+                if ((local == null) || (remote == null)) {
+                    throw new RuntimeException("The local and remote paths must be non-null.");
+                }
+                commandLine.addAll(createRsyncPreamble());
+                commandLine.add(containerName + ":" + remote);
+                commandLine.add(local);
+                break;
+        }
+        return commandLine;
+    }
+
+    private List<String> createRsyncPreamble() {
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add("rsync");
+        commandLine.add("-aqi");
+        commandLine.add("--delete");
+        // docker exec does not handle rsync's non-blocking I/O well.
+        commandLine.add("--blocking-io");
+        commandLine.add("-e");
+        commandLine.add(String.join(" ", createDockerExecPreamble(false)));
+        return commandLine;
+    }
+}
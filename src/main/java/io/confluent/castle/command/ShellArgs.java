@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.command;
+
+import java.util.List;
+
+/**
+ * Interprets command arguments in the same way that ssh and sshd do.
+ *
+ * Arguments may begin with the ssh options "-n" and "--".  The rest of the
+ * arguments are joined with spaces and interpreted by the remote shell.
+ */
+final class ShellArgs {
+    /**
+     * Get the index of the first argument which is not an ssh option.
+     */
+    static int commandStart(List<String> args) {
+        int index = 0;
+        while (index < args.size()) {
+            String arg = args.get(index);
+            if (arg.equals("--")) {
+                return index + 1;
+            } else if (!arg.equals("-n")) {
+                break;
+            }
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * Translate the arguments into the command line that sshd would run.
+     */
+    static String shellCommand(List<String> args) {
+        return String.join(" ", args.subList(commandStart(args), args.size()));
+    }
+
+    /**
+     * Return true if stdin should be /dev/null.  This is what "-n" means to ssh.
+     */
+    static boolean noStdin(List<String> args) {
+        return args.subList(0, commandStart(args)).contains("-n");
+    }
+}
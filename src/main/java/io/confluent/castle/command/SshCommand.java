@@ -60,6 +60,10 @@ public class SshCommand implements Command {
         this.sshIdentityFile = sshIdentityFile;
     }
 
+    public String dns() {
+        return dns;
+    }
+
     @Override
     public Command args(String... args) {
         return argList(Arrays.asList(args));
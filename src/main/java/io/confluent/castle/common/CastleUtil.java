@@ -17,20 +17,17 @@
 
 package io.confluent.castle.common;
 
-import io.confluent.castle.cluster.CastleCluster;
-import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.tool.CastleReturnCode;
 import org.slf4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
@@ -133,141 +130,6 @@ public final class CastleUtil {
         }
     }
 
-    public static final void killProcess(CastleCluster cluster,
-            CastleNode node, String processPattern) throws Exception {
-        killProcess(cluster, node, processPattern, "SIGTERM");
-    }
-
-    /**
-     * Kill any processes which match the provided pattern.
-     *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @param signalType        The signal type to send.
-     * @throws Exception
-     */
-    public static final void killProcess(CastleCluster cluster,
-            CastleNode node, String processPattern, String signalType) throws Exception {
-        node.uplink().command().
-            argList(killProcessArgs(processPattern, signalType)).
-            mustRun();
-    }
-
-    public static List<String> killProcessArgs(String processPattern, String signalType) {
-        // We don't want our own process' line to appear in the output.  Therefore, we enclose the
-        // first character of the pattern string in brackets.
-        processPattern = "[" + processPattern.substring(0, 1) + "]" + processPattern.substring(1);
-        List<String> argsList = new ArrayList<>(Arrays.asList(new String[] {
-            "-n", "--", "ps", "aux", "|", "awk", "'/" + processPattern +
-                "/ { print $2 }'", "|", "xargs", "-r", "kill"
-        }));
-        argsList.add("-s");
-        argsList.add(signalType);
-        argsList.add("--");
-        return argsList;
-    }
-
-    /**
-     * Kill any java processes which match the provided pattern.
-     *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @param force             Use SIGKILL rather than SIGTERM
-     * @throws Exception
-     */
-    public static final void killJavaProcess(CastleCluster cluster,
-                                             CastleNode node, String processPattern, boolean force) throws Exception {
-        node.uplink().command().
-            argList(killJavaProcessArgs(processPattern, force)).
-            mustRun();
-    }
-
-    public static List<String> killJavaProcessArgs(String processPattern, boolean force) {
-        List<String> argsList = new ArrayList<>(Arrays.asList(new String[] {
-            "-n", "--", "jcmd", "|", "awk", "'/" + processPattern +
-                "/ { print $1 }'", "|", "xargs", "-r", "kill"
-        }));
-        if (force) {
-            argsList.add("-9");
-        }
-        argsList.add("--");
-        return argsList;
-    }
-
-    /**
-     * Get the status of a process running on a node.
-     *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @return                  The role status.
-     * @throws Exception
-     */
-    public static final CastleReturnCode getProcessStatus(CastleCluster cluster,
-                                                        CastleNode node, String processPattern) throws Exception {
-        String effectivePattern = "[" + processPattern.substring(0, 1) + "]" + processPattern.substring(1);
-        StringBuilder stringBuilder = new StringBuilder();
-        int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
-            args("-n", "--", "ps", "aux", "|", "awk", "'/" + effectivePattern + "/ { print $2 }'").
-            run();
-        if (retVal != 0) {
-            cluster.clusterLog().printf("%s: Unable to determine if %s is running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.TOOL_FAILED;
-        }
-        String pidString = stringBuilder.toString().trim();
-        if (pidString.isEmpty()) {
-            cluster.clusterLog().printf("%s: %s is not running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.CLUSTER_FAILED;
-        }
-        cluster.clusterLog().printf("%s: %s is running as pid %s%n",
-            node.nodeName(), processPattern, pidString);
-        return CastleReturnCode.SUCCESS;
-    }
-
-    /**
-     * Get the status of a java process running on a node.
-     *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @return                  The role status.
-     * @throws Exception
-     */
-    public static final CastleReturnCode getJavaProcessStatus(CastleCluster cluster,
-                                                            CastleNode node, String processPattern) throws Exception {
-        StringBuilder stringBuilder = new StringBuilder();
-        int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
-            args("-n", "--", "jcmd", "|", "grep", processPattern).
-            run();
-        if (retVal == 255) {
-            cluster.clusterLog().printf("%s: Unable to determine if %s is running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.TOOL_FAILED;
-        } else if (retVal == 1) {
-            cluster.clusterLog().printf("%s: %s is not running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.CLUSTER_FAILED;
-        }
-        String pidString = stringBuilder.toString();
-        int firstSpace = pidString.indexOf(" ");
-        if (firstSpace != -1) {
-            pidString = pidString.substring(0, firstSpace - 1);
-        }
-        cluster.clusterLog().printf("%s: %s is running as pid %s%n",
-            node.nodeName(), processPattern, pidString);
-        return CastleReturnCode.SUCCESS;
-    }
-
-    public static String[] checkJavaProcessStatusArgs(String processPattern) {
-        return new String[] {"-n", "--", "jcmd", "|", "grep", "-q", processPattern};
-    }
-
     /**
      * Create a merged configuration map containing entries from both input maps.
      * Entries from the first map take priority.
@@ -283,6 +145,26 @@ public final class CastleUtil {
         return results;
     }
 
+    /**
+     * Compute a hexadecimal SHA-256 digest of a string.
+     *
+     * @param input         The string to hash.
+     * @return              The digest, as 64 lowercase hex digits.
+     */
+    public static String sha256Hex(String input) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        StringBuilder bld = new StringBuilder();
+        for (byte b : digest.digest(input.getBytes(StandardCharsets.UTF_8))) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+
     /**
      * Create a new ThreadFactory.
      *
@@ -0,0 +1,283 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Constants and encoding helpers for the columnar JMX file format.
+ *
+ * A columnar file starts with the magic bytes "CJMX" and a version byte.  The
+ * rest of the file is a sequence of records, each starting with a type byte.
+ *
+ * A columns record appends column names.  It contains a varint count followed
+ * by that many length-prefixed UTF-8 names.  The first columns record comes
+ * before any blocks.  Later ones add columns for MBeans which were discovered
+ * while the file was being written.
+ *
+ * A block record holds the samples for a run of rows.  It contains the varint
+ * length of its payload, followed by the payload.  The payload starts with the
+ * varint number of rows and the varint number of columns in the block.  Next
+ * comes the time column: the first timestamp, the first delta, and then the
+ * delta-of-delta for each remaining row.  Each attribute column follows,
+ * starting on a byte boundary with a kind byte.  Integral columns store the
+ * first value and then the delta from each value to the next.  Double and float
+ * columns use XOR encoding, where each value is XORed with the previous one and
+ * only the bits that differ are stored.  Floats are stored in the upper half of
+ * a 64-bit word, so the same encoding applies.  Other values are stored as
+ * run-length encoded strings.  Columns of other numbers, such as BigIntegers,
+ * or of a mix of integral and floating point numbers, are stored the same way,
+ * but are read back as numbers, so that they print exactly as they were
+ * sampled.  If some rows of a column have no value, the kind byte has
+ * the NULLS_FLAG bit set, and is followed by a bitmap with one bit per row.
+ * Only the rows whose bits are set have encoded values.  A block may have fewer
+ * columns than have been named so far, if it was written before the later
+ * columns were added.
+ *
+ * Samples which do not change cost a single bit per row, so files are usually
+ * much smaller than the equivalent CSV.
+ */
+public final class JmxColumnarFormat {
+    static final byte[] MAGIC = "CJMX".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte VERSION = 1;
+
+    static final byte COLUMNS_RECORD = 'C';
+
+    static final byte BLOCK_RECORD = 'B';
+
+    static final byte KIND_LONG = 1;
+
+    static final byte KIND_DOUBLE = 2;
+
+    static final byte KIND_STRING = 3;
+
+    static final byte KIND_FLOAT = 4;
+
+    static final byte KIND_NUMBER = 5;
+
+    static final int NULLS_FLAG = 0x80;
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * A growable buffer which a block is encoded into before it is written out.
+     * It supports both byte-level and bit-level writes.
+     */
+    static final class BlockBuffer {
+        private byte[] buf = new byte[4096];
+        private int length = 0;
+        private int current = 0;
+        private int currentBits = 0;
+
+        void reset() {
+            length = 0;
+            current = 0;
+            currentBits = 0;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void writeByte(int value) {
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+            buf[length++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            for (byte b : bytes) {
+                writeByte(b);
+            }
+        }
+
+        /**
+         * Write the low numBits bits of a value, most significant bit first.
+         */
+        void writeBits(long value, int numBits) {
+            for (int i = numBits - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >>> i) & 1);
+                if (++currentBits == 8) {
+                    writeByte(current);
+                    current = 0;
+                    currentBits = 0;
+                }
+            }
+        }
+
+        /**
+         * Write a zig-zag encoded value with a variable-length bit code.  Zero
+         * takes a single bit.
+         */
+        void writeBucketed(long value) {
+            if (value == 0) {
+                writeBits(0, 1);
+            } else if ((value >>> 7) == 0) {
+                writeBits(0x2, 2);
+                writeBits(value, 7);
+            } else if ((value >>> 14) == 0) {
+                writeBits(0x6, 3);
+                writeBits(value, 14);
+            } else if ((value >>> 21) == 0) {
+                writeBits(0xe, 4);
+                writeBits(value, 21);
+            } else if ((value >>> 32) == 0) {
+                writeBits(0x1e, 5);
+                writeBits(value, 32);
+            } else {
+                writeBits(0x1f, 5);
+                writeBits(value, 64);
+            }
+        }
+
+        /**
+         * Pad the current byte with zero bits.
+         */
+        void alignToByte() {
+            if (currentBits > 0) {
+                writeByte(current << (8 - currentBits));
+                current = 0;
+                currentBits = 0;
+            }
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buf, 0, length);
+        }
+    }
+
+    /**
+     * Reads the payload of a block.
+     */
+    static final class BlockReader {
+        private byte[] buf = new byte[0];
+        private int length = 0;
+        private int position = 0;
+        private int current = 0;
+        private int currentBits = 0;
+
+        byte[] reset(int newLength) {
+            if (buf.length < newLength) {
+                buf = new byte[newLength];
+            }
+            length = newLength;
+            position = 0;
+            current = 0;
+            currentBits = 0;
+            return buf;
+        }
+
+        int readByte() throws IOException {
+            if (position >= length) {
+                throw new EOFException("Unexpected end of block.");
+            }
+            return buf[position++] & 0xff;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= ((long) (b & 0x7f)) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint.");
+        }
+
+        String readString() throws IOException {
+            int size = (int) readVarLong();
+            if ((size < 0) || (size > length - position)) {
+                throw new EOFException("Unexpected end of block.");
+            }
+            String value = new String(buf, position, size, StandardCharsets.UTF_8);
+            position += size;
+            return value;
+        }
+
+        long readBits(int numBits) throws IOException {
+            long value = 0;
+            for (int i = 0; i < numBits; i++) {
+                if (currentBits == 0) {
+                    current = readByte();
+                    currentBits = 8;
+                }
+                currentBits--;
+                value = (value << 1) | ((current >>> currentBits) & 1);
+            }
+            return value;
+        }
+
+        long readBucketed() throws IOException {
+            if (readBits(1) == 0) {
+                return 0;
+            } else if (readBits(1) == 0) {
+                return readBits(7);
+            } else if (readBits(1) == 0) {
+                return readBits(14);
+            } else if (readBits(1) == 0) {
+                return readBits(21);
+            } else if (readBits(1) == 0) {
+                return readBits(32);
+            } else {
+                return readBits(64);
+            }
+        }
+
+        void alignToByte() {
+            currentBits = 0;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxColumnarFormat.BlockReader;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.confluent.castle.jmx.JmxColumnarFormat.BLOCK_RECORD;
+import static io.confluent.castle.jmx.JmxColumnarFormat.COLUMNS_RECORD;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_DOUBLE;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_FLOAT;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_LONG;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_NUMBER;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_STRING;
+import static io.confluent.castle.jmx.JmxColumnarFormat.MAGIC;
+import static io.confluent.castle.jmx.JmxColumnarFormat.NULLS_FLAG;
+import static io.confluent.castle.jmx.JmxColumnarFormat.VERSION;
+import static io.confluent.castle.jmx.JmxColumnarFormat.unZigZag;
+
+/**
+ * Reads a file in the columnar format described in JmxColumnarFormat.
+ *
+ * Rows are read one at a time with next().  Integral values are returned as
+ * Longs, doubles as Doubles, and floats as Floats.  Other numbers are returned
+ * as NumberTexts, which print exactly as the sampled values did.  Everything
+ * else is returned as Strings.
+ *
+ * If the file ends in the middle of a record, because the writer was killed,
+ * the partial record is ignored.
+ */
+public final class JmxColumnarReader implements AutoCloseable {
+    private final DataInputStream in;
+    private final List<String> columns = new ArrayList<>();
+    private final BlockReader block = new BlockReader();
+    private long[] times = new long[0];
+    private boolean[] present = new boolean[0];
+    private Object[][] values = new Object[0][];
+    private int capacity = 0;
+    private int numRows = 0;
+    private int numBlockColumns = 0;
+    private int row = -1;
+
+    public JmxColumnarReader(InputStream inputStream) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("This is not a columnar JMX file.");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported columnar JMX file version " + version);
+        }
+    }
+
+    /**
+     * Get the names of the columns seen so far, not including the time column.
+     */
+    public List<String> columns() {
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Read the rest of the file, skipping over the blocks, to find the names
+     * of all the columns.  Afterwards, there are no more rows to read.
+     */
+    public List<String> scanColumns() throws IOException {
+        while (readRecord(true)) {
+        }
+        numRows = 0;
+        return columns();
+    }
+
+    /**
+     * Advance to the next row.
+     *
+     * @return              False if there are no more rows.
+     */
+    public boolean next() throws IOException {
+        row++;
+        while (row >= numRows) {
+            if (!readRecord(false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long timeMs() {
+        return times[row];
+    }
+
+    /**
+     * Get a value in the current row.
+     *
+     * @return              The value, or null if there was no value.  This
+     *                      happens when the column was added after this row
+     *                      was written, or when its MBean had gone away.
+     */
+    public Object value(int column) {
+        if (column >= numBlockColumns) {
+            return null;
+        }
+        return values[column][row];
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @param skipBlocks    True if we should skip over blocks without decoding them.
+     * @return              False if we reached the end of the file.
+     */
+    private boolean readRecord(boolean skipBlocks) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return false;
+        }
+        try {
+            switch (type) {
+                case COLUMNS_RECORD:
+                    long count = readVarLong();
+                    for (long i = 0; i < count; i++) {
+                        byte[] name = new byte[(int) readVarLong()];
+                        in.readFully(name);
+                        columns.add(new String(name, StandardCharsets.UTF_8));
+                    }
+                    return true;
+                case BLOCK_RECORD:
+                    int length = (int) readVarLong();
+                    if (skipBlocks) {
+                        if (in.skipBytes(length) < length) {
+                            return false;
+                        }
+                    } else {
+                        in.readFully(block.reset(length), 0, length);
+                        decodeBlock();
+                    }
+                    return true;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= ((long) (b & 0x7f)) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint.");
+    }
+
+    private void decodeBlock() throws IOException {
+        row = 0;
+        numRows = (int) block.readVarLong();
+        numBlockColumns = (int) block.readVarLong();
+        if (numBlockColumns > columns.size()) {
+            throw new IOException("Block has " + numBlockColumns + " columns, but only " +
+                columns.size() + " column names have been defined.");
+        }
+        if (numRows > times.length) {
+            times = new long[numRows];
+            present = new boolean[numRows];
+        }
+        if ((numBlockColumns > values.length) || (numRows > capacity)) {
+            capacity = Math.max(capacity, numRows);
+            values = new Object[Math.max(values.length, numBlockColumns)][capacity];
+        }
+        if (numRows == 0) {
+            return;
+        }
+        decodeTimes();
+        for (int i = 0; i < numBlockColumns; i++) {
+            block.alignToByte();
+            decodeColumn(values[i]);
+        }
+    }
+
+    private void decodeTimes() throws IOException {
+        times[0] = block.readBits(64);
+        long delta = 0;
+        for (int i = 1; i < numRows; i++) {
+            delta += unZigZag(block.readBucketed());
+            times[i] = times[i - 1] + delta;
+        }
+    }
+
+    private void decodeColumn(Object[] column) throws IOException {
+        int kind = block.readByte();
+        if ((kind & NULLS_FLAG) != 0) {
+            kind &= ~NULLS_FLAG;
+            for (int i = 0; i < numRows; i++) {
+                present[i] = block.readBits(1) != 0;
+            }
+            block.alignToByte();
+        } else {
+            Arrays.fill(present, 0, numRows, true);
+        }
+        switch (kind) {
+            case KIND_LONG: {
+                long value = 0;
+                for (int i = 0; i < numRows; i++) {
+                    if (present[i]) {
+                        value += unZigZag(block.readBucketed());
+                        column[i] = value;
+                    } else {
+                        column[i] = null;
+                    }
+                }
+                break;
+            }
+            case KIND_DOUBLE:
+            case KIND_FLOAT:
+                decodeFloatingPoint(column, kind == KIND_FLOAT);
+                break;
+            case KIND_STRING:
+            case KIND_NUMBER:
+                decodeStrings(column, kind == KIND_NUMBER);
+                break;
+            default:
+                throw new IOException("Unknown column kind " + kind);
+        }
+    }
+
+    private void decodeFloatingPoint(Object[] column, boolean isFloat) throws IOException {
+        long prev = 0;
+        int leading = 0;
+        int trailing = 0;
+        boolean first = true;
+        for (int i = 0; i < numRows; i++) {
+            if (!present[i]) {
+                column[i] = null;
+                continue;
+            }
+            if (first) {
+                prev = isFloat ? block.readBits(32) << 32 : block.readBits(64);
+                first = false;
+            } else if (block.readBits(1) != 0) {
+                if (block.readBits(1) != 0) {
+                    leading = (int) block.readBits(5);
+                    int significant = (int) block.readBits(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                prev ^= block.readBits(64 - leading - trailing) << trailing;
+            }
+            column[i] = isFloat ? (Object) Float.intBitsToFloat((int) (prev >>> 32)) :
+                (Object) Double.longBitsToDouble(prev);
+        }
+    }
+
+    private void decodeStrings(Object[] column, boolean isNumber) throws IOException {
+        long numRuns = block.readVarLong();
+        int i = 0;
+        for (long run = 0; run < numRuns; run++) {
+            int runLength = (int) block.readVarLong();
+            String text = block.readString();
+            Object value = isNumber ? new NumberText(text) : text;
+            while (runLength > 0) {
+                if (i >= numRows) {
+                    throw new IOException("String runs exceed the number of rows in the block.");
+                }
+                if (present[i]) {
+                    column[i] = value;
+                    runLength--;
+                } else {
+                    column[i] = null;
+                }
+                i++;
+            }
+        }
+        for (; i < numRows; i++) {
+            column[i] = null;
+        }
+    }
+
+    /**
+     * A number which was stored as its decimal text.
+     */
+    public static final class NumberText extends Number {
+        private static final long serialVersionUID = 1L;
+
+        private final String text;
+
+        public NumberText(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int intValue() {
+            return (int) longValue();
+        }
+
+        @Override
+        public long longValue() {
+            try {
+                return new BigDecimal(text).longValue();
+            } catch (NumberFormatException e) {
+                return (long) doubleValue();
+            }
+        }
+
+        @Override
+        public float floatValue() {
+            return Float.parseFloat(text);
+        }
+
+        @Override
+        public double doubleValue() {
+            return Double.parseDouble(text);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof NumberText) && text.equals(((NumberText) o).text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
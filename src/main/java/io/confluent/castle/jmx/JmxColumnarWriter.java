@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxColumnarFormat.BlockBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.confluent.castle.jmx.JmxColumnarFormat.BLOCK_RECORD;
+import static io.confluent.castle.jmx.JmxColumnarFormat.COLUMNS_RECORD;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_DOUBLE;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_FLOAT;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_LONG;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_NUMBER;
+import static io.confluent.castle.jmx.JmxColumnarFormat.KIND_STRING;
+import static io.confluent.castle.jmx.JmxColumnarFormat.MAGIC;
+import static io.confluent.castle.jmx.JmxColumnarFormat.NULLS_FLAG;
+import static io.confluent.castle.jmx.JmxColumnarFormat.VERSION;
+import static io.confluent.castle.jmx.JmxColumnarFormat.zigZag;
+
+/**
+ * Writes JMX samples in the columnar format described in JmxColumnarFormat.
+ *
+ * Rows are buffered in memory until there are enough to fill a block.  Then the
+ * block is encoded column by column and written out.
+ */
+public final class JmxColumnarWriter implements JmxFileWriter {
+    private final OutputStream out;
+    private final int blockRows;
+    private final BlockBuffer block = new BlockBuffer();
+    private final long[] times;
+    private Object[][] columns = new Object[0][];
+    private int numRows = 0;
+
+    public JmxColumnarWriter(OutputStream outputStream, int blockRows) throws IOException {
+        this.out = new BufferedOutputStream(outputStream);
+        this.blockRows = blockRows;
+        this.times = new long[blockRows];
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    @Override
+    public void writeHeader(List<String> names) throws IOException {
+        out.write(COLUMNS_RECORD);
+        JmxColumnarFormat.writeVarLong(out, names.size());
+        for (String name : names) {
+            JmxColumnarFormat.writeString(out, name);
+        }
+        columns = new Object[names.size()][blockRows];
+        out.flush();
+    }
+
+    @Override
+    public void addColumns(List<String> names) throws IOException {
+        // Every row in a block has the same columns, so start a new block.
+        flushBlock();
+        out.write(COLUMNS_RECORD);
+        JmxColumnarFormat.writeVarLong(out, names.size());
+        for (String name : names) {
+            JmxColumnarFormat.writeString(out, name);
+        }
+        Object[][] newColumns = new Object[columns.length + names.size()][];
+        System.arraycopy(columns, 0, newColumns, 0, columns.length);
+        for (int i = columns.length; i < newColumns.length; i++) {
+            newColumns[i] = new Object[blockRows];
+        }
+        columns = newColumns;
+        out.flush();
+    }
+
+    @Override
+    public void writeRow(long timeMs, Object[] values) throws IOException {
+        if (values.length != columns.length) {
+            throw new RuntimeException("Expected " + columns.length + " values, but got " +
+                values.length + ".");
+        }
+        times[numRows] = timeMs;
+        for (int i = 0; i < values.length; i++) {
+            columns[i][numRows] = values[i];
+        }
+        numRows++;
+        if (numRows == blockRows) {
+            flushBlock();
+        }
+    }
+
+    /**
+     * Encode the buffered rows as a block and write it out.
+     */
+    void flushBlock() throws IOException {
+        if (numRows == 0) {
+            return;
+        }
+        block.reset();
+        block.writeVarLong(numRows);
+        block.writeVarLong(columns.length);
+        encodeTimes();
+        for (Object[] column : columns) {
+            block.alignToByte();
+            encodeColumn(column);
+        }
+        block.alignToByte();
+        out.write(BLOCK_RECORD);
+        JmxColumnarFormat.writeVarLong(out, block.length());
+        block.writeTo(out);
+        out.flush();
+        for (Object[] column : columns) {
+            for (int i = 0; i < numRows; i++) {
+                column[i] = null;
+            }
+        }
+        numRows = 0;
+    }
+
+    private void encodeTimes() {
+        block.writeBits(times[0], 64);
+        long prevDelta = 0;
+        for (int i = 1; i < numRows; i++) {
+            long delta = times[i] - times[i - 1];
+            block.writeBucketed(zigZag(delta - prevDelta));
+            prevDelta = delta;
+        }
+    }
+
+    private void encodeColumn(Object[] column) {
+        int kind = 0;
+        boolean hasNulls = false;
+        for (int i = 0; i < numRows; i++) {
+            Object value = column[i];
+            if (value == null) {
+                hasNulls = true;
+                continue;
+            }
+            int valueKind = valueKind(value);
+            if (kind == 0) {
+                kind = valueKind;
+            } else if (kind != valueKind) {
+                kind = ((kind == KIND_STRING) || (valueKind == KIND_STRING)) ?
+                    KIND_STRING : KIND_NUMBER;
+            }
+        }
+        if (kind == 0) {
+            kind = KIND_LONG;
+        }
+        if (hasNulls) {
+            block.writeByte(kind | NULLS_FLAG);
+            for (int i = 0; i < numRows; i++) {
+                block.writeBits((column[i] == null) ? 0 : 1, 1);
+            }
+            block.alignToByte();
+        } else {
+            block.writeByte(kind);
+        }
+        switch (kind) {
+            case KIND_LONG:
+                encodeLongs(column);
+                break;
+            case KIND_DOUBLE:
+            case KIND_FLOAT:
+                encodeFloatingPoint(column, kind == KIND_FLOAT);
+                break;
+            default:
+                encodeStrings(column);
+                break;
+        }
+    }
+
+    /**
+     * Get the kind of column which can hold a value without changing how it
+     * prints.  Numbers which aren't longs, doubles, or floats are stored as
+     * their decimal text.
+     */
+    private static int valueKind(Object value) {
+        if ((value instanceof Long) || (value instanceof Integer) ||
+                (value instanceof Short) || (value instanceof Byte) ||
+                (value instanceof AtomicLong) || (value instanceof AtomicInteger)) {
+            return KIND_LONG;
+        } else if (value instanceof Double) {
+            return KIND_DOUBLE;
+        } else if (value instanceof Float) {
+            return KIND_FLOAT;
+        } else if (value instanceof Number) {
+            return KIND_NUMBER;
+        } else {
+            return KIND_STRING;
+        }
+    }
+
+    private void encodeLongs(Object[] column) {
+        long prev = 0;
+        for (int i = 0; i < numRows; i++) {
+            if (column[i] == null) {
+                continue;
+            }
+            long value = ((Number) column[i]).longValue();
+            block.writeBucketed(zigZag(value - prev));
+            prev = value;
+        }
+    }
+
+    private void encodeFloatingPoint(Object[] column, boolean isFloat) {
+        long prev = 0;
+        int prevLeading = -1;
+        int prevTrailing = 0;
+        boolean first = true;
+        for (int i = 0; i < numRows; i++) {
+            if (column[i] == null) {
+                continue;
+            }
+            long bits = isFloat ?
+                ((long) Float.floatToRawIntBits((Float) column[i])) << 32 :
+                Double.doubleToRawLongBits((Double) column[i]);
+            if (first) {
+                if (isFloat) {
+                    block.writeBits(bits >>> 32, 32);
+                } else {
+                    block.writeBits(bits, 64);
+                }
+                prev = bits;
+                first = false;
+                continue;
+            }
+            long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                block.writeBits(0, 1);
+                continue;
+            }
+            block.writeBits(1, 1);
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if ((prevLeading >= 0) && (leading >= prevLeading) && (trailing >= prevTrailing)) {
+                // The changed bits fit in the previous window.
+                block.writeBits(0, 1);
+                block.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int significant = 64 - leading - trailing;
+                block.writeBits(1, 1);
+                block.writeBits(leading, 5);
+                block.writeBits(significant - 1, 6);
+                block.writeBits(xor >>> trailing, significant);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+    }
+
+    private void encodeStrings(Object[] column) {
+        int numRuns = 0;
+        Object prev = null;
+        for (int i = 0; i < numRows; i++) {
+            Object value = column[i];
+            if (value != null) {
+                if (!value.equals(prev)) {
+                    numRuns++;
+                }
+                prev = value;
+            }
+        }
+        block.writeVarLong(numRuns);
+        prev = null;
+        int runLength = 0;
+        for (int i = 0; i < numRows; i++) {
+            Object value = column[i];
+            if (value == null) {
+                continue;
+            }
+            if ((prev != null) && !value.equals(prev)) {
+                block.writeVarLong(runLength);
+                block.writeString(prev.toString());
+                runLength = 0;
+            }
+            prev = value;
+            runLength++;
+        }
+        if (runLength > 0) {
+            block.writeVarLong(runLength);
+            block.writeString(prev.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes JMX samples as comma-separated values.
+ *
+ * Rows are formatted into a reused buffer, so writing a row of numbers does
+ * not allocate.  When columns are added, a new header line listing all of the
+ * columns is written.
+ */
+public final class JmxCsvWriter implements JmxFileWriter {
+    private final static String LINE_SEPARATOR = System.lineSeparator();
+
+    private final OutputStreamWriter writer;
+    private final StringBuilder bld = new StringBuilder();
+    private final List<String> columns = new ArrayList<>();
+    private char[] chars = new char[1024];
+
+    public JmxCsvWriter(OutputStream outputStream) {
+        this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeHeader(List<String> newColumns) throws IOException {
+        columns.addAll(newColumns);
+        bld.setLength(0);
+        appendString("time");
+        for (String column : columns) {
+            bld.append(", ");
+            appendString(column);
+        }
+        writeLine();
+        writer.flush();
+    }
+
+    @Override
+    public void addColumns(List<String> newColumns) throws IOException {
+        writeHeader(newColumns);
+    }
+
+    @Override
+    public void writeRow(long timeMs, Object[] values) throws IOException {
+        bld.setLength(0);
+        appendTimeMs(bld, timeMs);
+        for (Object value : values) {
+            bld.append(", ");
+            appendObject(value);
+        }
+        writeLine();
+    }
+
+    private void writeLine() throws IOException {
+        bld.append(LINE_SEPARATOR);
+        int length = bld.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        bld.getChars(0, length, chars, 0);
+        writer.write(chars, 0, length);
+    }
+
+    /**
+     * Append a time in milliseconds as seconds with three decimal places.
+     */
+    static void appendTimeMs(StringBuilder bld, long timeMs) {
+        long seconds = Math.floorDiv(timeMs, 1000L);
+        int millis = (int) Math.floorMod(timeMs, 1000L);
+        bld.append(seconds).append('.');
+        if (millis < 100) {
+            bld.append('0');
+        }
+        if (millis < 10) {
+            bld.append('0');
+        }
+        bld.append(millis);
+    }
+
+    private void appendString(String val) {
+        bld.append('"').append(val).append('"');
+    }
+
+    private void appendObject(Object value) {
+        if (value == null) {
+            return;
+        } else if ((value instanceof Long) || (value instanceof Integer) ||
+                (value instanceof Short) || (value instanceof Byte)) {
+            bld.append(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            bld.append(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            bld.append(((Float) value).floatValue());
+        } else if (value instanceof Number) {
+            bld.append(value);
+        } else if (value instanceof String) {
+            appendString((String) value);
+        } else {
+            appendString(value.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        writer.close();
+    }
+}
@@ -27,29 +27,35 @@ import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 
 import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanAttributeInfo;
 import javax.management.MBeanInfo;
 import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
@@ -63,11 +69,19 @@ import static net.sourceforge.argparse4j.impl.Arguments.store;
 /**
  * The JMX Dumper agent.
  *
- * Periodically dumps JMX state to comma-separated files.
+ * Periodically dumps JMX state to files.  The files are either comma-separated,
+ * or in the more compact columnar format.  Columnar files can be converted to
+ * comma-separated files with JmxExport.
+ *
+ * One scheduler thread and one pool of worker threads are shared by all of the
+ * JMX endpoints.  Each endpoint has a small pool of connections, and fetches
+ * its MBeans over all of them at once.
  */
 public final class JmxDumper {
     private final static int DEFAULT_PERIOD_MS = 1000;
 
+    private final static long LATENCY_REPORT_PERIOD_MS = 60000;
+
     public static final ObjectMapper JSON_SERDE;
 
     static {
@@ -116,25 +130,189 @@ public final class JmxDumper {
         }
     }
 
-    private final class CsvFile implements AutoCloseable {
-        private final JmxFileConfig file;
-        private final OutputStreamWriter writer;
-
-        public CsvFile(JmxFileConfig file) throws Exception {
+    /**
+     * The attributes which a file samples from an MBean, and where their values
+     * go in the file's row.
+     */
+    private static final class ObjectColumns {
+        private final DumperFile file;
+        private final ObjectName objectName;
+        private final String[] attributes;
+        private final int offset;
+        private final boolean discovered;
+        private boolean gone = false;
+
+        /**
+         * Create a new ObjectColumns object.
+         *
+         * @param file          The file which the values are written to.
+         * @param objectName    The MBean name.
+         * @param attributes    The attributes to fetch.
+         * @param offset        The index in the row of the first attribute.
+         * @param discovered    True if the MBean was found by a pattern.  Discovered
+         *                      MBeans may go away, in which case we store nulls.
+         */
+        ObjectColumns(DumperFile file, ObjectName objectName, String[] attributes,
+                      int offset, boolean discovered) {
             this.file = file;
-            OutputStream outputStream = Files.newOutputStream(Paths.get(file.path()), WRITE, CREATE_NEW);
+            this.objectName = objectName;
+            this.attributes = attributes;
+            this.offset = offset;
+            this.discovered = discovered;
+        }
+
+        void storeNulls() {
+            Arrays.fill(file.row, offset, offset + attributes.length, null);
+        }
+    }
+
+    /**
+     * Fetches attributes from one MBean with a single getAttributes call, and
+     * stores the values in the rows of every file which samples them.
+     */
+    private static final class MBeanFetch {
+        private final ObjectName objectName;
+        private final String[] attributes;
+        private final ObjectColumns[] targets;
+
+        /**
+         * For each target, the index in attributes of each of its attributes.
+         */
+        private final int[][] indexes;
+
+        private final Object[] values;
+
+        /**
+         * True if every target was found by a pattern, so the MBean may go away.
+         */
+        private final boolean discovered;
+
+        MBeanFetch(ObjectName objectName, List<ObjectColumns> targets) {
+            this.objectName = objectName;
+            this.targets = targets.toArray(new ObjectColumns[0]);
+            this.indexes = new int[this.targets.length][];
+            LinkedHashMap<String, Integer> union = new LinkedHashMap<>();
+            boolean discovered = true;
+            for (int i = 0; i < this.targets.length; i++) {
+                ObjectColumns target = this.targets[i];
+                indexes[i] = new int[target.attributes.length];
+                for (int j = 0; j < target.attributes.length; j++) {
+                    Integer index = union.get(target.attributes[j]);
+                    if (index == null) {
+                        index = union.size();
+                        union.put(target.attributes[j], index);
+                    }
+                    indexes[i][j] = index;
+                }
+                discovered &= target.discovered;
+            }
+            this.attributes = union.keySet().toArray(new String[0]);
+            this.values = new Object[attributes.length];
+            this.discovered = discovered;
+        }
+
+        void fetch(MBeanServerConnection connection) throws Exception {
+            boolean allGone = true;
+            for (ObjectColumns target : targets) {
+                allGone &= target.gone;
+            }
+            if (allGone) {
+                for (ObjectColumns target : targets) {
+                    target.storeNulls();
+                }
+                return;
+            }
+            AttributeList attributeList = null;
             try {
-                this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
-            } catch (Throwable t) {
-                outputStream.close();
-                throw t;
+                attributeList = connection.getAttributes(objectName, attributes);
+            } catch (Throwable e) {
+                if (discovered && (e instanceof InstanceNotFoundException)) {
+                    System.out.printf("** %s has gone away.%n", objectName);
+                    for (ObjectColumns target : targets) {
+                        target.gone = true;
+                        target.storeNulls();
+                    }
+                    return;
+                }
+                throw new RuntimeException("Failed to get attributes for object " + objectName, e);
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                Object value = null;
+                // The attributes normally come back in the order we asked for them.
+                if (i < attributeList.size()) {
+                    Attribute attribute = (Attribute) attributeList.get(i);
+                    if (attribute.getName().equals(attributes[i])) {
+                        value = attribute.getValue();
+                    }
+                }
+                if (value == null) {
+                    value = findValue(attributeList, attributes[i]);
+                }
+                values[i] = value;
+            }
+            for (int i = 0; i < targets.length; i++) {
+                ObjectColumns target = targets[i];
+                for (int j = 0; j < indexes[i].length; j++) {
+                    Object value = values[indexes[i][j]];
+                    if ((value == null) && (!target.discovered)) {
+                        throw new RuntimeException("getAttributes failed to fetch a value for " +
+                            objectName + ":" + target.attributes[j] + ".");
+                    }
+                    target.file.row[target.offset + j] = value;
+                }
+                target.gone = false;
             }
         }
 
-        public void writeHeader() throws Exception {
+        private static Object findValue(AttributeList attributeList, String name) {
+            for (int i = 0; i < attributeList.size(); i++) {
+                Attribute attribute = (Attribute) attributeList.get(i);
+                if (attribute.getName().equals(name)) {
+                    return attribute.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The MBeans to fetch at an instant, and the files which are due then.
+     * Files which sample the same MBean share one fetch.
+     */
+    private static final class FetchPlan {
+        private final List<DumperFile> files;
+        private final MBeanFetch[] fetches;
+
+        FetchPlan(List<DumperFile> files) {
+            this.files = files;
+            LinkedHashMap<ObjectName, List<ObjectColumns>> targets = new LinkedHashMap<>();
+            for (DumperFile file : files) {
+                for (ObjectColumns object : file.objects) {
+                    targets.computeIfAbsent(object.objectName, k -> new ArrayList<>()).add(object);
+                }
+            }
+            this.fetches = new MBeanFetch[targets.size()];
+            int i = 0;
+            for (Map.Entry<ObjectName, List<ObjectColumns>> entry : targets.entrySet()) {
+                fetches[i++] = new MBeanFetch(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private final class DumperFile implements AutoCloseable {
+        private final JmxFileConfig file;
+        private final int periodMs;
+        private final JmxFileWriter writer;
+        private final List<ObjectColumns> objects = new ArrayList<>();
+        private final HashMap<String, ObjectColumns> discovered = new HashMap<>();
+        private final List<String> columns = new ArrayList<>();
+        private Object[] row;
+        private boolean headerWritten = false;
+
+        public DumperFile(JmxFileConfig file) throws Exception {
+            this.file = file;
+            this.periodMs = (file.periodMs() > 0) ? file.periodMs() : dumperConfig.periodMs();
             HashMap<String, String> shortNames = new HashMap<>();
-            CsvRow headerRow = new CsvRow();
-            headerRow.add("time");
             for (JmxObjectConfig object : file.objects()) {
                 String prev = shortNames.get(object.shortName());
                 if (prev != null) {
@@ -142,98 +320,132 @@ public final class JmxDumper {
                         object.name() + " have the shortName " + object.shortName());
                 }
                 shortNames.put(object.shortName(), object.name());
-                for (String attribute : object.attributes()) {
-                    headerRow.add(object.shortName() + ":" + attribute);
+                if (object.isPattern()) {
+                    continue;
+                }
+                String[] attributes = objectNameToAttributes.get(object.name());
+                objects.add(new ObjectColumns(this, object.objectName(), attributes,
+                    columns.size(), false));
+                for (String attribute : attributes) {
+                    columns.add(object.shortName() + ":" + attribute);
+                }
+            }
+            this.row = new Object[columns.size()];
+            OutputStream outputStream = Files.newOutputStream(Paths.get(file.path()), WRITE, CREATE_NEW);
+            try {
+                switch (file.format()) {
+                    case JmxFileConfig.CSV_FORMAT:
+                        this.writer = new JmxCsvWriter(outputStream);
+                        break;
+                    case JmxFileConfig.COLUMNAR_FORMAT:
+                        this.writer = new JmxColumnarWriter(outputStream, file.blockRows());
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown format " + file.format() +
+                            " for " + file.path() + ".  Expected " + JmxFileConfig.CSV_FORMAT +
+                            " or " + JmxFileConfig.COLUMNAR_FORMAT + ".");
                 }
+            } catch (Throwable t) {
+                outputStream.close();
+                throw t;
             }
-            writer.write(headerRow.asString());
-            writer.flush();
         }
 
-        @Override
-        public void close() throws IOException {
-            writer.flush();
-            writer.close();
+        public void writeHeader() throws Exception {
+            writer.writeHeader(columns);
+            headerWritten = true;
         }
 
-        public void storeJmx(long time) throws Exception {
-            CsvRow row = new CsvRow();
-            row.addTimeMs(time);
+        /**
+         * Add columns for MBeans which match our patterns, but which we have not
+         * seen before.  MBeans which went away and came back are sampled again.
+         *
+         * @param matches       The MBeans which matched each pattern during this
+         *                      round of discovery.  Files which share a pattern
+         *                      share the query results.
+         * @return              True if columns were added.
+         */
+        public boolean discover(Map<ObjectName, Set<ObjectName>> matches) throws Exception {
+            List<String> newColumns = new ArrayList<>();
             for (JmxObjectConfig object : file.objects()) {
-                HashMap<String, Object> values = new HashMap<>();
-                List<Attribute> attributeList = null;
-                Collection<String> attributesToGet = object.attributes();
-                if (attributesToGet.isEmpty()) {
-                    attributesToGet = objectNameToAllAttributes.get(object.name());
+                if (!object.isPattern()) {
+                    continue;
                 }
-                try {
-                    attributeList = connection.getAttributes(object.objectName(),
-                        attributesToGet.toArray(new String[0])).asList();
-                } catch (Throwable e) {
-                    throw new RuntimeException("Failed to get attributes for object " + object.name(), e);
-                }
-                for (Attribute attribute : attributeList) {
-                    try {
-                        values.put(attribute.getName(), attribute.getValue());
-                    } catch (Throwable e) {
-                        throw new RuntimeException("Failed to get a value for attribute " + attribute, e);
-                    }
+                Set<ObjectName> names = matches.get(object.objectName());
+                if (names == null) {
+                    names = connection.queryNames(object.objectName(), null);
+                    matches.put(object.objectName(), names);
                 }
-                for (String attributeName : attributesToGet) {
-                    Object value = values.get(attributeName);
-                    if (value == null) {
-                        throw new RuntimeException("getAttributes failed to fetch a value for " +
-                            object.name() + ":" + attributeName + ".");
+                TreeMap<String, ObjectName> instances = new TreeMap<>();
+                for (ObjectName name : names) {
+                    instances.put(object.instanceShortName(name), name);
+                }
+                for (Map.Entry<String, ObjectName> entry : instances.entrySet()) {
+                    ObjectColumns existing = discovered.get(entry.getKey());
+                    if (existing != null) {
+                        if (existing.gone) {
+                            System.out.printf("** %s is back.%n", entry.getValue());
+                            existing.gone = false;
+                        }
+                        continue;
+                    }
+                    String[] attributes = discoveredAttributes(object, entry.getValue());
+                    if (attributes == null) {
+                        continue;
+                    }
+                    System.out.printf("** Discovered %s%n", entry.getValue());
+                    ObjectColumns objectColumns = new ObjectColumns(this, entry.getValue(),
+                        attributes, columns.size() + newColumns.size(), true);
+                    objects.add(objectColumns);
+                    discovered.put(entry.getKey(), objectColumns);
+                    for (String attribute : attributes) {
+                        newColumns.add(entry.getKey() + ":" + attribute);
                     }
-                    row.addObject(value);
                 }
             }
-            writer.write(row.asString());
+            if (newColumns.isEmpty()) {
+                return false;
+            }
+            columns.addAll(newColumns);
+            row = Arrays.copyOf(row, columns.size());
+            if (headerWritten) {
+                writer.addColumns(newColumns);
+            }
+            return true;
         }
-    }
-
-    private static final class CsvRow {
-        private boolean first = true;
-        private final StringBuilder bld = new StringBuilder();
 
-        CsvRow addTimeMs(long timeMs) {
-            if (!first) bld.append(", ");
-            first = false;
-            double time = timeMs;
-            time /= 1000.0;
-            bld.append(String.format("%.3f", time));
-            return this;
+        @Override
+        public void close() throws IOException {
+            writer.close();
         }
 
-        CsvRow add(Number val) {
-            if (!first) bld.append(", ");
-            first = false;
-            bld.append(val);
-            return this;
+        public void writeRow(long time) throws Exception {
+            writer.writeRow(time, row);
         }
+    }
 
-        CsvRow add(String val) {
-            if (!first) bld.append(", ");
-            first = false;
-            bld.append("\"").append(val).append("\"");
-            return this;
+    /**
+     * Get the attributes to dump for an MBean which matched a pattern.  If the
+     * pattern lists its attributes, we don't need to look at the MBean.
+     *
+     * @return              The attributes, or null if the MBean went away.
+     */
+    private String[] discoveredAttributes(JmxObjectConfig object, ObjectName name) throws Exception {
+        if (!object.attributes().isEmpty()) {
+            return object.attributes().toArray(new String[0]);
         }
-
-        CsvRow addObject(Object value) {
-            if (value instanceof Number) {
-                add((Number) value);
-            } else if (value instanceof String) {
-                add((String) value);
-            } else {
-                add(value.toString());
-            }
-            return this;
+        MBeanInfo info = null;
+        try {
+            info = connection.getMBeanInfo(name);
+        } catch (InstanceNotFoundException e) {
+            return null;
         }
-
-        String asString() {
-            bld.append(System.lineSeparator());
-            return bld.toString();
+        MBeanAttributeInfo[] attributeInfos = info.getAttributes();
+        String[] attributes = new String[attributeInfos.length];
+        for (int i = 0; i < attributeInfos.length; i++) {
+            attributes[i] = attributeInfos[i].getName();
         }
+        return attributes;
     }
 
     public final class Probe implements Runnable {
@@ -243,12 +455,12 @@ public final class JmxDumper {
         public void run() {
             try {
                 if (url.probe()) {
-                    executorService.submit(new ConnectJmx());
+                    submit(new ConnectJmx());
                 } else {
-                    executorService.schedule(this, PROBE_DELAY_MS, TimeUnit.MILLISECONDS);
+                    schedule(this, PROBE_DELAY_MS);
                 }
             } catch (Throwable t) {
-                completer.completeExceptionally(t);
+                fail(t);
             }
         }
     }
@@ -257,11 +469,26 @@ public final class JmxDumper {
         @Override
         public void run() {
             try {
-                connector = JMXConnectorFactory.connect(url.jmxUrl, null);
-                connection = connector.getMBeanServerConnection();
-                executorService.submit(new CheckJmx());
+                int numConnections = dumperConfig.connections();
+                JMXConnector[] newConnectors = new JMXConnector[numConnections];
+                MBeanServerConnection[] newConnections = new MBeanServerConnection[numConnections];
+                for (int i = 0; i < numConnections; i++) {
+                    newConnectors[i] = JMXConnectorFactory.connect(url.jmxUrl, null);
+                    newConnections[i] = newConnectors[i].getMBeanServerConnection();
+                }
+                synchronized (JmxDumper.this) {
+                    connectors = newConnectors;
+                    connections = newConnections;
+                    connection = newConnections[0];
+                    if (closed) {
+                        closeConnectors();
+                        return;
+                    }
+                }
+                System.out.printf("** Opened %d JMX connection(s) to %s.%n", numConnections, url);
+                submit(new CheckJmx());
             } catch (Throwable t) {
-                completer.completeExceptionally(t);
+                fail(t);
             }
         }
     }
@@ -273,18 +500,23 @@ public final class JmxDumper {
         public void run() {
             try {
                 if (load()) {
-                    executorService.submit(new OpenFiles());
+                    submit(new OpenFiles());
                 } else {
-                    executorService.schedule(this, LOAD_DELAY_MS, TimeUnit.MILLISECONDS);
+                    schedule(this, LOAD_DELAY_MS);
                 }
             } catch (Throwable t) {
-                completer.completeExceptionally(t);
+                fail(t);
             }
         }
 
         private final boolean load() throws Exception {
-            Collection<JmxObjectConfig> objects = dumperConfig.allObjects();
-            for (JmxObjectConfig object : objects) {
+            int numObjects = 0;
+            for (JmxObjectConfig object : dumperConfig.allObjects()) {
+                // Patterns may not match anything yet.  They are resolved when the files are opened.
+                if (object.isPattern()) {
+                    continue;
+                }
+                numObjects++;
                 MBeanInfo info = null;
                 try {
                     info = connection.getMBeanInfo(object.objectName());
@@ -297,15 +529,18 @@ public final class JmxDumper {
                     System.out.printf("** %s contains: %s%n", object.name(), attributeInfo);
                     attributeList.add(attributeInfo.getName());
                 }
-                objectNameToAllAttributes.put(object.name(), attributeList);
                 for (String attribute : object.attributes()) {
                     if (!attributeList.contains(attribute)) {
                         throw new RuntimeException("Unable to find attribute " + attribute + " for " +
                             object.name() + ".  Found: " + String.join("|", attributeList));
                     }
                 }
+                // If no attributes were configured, we dump all of them.
+                List<String> attributes = object.attributes().isEmpty() ?
+                    attributeList : object.attributes();
+                objectNameToAttributes.put(object.name(), attributes.toArray(new String[0]));
             }
-            System.out.printf("** Located %d object names.%n", objects.size());
+            System.out.printf("** Located %d object names.%n", numObjects);
             return true;
         }
     }
@@ -314,54 +549,167 @@ public final class JmxDumper {
         @Override
         public void run() {
             try {
-                for (JmxFileConfig file : dumperConfig.files()) {
-                    CsvFile csvFile = new CsvFile(file);
-                    csvFiles.add(csvFile);
-                    csvFile.writeHeader();
+                synchronized (JmxDumper.this) {
+                    if (closed) {
+                        return;
+                    }
+                    Map<ObjectName, Set<ObjectName>> matches = new HashMap<>();
+                    for (JmxFileConfig file : dumperConfig.files()) {
+                        DumperFile dumperFile = new DumperFile(file);
+                        dumperFiles.add(dumperFile);
+                        dumperFile.discover(matches);
+                        dumperFile.writeHeader();
+                    }
+                    if (dumperFiles.isEmpty()) {
+                        System.out.printf("** No files to write for %s.%n", url);
+                        return;
+                    }
+                    wheel = new JmxSampleWheel<>(dumperFiles, dumperFile -> dumperFile.periodMs);
+                    new StoreJmx().scheduleAfter(System.currentTimeMillis());
                 }
-                executorService.submit(new StoreJmx());
             } catch (Throwable t) {
-                completer.completeExceptionally(t);
+                fail(t);
             }
         }
     }
 
+    /**
+     * Samples the files which are due at each instant of the sample wheel.
+     * Instants are computed from the wall clock, rather than from when the last
+     * sample finished, so that slow samples do not make later ones drift.
+     *
+     * The MBeans of a sample are split into one chunk per connection, and the
+     * chunks are fetched in parallel on the worker threads.  Whichever chunk
+     * finishes last writes the rows.  Looking for new MBeans which match the
+     * patterns is done between samples, so that it never races with a fetch.
+     */
     public final class StoreJmx implements Runnable {
-        @Override
-        public void run() {
-            long time = System.currentTimeMillis();
-            try {
-                for (CsvFile csvFile : csvFiles) {
-                    csvFile.storeJmx(time);
+        private final FetchChunk[] chunks;
+        private final AtomicInteger remaining = new AtomicInteger(0);
+        private final boolean hasPatterns;
+        private volatile Throwable failure = null;
+        private FetchPlan plan = null;
+        private long instantMs;
+        private long nextDiscoveryMs;
+
+        StoreJmx() {
+            this.chunks = new FetchChunk[connections.length];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new FetchChunk(i);
+            }
+            boolean hasPatterns = false;
+            for (JmxObjectConfig object : dumperConfig.allObjects()) {
+                hasPatterns |= object.isPattern();
+            }
+            this.hasPatterns = hasPatterns;
+            this.nextDiscoveryMs = System.currentTimeMillis() + dumperConfig.discoveryPeriodMs();
+        }
+
+        /**
+         * Fetches every chunks.length'th MBean of the plan, starting at the
+         * chunk's own index, over the chunk's own connection.
+         */
+        private final class FetchChunk implements Runnable {
+            private final int index;
+
+            FetchChunk(int index) {
+                this.index = index;
+            }
+
+            @Override
+            public void run() {
+                try {
+                    MBeanFetch[] fetches = plan.fetches;
+                    for (int i = index; i < fetches.length; i += chunks.length) {
+                        fetches[i].fetch(connections[index]);
+                    }
+                } catch (Throwable t) {
+                    failure = t;
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    finish();
                 }
-                executorService.schedule(this, dumperConfig.periodMs(),
-                    TimeUnit.MILLISECONDS);
-            } catch (Throwable t) {
-                completer.completeExceptionally(t);
             }
         }
-    }
 
-    public final class Shutdown implements Runnable {
+        /**
+         * Starts a sample.  This runs on the scheduler thread, and only hands
+         * the fetches off to the workers.
+         */
         @Override
         public void run() {
-            try {
-                System.out.printf("Closing csv files for %s.%n", url);
-                for (Iterator<CsvFile> iter = csvFiles.iterator(); iter.hasNext(); ) {
-                    CsvFile csvFile = iter.next();
-                    csvFile.close();
-                    iter.remove();
+            synchronized (JmxDumper.this) {
+                if (closed) {
+                    return;
                 }
-                System.out.printf("Closing JMX connection for %s.%n", url);
-                if (connector != null) {
-                    connector.close();
+                try {
+                    if (plansDirty) {
+                        plans.clear();
+                        for (List<DumperFile> files : wheel.dueLists()) {
+                            plans.put(files, new FetchPlan(files));
+                        }
+                        plansDirty = false;
+                    }
+                    plan = plans.get(wheel.due(instantMs));
+                    failure = null;
+                    // Even if there is nothing to fetch, one chunk runs to write the rows.
+                    int numChunks = Math.max(1, Math.min(chunks.length, plan.fetches.length));
+                    remaining.set(numChunks);
+                    for (int i = 0; i < numChunks; i++) {
+                        workers.execute(chunks[i]);
+                    }
+                } catch (Throwable t) {
+                    fail(t);
                 }
-                System.out.printf("Shutting down executor service for %s.%n", url);
-            } catch (Throwable t) {
-                completer.completeExceptionally(t);
             }
-            completer.countDown();
-            executorService.shutdownNow();
+        }
+
+        private void finish() {
+            synchronized (JmxDumper.this) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    for (int i = 0; i < plan.files.size(); i++) {
+                        plan.files.get(i).writeRow(instantMs);
+                    }
+                    long now = System.currentTimeMillis();
+                    stats.record(now - instantMs);
+                    if (hasPatterns && (now >= nextDiscoveryMs)) {
+                        Map<ObjectName, Set<ObjectName>> matches = new HashMap<>();
+                        for (DumperFile dumperFile : dumperFiles) {
+                            if (dumperFile.discover(matches)) {
+                                plansDirty = true;
+                            }
+                        }
+                        nextDiscoveryMs = System.currentTimeMillis() +
+                            dumperConfig.discoveryPeriodMs();
+                    }
+                    scheduleAfter(instantMs);
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            }
+        }
+
+        void scheduleAfter(long prevInstantMs) {
+            long now = System.currentTimeMillis();
+            long next = wheel.nextInstant(prevInstantMs);
+            if (next <= now) {
+                long skipped = 0;
+                do {
+                    skipped++;
+                    next = wheel.nextInstant(next);
+                } while (next <= now);
+                stats.recordSkipped(skipped);
+                System.out.printf("** Sampling %s fell behind.  Skipping ahead to %d.%n",
+                    url, next);
+            }
+            instantMs = next;
+            scheduler.schedule(this, next - now, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -395,35 +743,131 @@ public final class JmxDumper {
     private final DumperUrl url;
     private final JmxDumperConfig dumperConfig;
     private final Completer completer;
-    private final ScheduledExecutorService executorService;
-    private JMXConnector connector = null;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService workers;
+    private final JmxLatencyStats stats = new JmxLatencyStats();
+    private volatile boolean closed = false;
+    private JMXConnector[] connectors = new JMXConnector[0];
+    private MBeanServerConnection[] connections = new MBeanServerConnection[0];
     private MBeanServerConnection connection = null;
-    private final List<CsvFile> csvFiles = new ArrayList<>();
-    private final HashMap<String, List<String>> objectNameToAllAttributes = new HashMap<>();
-
-    JmxDumper(String endpoint, JmxDumperConfig dumperConfig, Completer completer) throws Exception {
+    private final List<DumperFile> dumperFiles = new ArrayList<>();
+    private final HashMap<String, String[]> objectNameToAttributes = new HashMap<>();
+    private JmxSampleWheel<DumperFile> wheel = null;
+    private final IdentityHashMap<List<DumperFile>, FetchPlan> plans = new IdentityHashMap<>();
+    private boolean plansDirty = true;
+
+    /**
+     * Create a new JmxDumper.
+     *
+     * @param endpoint      The host:port of the JMX endpoint.
+     * @param dumperConfig  The configuration for this endpoint.
+     * @param completer     Completed when every dumper has shut down, or one has failed.
+     * @param scheduler     The thread which starts samples.  It is shared by all endpoints,
+     *                      and must not block.
+     * @param workers       The threads which talk to the endpoints.  These are shared as well.
+     */
+    JmxDumper(String endpoint, JmxDumperConfig dumperConfig, Completer completer,
+              ScheduledExecutorService scheduler, ExecutorService workers) throws Exception {
         this.url = new DumperUrl(endpoint);
         this.dumperConfig = dumperConfig;
         this.completer = completer;
-        this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this.scheduler = scheduler;
+        this.workers = workers;
     }
 
     public synchronized void start() throws Exception {
-        executorService.submit(new Probe());
+        submit(new Probe());
+    }
+
+    private void submit(Runnable task) {
+        if (closed) {
+            return;
+        }
+        try {
+            workers.execute(task);
+        } catch (RejectedExecutionException e) {
+            // We are shutting down.
+        }
     }
 
-    void beginShutdown() throws Exception {
+    private void schedule(Runnable task, long delayMs) {
+        if (closed) {
+            return;
+        }
         try {
-            executorService.submit(new Shutdown());
+            scheduler.schedule(() -> submit(task), delayMs, TimeUnit.MILLISECONDS);
         } catch (RejectedExecutionException e) {
-            /// ignore
+            // We are shutting down.
+        }
+    }
+
+    private void fail(Throwable t) {
+        // Once we have closed the connections, requests which were in flight may fail.
+        if (!closed) {
+            completer.completeExceptionally(t);
+        }
+    }
+
+    private void closeConnectors() throws IOException {
+        for (JMXConnector connector : connectors) {
+            if (connector != null) {
+                connector.close();
+            }
         }
     }
 
+    /**
+     * Close the files and the JMX connections.  Fetches which are in flight are
+     * abandoned.  This may be called more than once.
+     */
+    synchronized void shutdown() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            System.out.printf("Closing files for %s.%n", url);
+            for (Iterator<DumperFile> iter = dumperFiles.iterator(); iter.hasNext(); ) {
+                DumperFile dumperFile = iter.next();
+                dumperFile.close();
+                iter.remove();
+            }
+            System.out.printf("Closing JMX connections for %s.%n", url);
+            closeConnectors();
+        } catch (Throwable t) {
+            completer.completeExceptionally(t);
+        }
+        completer.countDown();
+    }
+
+    private static void shutdownAll(Collection<JmxDumper> dumpers,
+                                    ScheduledExecutorService scheduler,
+                                    ExecutorService workers) throws Exception {
+        for (JmxDumper dumper : dumpers) {
+            dumper.shutdown();
+        }
+        System.out.println("Shutting down executor services.");
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.DAYS);
+        workers.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    private static void reportLatency(Map<String, JmxDumper> dumpers) {
+        JmxLatencyStats total = new JmxLatencyStats();
+        for (Map.Entry<String, JmxDumper> entry : dumpers.entrySet()) {
+            JmxLatencyStats stats = new JmxLatencyStats();
+            entry.getValue().stats.drainTo(stats);
+            System.out.printf("** %s: %s%n", entry.getKey(), stats);
+            stats.drainTo(total);
+        }
+        System.out.printf("** All endpoints: %s%n", total);
+    }
+
     public static void main(String[] args) throws Exception {
         ArgumentParser parser = ArgumentParsers.newFor("jmx-dumper").
             addHelp(true).build().
-            description("Periodically dumps JMX state to comma-separated files.");
+            description("Periodically dumps JMX state to files.");
 
         parser.addArgument("config_path")
             .action(store())
@@ -438,28 +882,31 @@ public final class JmxDumper {
 
         JmxDumpersConfig dumpersConfig = JSON_SERDE.
             readValue(new File(configPath), JmxDumpersConfig.class);
+        if (dumpersConfig.map().isEmpty()) {
+            System.out.printf("No DumperConfig entries found %s%n", configPath);
+            System.exit(0);
+        }
+        int numConnections = 0;
+        for (JmxDumperConfig dumperConfig : dumpersConfig.map().values()) {
+            numConnections += dumperConfig.connections();
+        }
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            CastleUtil.createThreadFactory("JmxDumperScheduler", true));
+        final ExecutorService workers = Executors.newFixedThreadPool(numConnections,
+            CastleUtil.createThreadFactory("JmxDumperWorker%d", true));
         final Completer completer = new Completer(dumpersConfig.map().size());
-        Map<String, JmxDumper> dumpersMap = new HashMap<>();
+        final Map<String, JmxDumper> dumpersMap = new TreeMap<>();
         for (Map.Entry<String, JmxDumperConfig> entry : dumpersConfig.map().entrySet()) {
-            dumpersMap.put(entry.getKey(),
-                new JmxDumper(entry.getKey(), entry.getValue(), completer));
+            dumpersMap.put(entry.getKey(), new JmxDumper(entry.getKey(), entry.getValue(),
+                completer, scheduler, workers));
         }
         final Collection<JmxDumper> dumpers = Collections.unmodifiableCollection(dumpersMap.values());
-        if (dumpers.isEmpty()) {
-            System.out.printf("No DumperConfig entries found %s%n", configPath);
-            System.exit(0);
-        }
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
                 System.out.println("Running JmxDumper shutdown hook.");
                 try {
-                    for (JmxDumper dumper : dumpers) {
-                        dumper.beginShutdown();
-                    }
-                    for (JmxDumper dumper : dumpers) {
-                        dumper.executorService.awaitTermination(1, TimeUnit.DAYS);
-                    }
+                    shutdownAll(dumpers, scheduler, workers);
                 } catch (Exception e) {
                     System.out.println("Got exception while running JmxDumper shutdown hook: " +
                         CastleUtil.fullStackTrace(e));
@@ -469,15 +916,12 @@ public final class JmxDumper {
         for (JmxDumper dumper : dumpers) {
             dumper.start();
         }
+        scheduler.scheduleAtFixedRate(() -> reportLatency(dumpersMap),
+            LATENCY_REPORT_PERIOD_MS, LATENCY_REPORT_PERIOD_MS, TimeUnit.MILLISECONDS);
         try {
             completer.await();
         } finally {
-            for (JmxDumper dumper : dumpers) {
-                dumper.beginShutdown();
-            }
-            for (JmxDumper dumper : dumpers) {
-                dumper.executorService.awaitTermination(1, TimeUnit.DAYS);
-            }
+            shutdownAll(dumpers, scheduler, workers);
         }
     }
 };
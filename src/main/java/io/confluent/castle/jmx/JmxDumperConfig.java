@@ -29,21 +29,52 @@ import java.util.List;
 public final class JmxDumperConfig {
     private final static int DEFAULT_PERIOD_MS = 1000;
 
+    private final static int DEFAULT_DISCOVERY_PERIOD_MS = 30000;
+
+    private final static int DEFAULT_CONNECTIONS = 4;
+
     private final int periodMs;
+    private final int discoveryPeriodMs;
+    private final int connections;
     private final List<JmxFileConfig> files;
 
     @JsonCreator
     public JmxDumperConfig(@JsonProperty("periodMs") int periodMs,
+                           @JsonProperty("discoveryPeriodMs") int discoveryPeriodMs,
+                           @JsonProperty("connections") int connections,
                            @JsonProperty("files") List<JmxFileConfig> files) {
         this.periodMs = (periodMs <= 0) ? DEFAULT_PERIOD_MS : periodMs;
+        this.discoveryPeriodMs = (discoveryPeriodMs <= 0) ?
+            DEFAULT_DISCOVERY_PERIOD_MS : discoveryPeriodMs;
+        this.connections = (connections <= 0) ? DEFAULT_CONNECTIONS : connections;
         this.files = (files == null) ? Collections.emptyList() : new ArrayList<>(files);
     }
 
+    /**
+     * How often to sample, for files which do not set their own periodMs.
+     */
     @JsonProperty
     public int periodMs() {
         return periodMs;
     }
 
+    /**
+     * How often to look for new MBeans which match the object name patterns.
+     */
+    @JsonProperty
+    public int discoveryPeriodMs() {
+        return discoveryPeriodMs;
+    }
+
+    /**
+     * How many JMX connections to open to the endpoint.  This bounds how many
+     * MBeans are fetched at once.
+     */
+    @JsonProperty
+    public int connections() {
+        return connections;
+    }
+
     @JsonProperty
     public List<JmxFileConfig> files() {
         return files;
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * Converts a columnar JMX file into a comma-separated file.
+ */
+public final class JmxExport {
+    /**
+     * Copy every row of a columnar file to a writer.
+     *
+     * @param columns       The names of all the columns in the file, which can
+     *                      be found with JmxColumnarReader#scanColumns.  Rows
+     *                      written before a column was added have no value for it.
+     * @return              The number of rows copied.
+     */
+    public static long export(List<String> columns, JmxColumnarReader reader,
+                              JmxFileWriter writer) throws Exception {
+        writer.writeHeader(columns);
+        Object[] values = new Object[columns.size()];
+        long numRows = 0;
+        while (reader.next()) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = reader.value(i);
+            }
+            writer.writeRow(reader.timeMs(), values);
+            numRows++;
+        }
+        return numRows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("jmx-export").
+            addHelp(true).build().
+            description("Converts a columnar JMX file into a comma-separated file.");
+
+        parser.addArgument("input_path")
+            .action(store())
+            .type(String.class)
+            .required(true)
+            .dest("input_path")
+            .metavar("INPUT_PATH")
+            .help("The columnar file to read.");
+
+        parser.addArgument("--output", "-o")
+            .action(store())
+            .type(String.class)
+            .required(false)
+            .dest("output_path")
+            .metavar("OUTPUT_PATH")
+            .help("The comma-separated file to write.  If this is not set, we write to stdout.");
+
+        Namespace res = parser.parseArgsOrFail(args);
+        String inputPath = res.getString("input_path");
+        String outputPath = res.getString("output_path");
+
+        List<String> columns;
+        try (InputStream inputStream = new FileInputStream(inputPath);
+             JmxColumnarReader reader = new JmxColumnarReader(inputStream)) {
+            columns = new ArrayList<>(reader.scanColumns());
+        }
+        try (InputStream inputStream = new FileInputStream(inputPath);
+             JmxColumnarReader reader = new JmxColumnarReader(inputStream);
+             OutputStream outputStream = (outputPath == null) ?
+                 System.out : new FileOutputStream(outputPath);
+             JmxCsvWriter writer = new JmxCsvWriter(outputStream)) {
+            long numRows = export(columns, reader, writer);
+            if (outputPath != null) {
+                System.out.printf("Wrote %d rows to %s%n", numRows, outputPath);
+            }
+        }
+    }
+};
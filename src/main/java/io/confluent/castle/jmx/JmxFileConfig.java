@@ -25,13 +25,28 @@ import java.util.Collections;
 import java.util.List;
 
 public final class JmxFileConfig {
+    public final static String CSV_FORMAT = "csv";
+
+    public final static String COLUMNAR_FORMAT = "columnar";
+
+    private final static int DEFAULT_BLOCK_ROWS = 256;
+
     private final String path;
+    private final String format;
+    private final int periodMs;
+    private final int blockRows;
     private final List<JmxObjectConfig> objects;
 
     @JsonCreator
     public JmxFileConfig(@JsonProperty("path") String path,
+                         @JsonProperty("format") String format,
+                         @JsonProperty("periodMs") int periodMs,
+                         @JsonProperty("blockRows") int blockRows,
                          @JsonProperty("objects") List<JmxObjectConfig> objects) {
         this.path = (path == null) ? "" : path;
+        this.format = (format == null) ? CSV_FORMAT : format;
+        this.periodMs = Math.max(0, periodMs);
+        this.blockRows = (blockRows <= 0) ? DEFAULT_BLOCK_ROWS : blockRows;
         this.objects = (objects == null) ? Collections.emptyList() : new ArrayList<>(objects);
     }
 
@@ -40,6 +55,32 @@ public final class JmxFileConfig {
         return path;
     }
 
+    /**
+     * The output format: either "csv" or "columnar".
+     */
+    @JsonProperty
+    public String format() {
+        return format;
+    }
+
+    /**
+     * How often to sample the objects in this file, or 0 to use the periodMs
+     * of the dumper.
+     */
+    @JsonProperty
+    public int periodMs() {
+        return periodMs;
+    }
+
+    /**
+     * The number of rows in each block of a columnar file.  Rows are kept in
+     * memory until their block is full, or the file is closed.
+     */
+    @JsonProperty
+    public int blockRows() {
+        return blockRows;
+    }
+
     @JsonProperty
     public List<JmxObjectConfig> objects() {
         return objects;
@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes JMX samples to a file.
+ */
+public interface JmxFileWriter extends AutoCloseable {
+    /**
+     * Write the column names.  This must be called once, before any rows are written.
+     *
+     * @param columns       The names of the attribute columns.  The time column
+     *                      is not included.
+     */
+    void writeHeader(List<String> columns) throws IOException;
+
+    /**
+     * Add more columns after the header has been written.  Rows written
+     * afterwards have values for the new columns after the existing ones.
+     *
+     * @param columns       The names of the new columns.
+     */
+    void addColumns(List<String> columns) throws IOException;
+
+    /**
+     * Write a row of samples.
+     *
+     * @param timeMs        The time the samples were taken, in milliseconds.
+     * @param values        The attribute values, one per column.  A null
+     *                      value means that there was no value.
+     */
+    void writeRow(long timeMs, Object[] values) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+/**
+ * Tracks how long samples take, from the instant they were scheduled for until
+ * their rows have been written.
+ */
+final class JmxLatencyStats {
+    private long samples = 0;
+    private long totalLatencyMs = 0;
+    private long maxLatencyMs = 0;
+    private long skipped = 0;
+
+    synchronized void record(long latencyMs) {
+        samples++;
+        totalLatencyMs += latencyMs;
+        maxLatencyMs = Math.max(maxLatencyMs, latencyMs);
+    }
+
+    /**
+     * Record instants which were skipped because sampling fell behind.
+     */
+    synchronized void recordSkipped(long count) {
+        skipped += count;
+    }
+
+    /**
+     * Add our counts to another JmxLatencyStats object, and reset them.
+     */
+    synchronized void drainTo(JmxLatencyStats other) {
+        synchronized (other) {
+            other.samples += samples;
+            other.totalLatencyMs += totalLatencyMs;
+            other.maxLatencyMs = Math.max(other.maxLatencyMs, maxLatencyMs);
+            other.skipped += skipped;
+        }
+        samples = 0;
+        totalLatencyMs = 0;
+        maxLatencyMs = 0;
+        skipped = 0;
+    }
+
+    synchronized long samples() {
+        return samples;
+    }
+
+    synchronized long maxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    synchronized long skipped() {
+        return skipped;
+    }
+
+    synchronized double averageLatencyMs() {
+        return (samples == 0) ? 0 : ((double) totalLatencyMs) / samples;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d samples, average latency %.1f ms, maximum %d ms, %d skipped",
+            samples, averageLatencyMs(), maxLatencyMs, skipped);
+    }
+}
@@ -24,6 +24,8 @@ import javax.management.ObjectName;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public final class JmxObjectConfig {
     private final String name;
@@ -59,5 +61,41 @@ public final class JmxObjectConfig {
     ObjectName objectName() {
         return objectName;
     }
+
+    /**
+     * Returns true if the name is a pattern, such as
+     * "kafka.log:type=Log,name=Size,topic=*,partition=*", which is resolved
+     * against the MBeans which exist at the time.
+     */
+    boolean isPattern() {
+        return objectName.isPattern();
+    }
+
+    /**
+     * Get the short name for an MBean which matched this pattern.  The short
+     * name is followed by the key properties which the pattern left open, in
+     * sorted order.  For example, "LogSize[partition=0,topic=foo]".
+     */
+    String instanceShortName(ObjectName instance) {
+        StringBuilder bld = new StringBuilder(shortName);
+        String prefix = "[";
+        if (objectName.isDomainPattern()) {
+            bld.append(prefix).append(instance.getDomain());
+            prefix = ",";
+        }
+        TreeMap<String, String> properties = new TreeMap<>(instance.getKeyPropertyList());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            String key = entry.getKey();
+            if ((objectName.getKeyProperty(key) == null) ||
+                    objectName.isPropertyValuePattern(key)) {
+                bld.append(prefix).append(key).append("=").append(entry.getValue());
+                prefix = ",";
+            }
+        }
+        if (!prefix.equals("[")) {
+            bld.append("]");
+        }
+        return bld.toString();
+    }
 }
 
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * A timer wheel which finds the items to sample at each instant.
+ *
+ * Each item is sampled at the multiples of its period since the epoch, so
+ * samples line up with the wall clock and do not drift.  The wheel's tick is
+ * the greatest common divisor of the periods.  It has one slot per tick, up to
+ * the least common multiple of the periods, after which the pattern repeats.
+ * Each slot holds the items which are due at that tick.  Slots which are due
+ * for the same items share one list.
+ */
+final class JmxSampleWheel<T> {
+    /**
+     * The maximum number of slots.  Periods such as 999 and 1000 ms would need a
+     * slot for every millisecond of a 999 second cycle.
+     */
+    static final int MAX_SLOTS = 65536;
+
+    private final long tickMs;
+    private final List<List<T>> slots;
+
+    /**
+     * For each slot, the number of ticks until the next slot with items in it.
+     */
+    private final int[] distances;
+
+    JmxSampleWheel(List<T> items, ToIntFunction<T> periodMs) {
+        if (items.isEmpty()) {
+            throw new RuntimeException("There is nothing to sample.");
+        }
+        long tick = 0;
+        for (T item : items) {
+            int period = periodMs.applyAsInt(item);
+            if (period <= 0) {
+                throw new RuntimeException("Invalid sampling period " + period + " for " + item);
+            }
+            tick = gcd(tick, period);
+        }
+        long numSlots = 1;
+        for (T item : items) {
+            long periodTicks = periodMs.applyAsInt(item) / tick;
+            numSlots = (numSlots / gcd(numSlots, periodTicks)) * periodTicks;
+            if (numSlots > MAX_SLOTS) {
+                throw new RuntimeException("The sampling periods are too unrelated: sampling " +
+                    "them all would need a cycle of more than " + MAX_SLOTS + " ticks of " +
+                    tick + " ms.  Try using periods which are multiples of each other.");
+            }
+        }
+        this.tickMs = tick;
+        this.slots = new ArrayList<>((int) numSlots);
+        Map<List<T>, List<T>> distinct = new LinkedHashMap<>();
+        for (int slot = 0; slot < numSlots; slot++) {
+            List<T> due = new ArrayList<>();
+            for (T item : items) {
+                if ((slot % (periodMs.applyAsInt(item) / tick)) == 0) {
+                    due.add(item);
+                }
+            }
+            List<T> prev = distinct.putIfAbsent(due, due);
+            slots.add((prev == null) ? due : prev);
+        }
+        // Slot 0 is due for every item, so there is always a slot to find.
+        this.distances = new int[(int) numSlots];
+        int distance = 0;
+        for (int slot = (int) numSlots - 1; slot >= 0; slot--) {
+            distance = slots.get(slot).isEmpty() ? distance + 1 : 0;
+            distances[slot] = distance;
+        }
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    long tickMs() {
+        return tickMs;
+    }
+
+    int numSlots() {
+        return slots.size();
+    }
+
+    /**
+     * Find the first instant after the given time at which some item is due.
+     */
+    long nextInstant(long afterMs) {
+        long instant = (Math.floorDiv(afterMs, tickMs) + 1) * tickMs;
+        return instant + (distances[slot(instant)] * tickMs);
+    }
+
+    /**
+     * Get the items which are due at an instant.  Instants which are due for
+     * the same items return the same list instance, which callers must not modify.
+     */
+    List<T> due(long instantMs) {
+        return slots.get(slot(instantMs));
+    }
+
+    /**
+     * Get every distinct list which due() can return.
+     */
+    Collection<List<T>> dueLists() {
+        Map<List<T>, Boolean> lists = new IdentityHashMap<>();
+        for (List<T> slot : slots) {
+            if (!slot.isEmpty()) {
+                lists.put(slot, true);
+            }
+        }
+        return lists.keySet();
+    }
+
+    private int slot(long instantMs) {
+        return (int) Math.floorMod(Math.floorDiv(instantMs, tickMs), (long) slots.size());
+    }
+}
@@ -20,14 +20,19 @@ package io.confluent.castle.role;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.confluent.castle.action.Action;
+import io.confluent.castle.action.AgentStartAction;
+import io.confluent.castle.action.AwsBakeImageAction;
 import io.confluent.castle.action.AwsDestroyAction;
 import io.confluent.castle.action.AwsInitAction;
 import io.confluent.castle.action.CopyAdditionalFilesAction;
 import io.confluent.castle.action.DestroyNodesAction;
 import io.confluent.castle.action.SaveLogsAction;
 import io.confluent.castle.action.SourceSetupAction;
+import io.confluent.castle.action.StorageSetupAction;
 import io.confluent.castle.action.UplinkCheckAction;
+import io.confluent.castle.cloud.Ec2BlockDevice;
 import io.confluent.castle.cloud.Ec2Cloud;
+import io.confluent.castle.cloud.Ec2InstanceSpec;
 import io.confluent.castle.cloud.Ec2Settings;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
@@ -56,9 +61,9 @@ public class AwsNodeRole implements Role, UplinkRole {
     private final String securityGroup;
 
     /**
-     * Configures the AWS image ID to use.
+     * Configures the AWS image ID to use.  Protected by the object lock.
      */
-    private final String imageId;
+    private String imageId;
 
     /**
      * Configures the AWS instance type to use.
@@ -89,6 +94,46 @@ public class AwsNodeRole implements Role, UplinkRole {
      */
     private final boolean internal;
 
+    /**
+     * The EC2 placement group to launch the instance in, or the empty string
+     * if there is none.  A cluster placement group keeps the nodes of a
+     * cluster on the same low-latency network.
+     */
+    private final String placementGroup;
+
+    /**
+     * The VPC subnet to launch the instance in, or the empty string to use
+     * the default.  If this is set, securityGroup must be a security group ID
+     * rather than a name.
+     */
+    private final String subnetId;
+
+    /**
+     * Configures whether the instance should be EBS optimized.
+     * Defaults to false.
+     */
+    private final boolean ebsOptimized;
+
+    /**
+     * EBS volumes to attach to the instance.
+     */
+    private final List<Ec2BlockDevice> blockDevices;
+
+    /**
+     * Configures whether to format the node's unused block devices, such as
+     * the volumes in blockDevices or NVMe instance store devices, and mount
+     * them on the Kafka data directory.  Defaults to false.
+     */
+    private final boolean mountOplogs;
+
+    /**
+     * Configures whether to keep instances in a warm pool.  If this is true,
+     * destroying the node stops the instance instead of terminating it, and
+     * starting the node reuses a matching stopped instance if there is one.
+     * Defaults to false.
+     */
+    private final boolean pool;
+
     /**
      * Configures the private DNS address of a node, or the empty string
      * if there is none yet.  Protected by the object lock.
@@ -126,6 +171,12 @@ public class AwsNodeRole implements Role, UplinkRole {
                        @JsonProperty("sshUser") String sshUser,
                        @JsonProperty("sshPort") int sshPort,
                        @JsonProperty("internal") boolean internal,
+                       @JsonProperty("placementGroup") String placementGroup,
+                       @JsonProperty("subnetId") String subnetId,
+                       @JsonProperty("ebsOptimized") boolean ebsOptimized,
+                       @JsonProperty("blockDevices") List<Ec2BlockDevice> blockDevices,
+                       @JsonProperty("mountOplogs") boolean mountOplogs,
+                       @JsonProperty("pool") boolean pool,
                        @JsonProperty("privateDns") String privateDns,
                        @JsonProperty("publicDns") String publicDns,
                        @JsonProperty("instanceId") String instanceId,
@@ -139,6 +190,13 @@ public class AwsNodeRole implements Role, UplinkRole {
         this.sshUser = sshUser == null ? "" : sshUser;
         this.sshPort = sshPort;
         this.internal = internal;
+        this.placementGroup = placementGroup == null ? "" : placementGroup;
+        this.subnetId = subnetId == null ? "" : subnetId;
+        this.ebsOptimized = ebsOptimized;
+        this.blockDevices = blockDevices == null ? Collections.emptyList() :
+            Collections.unmodifiableList(new ArrayList<>(blockDevices));
+        this.mountOplogs = mountOplogs;
+        this.pool = pool;
         this.privateDns = privateDns == null ? "" : privateDns;
         this.publicDns = publicDns == null ? "" : publicDns;
         this.instanceId = instanceId == null ? "" : instanceId;
@@ -158,10 +216,14 @@ public class AwsNodeRole implements Role, UplinkRole {
     }
 
     @JsonProperty
-    public String imageId() {
+    public synchronized String imageId() {
         return imageId;
     }
 
+    public synchronized void setImageId(String imageId) {
+        this.imageId = imageId;
+    }
+
     @JsonProperty
     public String instanceType() {
         return instanceType;
@@ -187,6 +249,36 @@ public class AwsNodeRole implements Role, UplinkRole {
         return internal;
     }
 
+    @JsonProperty
+    public String placementGroup() {
+        return placementGroup;
+    }
+
+    @JsonProperty
+    public String subnetId() {
+        return subnetId;
+    }
+
+    @JsonProperty
+    public boolean ebsOptimized() {
+        return ebsOptimized;
+    }
+
+    @JsonProperty
+    public List<Ec2BlockDevice> blockDevices() {
+        return blockDevices;
+    }
+
+    @JsonProperty
+    public boolean mountOplogs() {
+        return mountOplogs;
+    }
+
+    @JsonProperty
+    public boolean pool() {
+        return pool;
+    }
+
     @JsonProperty
     public synchronized String privateDns() {
         return privateDns;
@@ -227,11 +319,16 @@ public class AwsNodeRole implements Role, UplinkRole {
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
+        actions.add(new AwsBakeImageAction(nodeName, this));
         actions.add(new AwsDestroyAction(nodeName, this));
+        actions.add(new AgentStartAction(nodeName));
         actions.add(new AwsInitAction(nodeName, this));
         actions.add(new DestroyNodesAction(nodeName));
         actions.add(new SaveLogsAction(nodeName));
         actions.add(new SourceSetupAction(nodeName));
+        if (mountOplogs) {
+            actions.add(new StorageSetupAction(nodeName));
+        }
         actions.add(new UplinkCheckAction(nodeName));
         if (!additionalFiles.isEmpty()) {
             actions.add(new CopyAdditionalFilesAction(nodeName, additionalFiles));
@@ -247,16 +344,31 @@ public class AwsNodeRole implements Role, UplinkRole {
         }
     }
 
-    @Override
-    public Uplink createUplink(CastleCluster cluster, CastleNode node) {
-        Ec2Settings settings = new Ec2Settings(keyPair, securityGroup, region);
-        Ec2Cloud cloud = cluster.cloudCache().getOrCreate(settings.toString(),
+    /**
+     * Get the spec of the EC2 instance to create for this role.
+     */
+    public Ec2InstanceSpec instanceSpec() {
+        return new Ec2InstanceSpec(instanceType, imageId(), placementGroup, subnetId,
+            ebsOptimized, blockDevices);
+    }
+
+    /**
+     * Get the EC2 cloud for this role's settings, creating it if needed.
+     */
+    public Ec2Cloud cloud(CastleCluster cluster) {
+        Ec2Settings settings = new Ec2Settings(keyPair, securityGroup, region,
+            cluster.env().fakeEc2Settings());
+        return cluster.cloudCache().getOrCreate(settings.toString(),
             new Function<Void, Ec2Cloud>() {
                 @Override
                 public Ec2Cloud apply(Void v) {
-                    return new Ec2Cloud(settings);
+                    return new Ec2Cloud(settings, cluster.clusterLog());
                 }
             });
-        return new Ec2Uplink(this, cluster, node, cloud);
+    }
+
+    @Override
+    public Uplink createUplink(CastleCluster cluster, CastleNode node) {
+        return new Ec2Uplink(this, cluster, node, cloud(cluster));
     }
 };
@@ -18,14 +18,18 @@
 package io.confluent.castle.role;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.confluent.castle.action.Action;
+import io.confluent.castle.action.AgentStartAction;
 import io.confluent.castle.action.CopyAdditionalFilesAction;
 import io.confluent.castle.action.DestroyNodesAction;
+import io.confluent.castle.action.DockerCommitImageAction;
 import io.confluent.castle.action.DockerDestroyAction;
 import io.confluent.castle.action.DockerInitAction;
 import io.confluent.castle.action.UplinkCheckAction;
 import io.confluent.castle.cloud.DockerCloud;
+import io.confluent.castle.cloud.DockerResources;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.uplink.DockerUplink;
@@ -37,6 +41,9 @@ import java.util.Collections;
 import java.util.List;
 import java.util.function.Function;
 
+// Older cluster files may still contain the ssh settings which we used before
+// switching to docker exec.
+@JsonIgnoreProperties({"sshPort", "sshIdentityPath"})
 public class DockerNodeRole implements Role, UplinkRole {
     /**
      * The Docker image ID to use.
@@ -50,9 +57,15 @@ public class DockerNodeRole implements Role, UplinkRole {
     private final String dockerUser;
 
     /**
-     * The ssh port to use.
+     * The resources which the container may use.
      */
-    private int sshPort;
+    private final DockerResources resources;
+
+    /**
+     * True if we should save each container as an image once it has been set
+     * up, and start later containers with the same setup from that image.
+     */
+    private final boolean cacheImages;
 
     /**
      * The docker container name.
@@ -61,10 +74,10 @@ public class DockerNodeRole implements Role, UplinkRole {
     private String containerName;
 
     /**
-     * The ssh identity file path.
-     * If this is not set, an empty string will be used.
+     * The CPUs which the container is pinned to.
+     * If the container is not pinned, an empty string will be used.
      */
-    private String sshIdentityPath;
+    private String cpuset;
 
     /**
      * Additional files to copy into the docker image.
@@ -74,15 +87,17 @@ public class DockerNodeRole implements Role, UplinkRole {
     @JsonCreator
     public DockerNodeRole(@JsonProperty("imageId") String imageId,
                           @JsonProperty("dockerUser") String dockerUser,
-                          @JsonProperty("sshPort") int sshPort,
+                          @JsonProperty("resources") DockerResources resources,
+                          @JsonProperty("cacheImages") boolean cacheImages,
                           @JsonProperty("containerName") String containerName,
-                          @JsonProperty("sshIdentityPath") String sshIdentityPath,
+                          @JsonProperty("cpuset") String cpuset,
                           @JsonProperty("additionalFiles") List<AdditionalFile> additionalFiles) {
         this.imageId = imageId == null ? "" : imageId;
         this.dockerUser = dockerUser == null ? "" : dockerUser;
-        this.sshPort = sshPort < 0 ? 0 : sshPort;
+        this.resources = resources == null ? DockerResources.DEFAULT : resources;
+        this.cacheImages = cacheImages;
         this.containerName = containerName == null ? "" : containerName;
-        this.sshIdentityPath = sshIdentityPath == null ? "" : sshIdentityPath;
+        this.cpuset = cpuset == null ? "" : cpuset;
         this.additionalFiles = additionalFiles == null ? Collections.emptyList() :
             Collections.unmodifiableList(new ArrayList<>(additionalFiles));
     }
@@ -98,12 +113,13 @@ public class DockerNodeRole implements Role, UplinkRole {
     }
 
     @JsonProperty
-    public synchronized int sshPort() {
-        return sshPort;
+    public DockerResources resources() {
+        return resources;
     }
 
-    public synchronized void setSshPort(int sshPort) {
-        this.sshPort = sshPort;
+    @JsonProperty
+    public boolean cacheImages() {
+        return cacheImages;
     }
 
     @JsonProperty
@@ -116,12 +132,12 @@ public class DockerNodeRole implements Role, UplinkRole {
     }
 
     @JsonProperty
-    public synchronized String sshIdentityPath() {
-        return sshIdentityPath;
+    public synchronized String cpuset() {
+        return cpuset;
     }
 
-    public synchronized void setSshIdentityPath(String sshIdentityPath) {
-        this.sshIdentityPath = sshIdentityPath;
+    public synchronized void setCpuset(String cpuset) {
+        this.cpuset = cpuset;
     }
 
     @JsonProperty
@@ -133,7 +149,9 @@ public class DockerNodeRole implements Role, UplinkRole {
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
         actions.add(new DestroyNodesAction(nodeName));
+        actions.add(new DockerCommitImageAction(nodeName, this));
         actions.add(new DockerDestroyAction(nodeName, this));
+        actions.add(new AgentStartAction(nodeName));
         actions.add(new DockerInitAction(nodeName, this));
         actions.add(new UplinkCheckAction(nodeName));
         if (!additionalFiles.isEmpty()) {
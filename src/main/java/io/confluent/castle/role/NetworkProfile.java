@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.role;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The characteristics of an emulated network link, applied with tc netem.
+ */
+public class NetworkProfile {
+    /**
+     * The one-way delay to add, in milliseconds.
+     */
+    private final double delayMs;
+
+    /**
+     * The random variation in the delay, in milliseconds.
+     */
+    private final double jitterMs;
+
+    /**
+     * The bandwidth limit in megabits per second, or 0 for no limit.
+     */
+    private final double rateMbit;
+
+    /**
+     * The percentage of packets to drop, from 0 to 100.
+     */
+    private final double lossPercent;
+
+    @JsonCreator
+    public NetworkProfile(@JsonProperty("delayMs") double delayMs,
+                          @JsonProperty("jitterMs") double jitterMs,
+                          @JsonProperty("rateMbit") double rateMbit,
+                          @JsonProperty("lossPercent") double lossPercent) {
+        if (delayMs < 0 || jitterMs < 0 || rateMbit < 0) {
+            throw new RuntimeException("Network profile delays and rates must not be negative.");
+        }
+        if (lossPercent < 0 || lossPercent > 100) {
+            throw new RuntimeException("lossPercent must be between 0 and 100.");
+        }
+        this.delayMs = delayMs;
+        this.jitterMs = jitterMs;
+        this.rateMbit = rateMbit;
+        this.lossPercent = lossPercent;
+    }
+
+    @JsonProperty
+    public double delayMs() {
+        return delayMs;
+    }
+
+    @JsonProperty
+    public double jitterMs() {
+        return jitterMs;
+    }
+
+    @JsonProperty
+    public double rateMbit() {
+        return rateMbit;
+    }
+
+    @JsonProperty
+    public double lossPercent() {
+        return lossPercent;
+    }
+
+    /**
+     * Get the arguments to pass to "tc qdisc add ... netem".
+     */
+    public List<String> netemArgs() {
+        List<String> args = new ArrayList<>();
+        args.add("delay");
+        args.add(format(delayMs) + "ms");
+        if (jitterMs > 0) {
+            args.add(format(jitterMs) + "ms");
+        }
+        if (lossPercent > 0) {
+            args.add("loss");
+            args.add(format(lossPercent) + "%");
+        }
+        if (rateMbit > 0) {
+            args.add("rate");
+            args.add(format(rateMbit * 1000) + "kbit");
+        }
+        return args;
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        NetworkProfile other = (NetworkProfile) o;
+        return delayMs == other.delayMs &&
+            jitterMs == other.jitterMs &&
+            rateMbit == other.rateMbit &&
+            lossPercent == other.lossPercent;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(delayMs, jitterMs, rateMbit, lossPercent);
+    }
+};
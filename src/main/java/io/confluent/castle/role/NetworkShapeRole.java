@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.role;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.action.Action;
+import io.confluent.castle.action.NetworkShapeAction;
+import io.confluent.castle.common.RangeExpressionExpander;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Emulates a slower network for the traffic which a node sends.
+ *
+ * This is intended for Docker clusters, where every container shares one
+ * bridge with no added latency.
+ */
+public class NetworkShapeRole implements Role {
+    /**
+     * The profile to use for traffic to nodes which are not listed in links,
+     * or null to leave that traffic alone.
+     */
+    private final NetworkProfile profile;
+
+    /**
+     * Maps destination node names to the profile to use for traffic to them.
+     * Node names can use range expressions, such as "node[0-2]".
+     */
+    private final Map<String, NetworkProfile> links;
+
+    @JsonCreator
+    public NetworkShapeRole(@JsonProperty("profile") NetworkProfile profile,
+                            @JsonProperty("links") Map<String, NetworkProfile> links) {
+        this.profile = profile;
+        this.links = (links == null) ? Collections.emptyMap() :
+            Collections.unmodifiableMap(new TreeMap<>(links));
+    }
+
+    @JsonProperty
+    public NetworkProfile profile() {
+        return profile;
+    }
+
+    @JsonProperty
+    public Map<String, NetworkProfile> links() {
+        return links;
+    }
+
+    /**
+     * Get the link profiles, with the range expressions in the node names expanded.
+     */
+    public Map<String, NetworkProfile> linkProfiles() {
+        Map<String, NetworkProfile> results = new TreeMap<>();
+        for (Map.Entry<String, NetworkProfile> entry : links.entrySet()) {
+            for (String nodeName : RangeExpressionExpander.expand(entry.getKey())) {
+                results.put(nodeName, entry.getValue());
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Collection<Action> createActions(String nodeName) {
+        ArrayList<Action> actions = new ArrayList<>();
+        actions.add(new NetworkShapeAction(nodeName, this));
+        return actions;
+    }
+};
@@ -17,6 +17,7 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.cloud.FakeEc2Settings;
 import io.confluent.castle.common.CastleLog;
 
 import java.io.IOException;
@@ -41,6 +42,14 @@ public class CastleEnvironment {
         return CastleLog.fromFile(workingDirectory, nodeName, true);
     }
 
+    /**
+     * Get the settings for a fake EC2 backend to use in place of the real
+     * EC2 API, or null if we should use the real API.
+     */
+    public FakeEc2Settings fakeEc2Settings() {
+        return null;
+    }
+
     public String workingDirectory() {
         return workingDirectory;
     }
@@ -17,14 +17,18 @@
 
 package io.confluent.castle.uplink;
 
+import io.confluent.castle.action.UbuntuSetupAction;
+import io.confluent.castle.agent.AgentLink;
 import io.confluent.castle.cloud.DockerCloud;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
-import io.confluent.castle.command.SshCommand;
+import io.confluent.castle.command.DockerExecCommand;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.role.AdditionalFile;
 import io.confluent.castle.role.DockerNodeRole;
+import io.confluent.castle.role.UbuntuNodeRole;
 
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
@@ -41,12 +45,16 @@ public class DockerUplink implements Uplink {
 
     private final DockerCloud cloud;
 
+    private final AgentLink agentLink;
+
     public DockerUplink(DockerNodeRole role, CastleCluster cluster, CastleNode node,
                         DockerCloud cloud) {
         this.role = role;
         this.cluster = cluster;
         this.node = node;
         this.cloud = cloud;
+        // docker exec is already cheap, so we don't tunnel to the castle agent.
+        this.agentLink = new AgentLink(cluster, node, this::dockerExecCommand, null);
     }
 
     /**
@@ -54,8 +62,38 @@ public class DockerUplink implements Uplink {
      */
     @Override
     public Command command() {
-        return new SshCommand(node, "localhost", role.dockerUser(),
-            role.sshPort(), role.sshIdentityPath());
+        return agentLink.command();
+    }
+
+    private DockerExecCommand dockerExecCommand() {
+        return new DockerExecCommand(node, role.containerName(), role.dockerUser());
+    }
+
+    public DockerCloud cloud() {
+        return cloud;
+    }
+
+    /**
+     * Get the tag of the cached image for this node.  It identifies the base
+     * image, the setup which is done on top of it, and the additional files
+     * which are copied into it.  The source directories are mounted into each
+     * container, so they are not part of the image.
+     */
+    public String cachedImageTag() {
+        UbuntuNodeRole ubuntuRole = node.getRole(UbuntuNodeRole.class);
+        String setup = (ubuntuRole == null) ? "" :
+            UbuntuSetupAction.setupFingerprint(ubuntuRole);
+        StringBuilder files = new StringBuilder();
+        for (AdditionalFile file : role.additionalFiles()) {
+            files.append(file.local()).append(" -> ").append(file.remote()).append("\n");
+        }
+        return CastleUtil.sha256Hex(role.imageId() + "\n" + role.dockerUser() +
+            "\n" + setup + "\n" + files).substring(0, 16);
+    }
+
+    @Override
+    public AgentLink agentLink() {
+        return agentLink;
     }
 
     @Override
@@ -70,7 +108,7 @@ public class DockerUplink implements Uplink {
 
     @Override
     public boolean canLogin() {
-        return role.sshPort() > 0;
+        return !role.containerName().isEmpty();
     }
 
     @Override
@@ -79,22 +117,32 @@ public class DockerUplink implements Uplink {
             throw new RuntimeException("Can't start node " + node.nodeName() +
                 " because there is already a container name set.");
         }
-        if (role.sshPort() > 0) {
-            throw new RuntimeException("Can't start node " + node.nodeName() +
-                " because there is already an ssh port set.");
-        }
-        if (!role.sshIdentityPath().isEmpty()) {
-            throw new RuntimeException("Can't start node " + node.nodeName() +
-                " because there is already an ssh identity path set.");
-        }
         String containerName = String.format("ducker%02d", node.nodeIndex());
+        String imageId = role.imageId();
+        if (role.cacheImages()) {
+            String cachedImage = DockerCloud.IMAGE_CACHE_REPO + ":" + cachedImageTag();
+            if (cloud.imageExists(node, cachedImage)) {
+                node.log().printf("*** Using cached image %s%n", cachedImage);
+                imageId = cachedImage;
+            }
+        }
         node.log().printf("*** Creating new docker container %s with image ID %s%n",
-            containerName, role.imageId());
-        String containerId = cloud.startup(cluster, node, role, containerName);
+            containerName, imageId);
+        String cpuset = cloud.allocateCpuset(cluster, node, role.resources(), containerName);
+        if (!cpuset.isEmpty()) {
+            node.log().printf("*** Pinning docker container %s to CPU(s) %s%n",
+                containerName, cpuset);
+        }
+        String containerId;
+        try {
+            containerId = cloud.startup(cluster, node, role, containerName, imageId, cpuset);
+        } catch (Exception e) {
+            cloud.releaseCpuset(containerName);
+            throw e;
+        }
         node.log().printf("*** Created a new docker container %s%n", containerId);
         role.setContainerName(containerName);
-        role.setSshPort(cloud.getDockerPort(cluster, node, containerName));
-        role.setSshIdentityPath(cloud.saveSshKeyFile(cluster, node, containerName, role.dockerUser()));
+        role.setCpuset(cpuset);
     }
 
     @Override
@@ -117,13 +165,15 @@ public class DockerUplink implements Uplink {
 
     @Override
     public CompletableFuture<Void> shutdown() throws Exception {
-        if (!role.containerName().isEmpty()) {
-            cloud.shutdown(node, role.containerName());
-            role.setContainerName("");
+        if (role.containerName().isEmpty()) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            CastleUtil.completeNull(future);
+            return future;
         }
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        CastleUtil.completeNull(future);
-        return future;
+        return cloud.shutdown(cluster, node, role.containerName()).thenRun(() -> {
+            role.setContainerName("");
+            role.setCpuset("");
+        });
     }
 
     @Override
@@ -133,10 +183,6 @@ public class DockerUplink implements Uplink {
 
     @Override
     public void close() throws Exception {
-        // nothing to do
-    }
-
-    public void cleanupNetwork() throws Exception {
-        DockerCloud.cleanupNetwork(node);
+        agentLink.close();
     }
 }
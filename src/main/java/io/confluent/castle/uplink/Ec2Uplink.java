@@ -17,6 +17,8 @@
 
 package io.confluent.castle.uplink;
 
+import io.confluent.castle.action.UbuntuSetupAction;
+import io.confluent.castle.agent.AgentLink;
 import io.confluent.castle.cloud.Ec2Cloud;
 import io.confluent.castle.cloud.Ec2InstanceInfo;
 import io.confluent.castle.cluster.CastleCluster;
@@ -24,8 +26,13 @@ import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
 import io.confluent.castle.command.SshCommand;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.role.UbuntuNodeRole;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 
@@ -33,10 +40,12 @@ import java.util.concurrent.CompletableFuture;
  * Represents an uplink to a Docker node.
  */
 public class Ec2Uplink implements Uplink {
-    private final static int DNS_POLL_DELAY_MS = 200;
-
     private final static int SSH_POLL_DELAY_MS = 200;
 
+    private final static int SSH_PROBE_TIMEOUT_MS = 1000;
+
+    private final static int DEFAULT_SSH_PORT = 22;
+
     private final AwsNodeRole role;
 
     private final CastleCluster cluster;
@@ -45,11 +54,14 @@ public class Ec2Uplink implements Uplink {
 
     private final Ec2Cloud cloud;
 
+    private final AgentLink agentLink;
+
     public Ec2Uplink(AwsNodeRole role, CastleCluster cluster, CastleNode node, Ec2Cloud cloud) {
         this.role = role;
         this.cluster = cluster;
         this.node = node;
         this.cloud = cloud;
+        this.agentLink = new AgentLink(cluster, node, this::sshCommand);
     }
 
     /**
@@ -57,7 +69,12 @@ public class Ec2Uplink implements Uplink {
      */
     @Override
     public Command command() {
-        return sshCommand();
+        return agentLink.command();
+    }
+
+    @Override
+    public AgentLink agentLink() {
+        return agentLink;
     }
 
     private SshCommand sshCommand() {
@@ -83,20 +100,47 @@ public class Ec2Uplink implements Uplink {
         return !role.privateDns().isEmpty();
     }
 
+    /**
+     * Get the fingerprint which identifies compatible instances in the warm
+     * pool.  This covers the instance spec, including the image and the
+     * instance type, and the setup which will have been done on the instance.
+     */
+    private String poolFingerprint() {
+        UbuntuNodeRole ubuntuRole = node.getRole(UbuntuNodeRole.class);
+        String setup = (ubuntuRole == null) ? "" :
+            UbuntuSetupAction.setupFingerprint(ubuntuRole);
+        return CastleUtil.sha256Hex(role.instanceSpec() + "\n" + setup);
+    }
+
     @Override
     public void startup() throws Exception {
-        node.log().printf("*** Creating new instance with instance type %s, imageId %s%n",
-            role.instanceType(), role.imageId());
-        String instanceId = cloud.createInstance(role.instanceType(), role.imageId(),
-            node.nodeIndex()).get();
+        String instanceId = "";
+        if (role.pool()) {
+            instanceId = cloud.claimPooledInstance(poolFingerprint()).get();
+            if (!instanceId.isEmpty()) {
+                node.log().printf("*** Reusing pooled instance %s%n", instanceId);
+            }
+        }
+        if (instanceId.isEmpty()) {
+            node.log().printf("*** Creating new instance with instance type %s, imageId %s%n",
+                role.instanceType(), role.imageId());
+            instanceId = cloud.createInstance(role.instanceSpec(), node.nodeIndex()).get();
+        }
         role.setInstanceId(instanceId);
 
-        // Wait for the DNS to be set up.
-        do {
-            if (DNS_POLL_DELAY_MS > 0) {
-                Thread.sleep(DNS_POLL_DELAY_MS);
-            }
-        } while (!checkStartingInstanceDns());
+        // Wait for the instance to be running and have DNS names.
+        node.log().printf("*** Waiting for %s to be running...%n", instanceId);
+        Ec2InstanceInfo info = cloud.awaitRunning(instanceId).get();
+        node.log().printf("*** Got privateDnsName = %s, publicDnsName = %s%n",
+            info.privateDns(), info.publicDns());
+        role.setPrivateDns(info.privateDns());
+        role.setPublicDns(info.publicDns());
+
+        // Wait for the SSH port to accept connections.  This is much cheaper
+        // than trying to log in.
+        while (!checkSshPort()) {
+            Thread.sleep(SSH_POLL_DELAY_MS);
+        }
 
         // Wait for the SSH to work
         do {
@@ -106,21 +150,16 @@ public class Ec2Uplink implements Uplink {
         } while (!checkStartingInstanceSsh());
     }
 
-    private boolean checkStartingInstanceDns() throws Exception {
-        Ec2InstanceInfo info = cloud.describeInstance(role.instanceId()).get();
-        if (info.privateDns().isEmpty()) {
-            node.log().printf("*** Waiting for private DNS name for %s...%n", role.instanceId());
+    private boolean checkSshPort() {
+        int port = (role.sshPort() > 0) ? role.sshPort() : DEFAULT_SSH_PORT;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(role.dns(), port), SSH_PROBE_TIMEOUT_MS);
+            return true;
+        } catch (IOException e) {
+            node.log().printf("*** Waiting for %s:%d to accept connections...%n",
+                role.dns(), port);
             return false;
         }
-        if (info.publicDns().isEmpty()) {
-            node.log().printf("*** Waiting for public DNS name for %s...%n", role.instanceId());
-            return false;
-        }
-        node.log().printf("*** Got privateDnsName = %s, publicDnsName = %s%n",
-            info.privateDns(), info.publicDns());
-        role.setPrivateDns(info.privateDns());
-        role.setPublicDns(info.publicDns());
-        return true;
     }
 
     private boolean checkStartingInstanceSsh() throws Exception {
@@ -162,6 +201,11 @@ public class Ec2Uplink implements Uplink {
 
     @Override
     public CompletableFuture<Void> shutdown() throws Exception {
+        if (role.pool()) {
+            node.log().printf("*** Stopping %s and returning it to the pool.%n",
+                role.instanceId());
+            return cloud.stopInstance(role.instanceId(), poolFingerprint());
+        }
         return cloud.terminateInstance(role.instanceId());
     }
 
@@ -172,6 +216,6 @@ public class Ec2Uplink implements Uplink {
 
     @Override
     public void close() throws Exception {
-        // nothing to do
+        agentLink.close();
     }
 }
@@ -17,6 +17,7 @@
 
 package io.confluent.castle.uplink;
 
+import io.confluent.castle.agent.AgentLink;
 import io.confluent.castle.command.Command;
 
 import java.util.concurrent.CompletableFuture;
@@ -35,6 +36,11 @@ public interface Uplink extends AutoCloseable {
      */
     Command command();
 
+    /**
+     * Get the link to the castle agent running on the node.
+     */
+    AgentLink agentLink();
+
     /**
      * Get the internal DNS address of this node.
      * This is the address which other nodes should use to talk to this node.
@@ -35,6 +35,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -333,4 +334,65 @@ public class ActionSchedulerTest {
         }
         assertEquals(5, concurrentAccessChecker.totalCalls());
     }
+
+    @Test
+    public void testReadinessDelaysDependents() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final AtomicInteger numReadyChecks = new AtomicInteger(0);
+        final AtomicInteger checksBeforeBar = new AtomicInteger(-1);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("foo", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+                return numReadyChecks.incrementAndGet() >= 3;
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("bar", "node1"),
+            new TargetId[] { new TargetId("foo") },
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                checksBeforeBar.set(numReadyChecks.get());
+            }
+        });
+        schedulerBuilder.addTargetNames(Arrays.asList("foo", "bar"));
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        assertEquals(3, checksBeforeBar.get());
+    }
+
+    @Test
+    public void testReadinessTimeout() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("foo", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public boolean ready(CastleCluster cluster, CastleNode node) throws Throwable {
+                return false;
+            }
+
+            @Override
+            public int readinessTimeoutMs() {
+                return 10;
+            }
+        });
+        schedulerBuilder.addTargetName("foo");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+            fail("Expected the scheduler to fail because foo never became ready.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("did not become ready"));
+        }
+    }
 };
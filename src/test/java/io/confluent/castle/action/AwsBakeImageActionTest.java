@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+
+public class AwsBakeImageActionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testImageBaker() throws Exception {
+        CastleClusterSpec spec = JSON_SERDE.readValue("{" +
+            "\"nodes\": {" +
+                "\"node[0-2]\": {\"roleNames\": [\"awsNode\"]}, " +
+                "\"node3\": {\"roleNames\": [\"awsNode\"], " +
+                    "\"rolePatches\": {\"awsNode\": {\"imageId\": \"ami-2\"}}}}, " +
+            "\"roles\": {\"awsNode\": {\"type\": \".AwsNodeRole\", \"imageId\": \"ami-1\", " +
+                "\"keyPair\": \"key\", \"securityGroup\": \"sg\"}}}", CastleClusterSpec.class);
+        CastleCluster cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+        try {
+            // node0 is not running, so it can't make an image.
+            for (String nodeName : new String[] {"node1", "node2", "node3"}) {
+                AwsNodeRole role = cluster.nodes().get(nodeName).getRole(AwsNodeRole.class);
+                role.setPrivateDns(nodeName + ".ec2.internal");
+            }
+            assertEquals("node1", AwsBakeImageAction.imageBaker(cluster, "ami-1").nodeName());
+            assertEquals("node3", AwsBakeImageAction.imageBaker(cluster, "ami-2").nodeName());
+        } finally {
+            cluster.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DaemonStatusCollectorTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testFailuresAndInvalidation() throws Exception {
+        Map<String, CastleNodeSpec> nodes = new HashMap<>();
+        nodes.put("node[0-1]", new CastleNodeSpec(Arrays.asList("mockCloud"), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleCluster cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+        try {
+            final AtomicInteger fetches = new AtomicInteger(0);
+            DaemonStatusCollector collector = new DaemonStatusCollector(node -> {
+                if (fetches.incrementAndGet() == 1) {
+                    throw new RuntimeException("The node is not reachable yet.");
+                }
+                return Collections.singletonMap(CastleDaemon.BROKER,
+                    new DaemonStatus("broker", Arrays.asList(fetches.get()), null));
+            });
+            CastleNode node0 = cluster.nodes().get("node0");
+            CastleNode node1 = cluster.nodes().get("node1");
+            try {
+                collector.status(node0, CastleDaemon.BROKER);
+                fail("Expected the first fetch to fail.");
+            } catch (RuntimeException e) {
+                assertEquals("The node is not reachable yet.", e.getMessage());
+            }
+            // The failure is not stored.
+            assertEquals(Arrays.asList(2), collector.status(node0, CastleDaemon.BROKER).pids());
+            assertEquals(Arrays.asList(2), collector.status(node0, CastleDaemon.BROKER).pids());
+            assertEquals(Arrays.asList(3), collector.status(node1, CastleDaemon.BROKER).pids());
+            // Invalidating one node doesn't affect the others.
+            collector.invalidate(node0);
+            assertEquals(Arrays.asList(4), collector.status(node0, CastleDaemon.BROKER).pids());
+            assertEquals(Arrays.asList(3), collector.status(node1, CastleDaemon.BROKER).pids());
+            assertEquals(4, fetches.get());
+        } finally {
+            cluster.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.role.NetworkProfile;
+import io.confluent.castle.role.NetworkShapeRole;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkShapeActionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private final static NetworkProfile CROSS_AZ = new NetworkProfile(1, 0.5, 0, 0);
+
+    private final static NetworkProfile WAN = new NetworkProfile(40, 5, 100, 0.1);
+
+    @Test
+    public void testNetemArgs() throws Throwable {
+        assertEquals(Arrays.asList("delay", "1ms", "0.5ms"), CROSS_AZ.netemArgs());
+        assertEquals(Arrays.asList("delay", "40ms", "5ms", "loss", "0.1%",
+            "rate", "100000kbit"), WAN.netemArgs());
+    }
+
+    @Test
+    public void testSingleProfile() throws Throwable {
+        String script = NetworkShapeAction.createShapeScript(WAN, Collections.emptyMap());
+        assertTrue(script.contains("tc qdisc del dev $dev root"));
+        assertTrue(script.endsWith("sudo tc qdisc add dev $dev root netem " +
+            "delay 40ms 5ms loss 0.1% rate 100000kbit"));
+        assertTrue(NetworkShapeAction.createShapeScript(null, Collections.emptyMap()).
+            endsWith("echo \"Removed network shaping from $dev.\""));
+    }
+
+    @Test
+    public void testLinkProfiles() throws Throwable {
+        Map<String, NetworkProfile> links = new TreeMap<>();
+        links.put("ducker01", CROSS_AZ);
+        links.put("ducker02", WAN);
+        links.put("ducker03", CROSS_AZ);
+        String script = NetworkShapeAction.createShapeScript(null, links);
+        assertTrue(script.contains("root handle 1: prio bands 3 "));
+        assertTrue(script.contains("parent 1:2 handle 12: netem delay 1ms 0.5ms"));
+        assertTrue(script.contains("parent 1:3 handle 13: netem delay 40ms"));
+        assertTrue(script.contains("getent ahostsv4 ducker03 | awk 'NR == 1 {print $1}') && " +
+            "[ -n \"$ip\" ] && sudo tc filter add dev $dev parent 1: protocol ip prio 1 u32 " +
+            "match ip dst $ip/32 flowid 1:2"));
+        assertFalse(script.contains("parent 1:1 "));
+
+        script = NetworkShapeAction.createShapeScript(WAN,
+            Collections.singletonMap("ducker01", CROSS_AZ));
+        assertTrue(script.contains("root handle 1: prio bands 2 "));
+        assertTrue(script.contains("parent 1:1 handle 10: netem delay 40ms"));
+    }
+
+    @Test
+    public void testLinkNodeRanges() throws Throwable {
+        Map<String, NetworkProfile> links = new HashMap<>();
+        links.put("node[0-1]", CROSS_AZ);
+        links.put("node2", WAN);
+        NetworkShapeRole role = new NetworkShapeRole(null, links);
+        Map<String, NetworkProfile> expected = new TreeMap<>();
+        expected.put("node0", CROSS_AZ);
+        expected.put("node1", CROSS_AZ);
+        expected.put("node2", WAN);
+        assertEquals(expected, role.linkProfiles());
+    }
+}
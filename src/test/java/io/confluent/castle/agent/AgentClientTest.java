@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class AgentClientTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private String secret;
+
+    private CastleAgent agent;
+
+    private Thread agentThread;
+
+    private CastleNode node;
+
+    @Before
+    public void setUp() throws Exception {
+        secret = CastleAgent.generateSecret();
+        agent = new CastleAgent(0, secret);
+        agentThread = new Thread(() -> {
+            try {
+                agent.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        agentThread.start();
+        Map<String, CastleNodeSpec> nodes = new HashMap<>();
+        nodes.put("node0", new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleCluster cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, new CastleClusterSpec(null, nodes, roles));
+        node = cluster.nodes().get("node0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        agent.close();
+        agentThread.join();
+    }
+
+    @Test
+    public void testSlowCallDoesNotBlockOthers() throws Exception {
+        try (AgentClient client = AgentClient.connectLocal(node, agent.localPort(), secret)) {
+            CompletableFuture<AgentResult> slow = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return client.call(AgentOp.exec("sleep 60", null, 1000));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            // Wait for the slow command to start, so that its connection is in use.
+            while (client.call(AgentOp.exec("pgrep -f '^sleep 60$'", null)).check().returnCode() != 0) {
+                Thread.sleep(5);
+            }
+            AgentResult result = client.call(AgentOp.exec("echo hello", null));
+            assertEquals("hello\n", result.stdout());
+            assertFalse(slow.isDone());
+            // The slow command is killed when it reaches its timeout.
+            assertEquals(124, slow.get().returnCode());
+        }
+    }
+
+    @Test
+    public void testWrongSecret() throws Exception {
+        try {
+            AgentClient.connectLocal(node, agent.localPort(), CastleAgent.generateSecret()).close();
+            fail("Expected the agent to reject the wrong secret.");
+        } catch (IOException e) {
+            // Depending on timing, the agent closes the connection either before
+            // or after we send our request.
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.agent;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CastleAgentTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testOpsRoundTrip() throws Exception {
+        List<AgentOp> ops = Arrays.asList(
+            AgentOp.exec("echo hello", null),
+            AgentOp.writeFile("/tmp/foo", new byte[] {1, 2, 3}),
+            AgentOp.http("PUT", "http://localhost:8888/coordinator/task/create", null));
+        String line = new String(CastleAgent.WRITER.writeValueAsBytes(ops), StandardCharsets.UTF_8);
+        assertFalse(line.contains("\n"));
+        List<AgentOp> ops2 = JSON_SERDE.readValue(line, CastleAgent.OPS_TYPE);
+        assertEquals(3, ops2.size());
+        assertEquals(AgentOp.Type.EXEC, ops2.get(0).type());
+        assertEquals("echo hello", ops2.get(0).command());
+        assertEquals(null, ops2.get(0).data());
+        assertEquals("/tmp/foo", ops2.get(1).path());
+        assertArrayEquals(new byte[] {1, 2, 3}, ops2.get(1).data());
+        assertEquals("PUT", ops2.get(2).method());
+        assertEquals("http://localhost:8888/coordinator/task/create", ops2.get(2).url());
+    }
+
+    @Test
+    public void testExec() throws Exception {
+        AgentResult result = CastleAgent.perform(AgentOp.exec("echo foo && echo bar 1>&2 && exit 3", null));
+        assertEquals("", result.error());
+        assertEquals(3, result.returnCode());
+        assertEquals("foo\n", result.stdout());
+        assertEquals("bar\n", result.stderr());
+
+        result = CastleAgent.perform(AgentOp.exec("cat", "quux".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0, result.returnCode());
+        assertEquals("quux", result.stdout());
+    }
+
+    @Test
+    public void testWriteFile() throws Exception {
+        File dir = Files.createTempDirectory("castle-agent-test").toFile();
+        try {
+            File file = new File(new File(dir, "sub"), "file.txt");
+            AgentResult result = CastleAgent.perform(AgentOp.writeFile(file.getAbsolutePath(),
+                "0123456789".getBytes(StandardCharsets.UTF_8)));
+            assertEquals("", result.error());
+            assertEquals("0123456789", new String(Files.readAllBytes(file.toPath()),
+                StandardCharsets.UTF_8));
+        } finally {
+            for (File file : new File(dir, "sub").listFiles()) {
+                file.delete();
+            }
+            new File(dir, "sub").delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testWriteFileLikeRsync() throws Exception {
+        assertEquals(0755, CastleAgent.permissionsToMode(PosixFilePermissions.fromString("rwxr-xr-x")));
+        assertEquals("rw-r-----", PosixFilePermissions.toString(CastleAgent.modeToPermissions(0640)));
+        assertEquals(Paths.get(System.getProperty("user.home"), "foo"),
+            CastleAgent.resolveWritePath("~/foo", "bar"));
+        assertEquals(Paths.get(System.getProperty("user.home"), "foo", "bar"),
+            CastleAgent.resolveWritePath("foo/", "bar"));
+        File dir = Files.createTempDirectory("castle-agent-test").toFile();
+        File sub = new File(dir, "sub");
+        File script = new File(dir, "script.sh");
+        File copy = new File(sub, "script.sh");
+        try {
+            byte[] data = "#!/bin/bash\n".getBytes(StandardCharsets.UTF_8);
+            // A destination ending with a slash is a directory, even if it doesn't exist yet.
+            AgentResult result = CastleAgent.perform(AgentOp.writeFile(sub.getAbsolutePath() + "/",
+                data, "script.sh", 0755));
+            assertEquals("", result.error());
+            assertArrayEquals(data, Files.readAllBytes(copy.toPath()));
+            assertEquals("rwxr-xr-x",
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(copy.toPath())));
+            // An existing directory gets the file inside it.
+            result = CastleAgent.perform(AgentOp.writeFile(dir.getAbsolutePath(),
+                data, "script.sh", 0644));
+            assertEquals("", result.error());
+            assertEquals("rw-r--r--",
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(script.toPath())));
+        } finally {
+            copy.delete();
+            sub.delete();
+            script.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testSecretFile() throws Exception {
+        File dir = Files.createTempDirectory("castle-agent-test").toFile();
+        Path path = new File(dir, "agent.secret").toPath();
+        try {
+            String secret = CastleAgent.generateSecret();
+            assertEquals(64, secret.length());
+            assertFalse(secret.equals(CastleAgent.generateSecret()));
+            CastleAgent.writeSecret(path, secret);
+            assertEquals("rw-------",
+                PosixFilePermissions.toString(Files.getPosixFilePermissions(path)));
+            assertEquals(secret, CastleAgent.readSecret(path));
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-r--r--"));
+            try {
+                CastleAgent.readSecret(path);
+                fail("Expected readSecret to reject a world-readable file.");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("too open"));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            dir.delete();
+        }
+    }
+
+    private static String request(int port, String first, String line) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream output = socket.getOutputStream();
+            output.write((first + "\n" + line + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                StandardCharsets.UTF_8)).readLine();
+        }
+    }
+
+    @Test
+    public void testConnectionsMustSupplySecret() throws Exception {
+        String secret = CastleAgent.generateSecret();
+        CastleAgent agent = new CastleAgent(0, secret);
+        Thread thread = new Thread(() -> {
+            try {
+                agent.run();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        try {
+            String ops = new String(CastleAgent.WRITER.writeValueAsBytes(
+                Collections.singletonList(AgentOp.exec("echo hello", null))), StandardCharsets.UTF_8);
+            assertEquals(null, request(agent.localPort(), "", ops));
+            assertEquals(null, request(agent.localPort(), CastleAgent.generateSecret(), ops));
+            List<AgentResult> results = JSON_SERDE.readValue(
+                request(agent.localPort(), secret, ops), CastleAgent.RESULTS_TYPE);
+            assertEquals(1, results.size());
+            assertEquals("hello\n", results.get(0).stdout());
+        } finally {
+            agent.close();
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CpusetAllocatorTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testParseAndFormat() throws Exception {
+        BitSet cpus = CpusetAllocator.parse("0-3, 6,8-9");
+        assertEquals(7, cpus.cardinality());
+        assertEquals("0-3,6,8-9", CpusetAllocator.format(cpus));
+        assertEquals("", CpusetAllocator.format(CpusetAllocator.parse("")));
+        try {
+            CpusetAllocator.parse("3-1");
+            fail("Expected an invalid range to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("3-1"));
+        }
+    }
+
+    @Test
+    public void testAllocateDisjoint() throws Exception {
+        CpusetAllocator allocator = new CpusetAllocator(8);
+        assertEquals("0-1", allocator.allocate("ducker01", 2));
+        assertEquals("2-4", allocator.allocate("ducker02", 3));
+        allocator.release("ducker01");
+        // The freed CPUs are too few for a contiguous range of three.
+        assertEquals("5-7", allocator.allocate("ducker03", 3));
+        assertEquals("0-1", allocator.allocate("ducker04", 2));
+        try {
+            allocator.allocate("ducker05", 1);
+            fail("Expected allocation to fail when there are no free CPUs.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("0 of 8"));
+        }
+    }
+
+    @Test
+    public void testFragmentedAllocation() throws Exception {
+        CpusetAllocator allocator = new CpusetAllocator(6);
+        allocator.reserve("ducker01", "1,3");
+        assertEquals("4-5", allocator.allocate("ducker02", 2));
+        assertEquals("0,2", allocator.allocate("ducker03", 2));
+        allocator.release("ducker01");
+        assertEquals("1,3", allocator.allocate("ducker04", 2));
+    }
+
+    @Test
+    public void testReserveOverlapping() throws Exception {
+        CpusetAllocator allocator = new CpusetAllocator(4);
+        allocator.reserve("ducker01", "0-1");
+        allocator.reserve("ducker02", "1-2");
+        allocator.release("ducker01");
+        // CPU 1 is still used by ducker02.
+        assertEquals("0,3", allocator.allocate("ducker03", 2));
+    }
+
+    @Test
+    public void testReserveExclusive() throws Exception {
+        CpusetAllocator allocator = new CpusetAllocator(8);
+        // Explicit cpusets are reserved up front, before any node starts.
+        allocator.reserveExclusive("node1", "2-3");
+        allocator.reserveExclusive("node2", "6");
+        assertEquals("0-1", allocator.allocate("ducker01", 2));
+        assertEquals("4-5", allocator.allocate("ducker02", 2));
+        assertEquals("7", allocator.allocate("ducker03", 1));
+        // Releasing a container does not release an explicit cpuset.
+        allocator.release("ducker02");
+        assertEquals("4-5", allocator.allocate("ducker04", 2));
+        try {
+            allocator.reserveExclusive("node3", "1-2");
+            fail("Expected overlapping explicit cpusets to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("overlaps"));
+        }
+        try {
+            allocator.reserveExclusive("node4", "8");
+            fail("Expected a cpuset beyond the last CPU to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("only 8 CPU(s)"));
+        }
+    }
+
+    @Test
+    public void testResourcesHostConfig() throws Exception {
+        DockerResources resources = new DockerResources("", 2, 1.5, "512m", null,
+            Collections.singletonMap("/mnt/logs", "size=1g"),
+            Collections.singletonMap("nofile", "1024:65536"));
+        ObjectNode hostConfig = JSON_SERDE.createObjectNode();
+        resources.applyTo(hostConfig, "2-3");
+        assertEquals("2-3", hostConfig.get("CpusetCpus").asText());
+        assertEquals(1500000000L, hostConfig.get("NanoCpus").asLong());
+        assertEquals(512L * 1024L * 1024L, hostConfig.get("Memory").asLong());
+        assertEquals(1, hostConfig.get("MemorySwappiness").asInt());
+        assertEquals("size=1g", hostConfig.get("Tmpfs").get("/mnt/logs").asText());
+        JsonNode ulimit = hostConfig.get("Ulimits").get(0);
+        assertEquals("nofile", ulimit.get("Name").asText());
+        assertEquals(1024, ulimit.get("Soft").asLong());
+        assertEquals(65536, ulimit.get("Hard").asLong());
+
+        hostConfig = JSON_SERDE.createObjectNode();
+        DockerResources.DEFAULT.applyTo(hostConfig, "");
+        assertFalse(hostConfig.has("CpusetCpus"));
+        assertFalse(hostConfig.has("NanoCpus"));
+        assertEquals(3L * 1024L * 1024L * 1024L, hostConfig.get("Memory").asLong());
+    }
+};
@@ -0,0 +1,136 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.cloud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.confluent.castle.common.CastleUtil;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DockerEngineClientTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testSocketPath() throws Exception {
+        assertEquals("/tmp/docker.sock",
+            DockerEngineClient.socketPath("unix:///tmp/docker.sock"));
+        try {
+            DockerEngineClient.socketPath("tcp://127.0.0.1:2375");
+            fail("Expected socketPath to reject a TCP endpoint");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("tcp://127.0.0.1:2375"));
+        }
+    }
+
+    @Test
+    public void testDockerHost() throws Exception {
+        File dir = Files.createTempDirectory("docker-engine-client-test").toFile();
+        File config = new File(dir, "config.json");
+        File metaDir = Paths.get(dir.getPath(), "contexts", "meta",
+            CastleUtil.sha256Hex("rootless")).toFile();
+        File meta = new File(metaDir, "meta.json");
+        try {
+            Map<String, String> env = new HashMap<>();
+            assertEquals("unix:///var/run/docker.sock",
+                DockerEngineClient.dockerHost(env, dir.toPath()));
+            assertTrue(metaDir.mkdirs());
+            Files.write(meta.toPath(), ("{\"Name\":\"rootless\",\"Endpoints\":" +
+                "{\"docker\":{\"Host\":\"unix:///run/user/1000/docker.sock\"}}}").
+                getBytes(StandardCharsets.UTF_8));
+            Files.write(config.toPath(), "{\"currentContext\":\"rootless\"}".
+                getBytes(StandardCharsets.UTF_8));
+            assertEquals("unix:///run/user/1000/docker.sock",
+                DockerEngineClient.dockerHost(env, dir.toPath()));
+            env.put("DOCKER_CONTEXT", "default");
+            assertEquals("unix:///var/run/docker.sock",
+                DockerEngineClient.dockerHost(env, dir.toPath()));
+            env.put("DOCKER_CONTEXT", "missing");
+            try {
+                DockerEngineClient.dockerHost(env, dir.toPath());
+                fail("Expected dockerHost to fail for a missing context");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().contains("missing"));
+            }
+            env.put("DOCKER_HOST", "tcp://127.0.0.1:2375");
+            assertEquals("tcp://127.0.0.1:2375",
+                DockerEngineClient.dockerHost(env, dir.toPath()));
+        } finally {
+            meta.delete();
+            metaDir.delete();
+            metaDir.getParentFile().delete();
+            metaDir.getParentFile().getParentFile().delete();
+            config.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testParseResponse() throws Exception {
+        DockerEngineClient.Response response = DockerEngineClient.parseResponse(
+            "{\"Id\":\"abc123\",\"Warnings\":[]}\n\nCASTLE_HTTP_STATUS=201");
+        assertTrue(response.ok());
+        assertEquals(201, response.status());
+        assertEquals("abc123", response.body().get("Id").asText());
+
+        response = DockerEngineClient.parseResponse("\nCASTLE_HTTP_STATUS=204");
+        assertTrue(response.ok());
+        assertTrue(response.body().isNull());
+
+        response = DockerEngineClient.parseResponse(
+            "{\"message\":\"No such container: ducker01\"}\n\nCASTLE_HTTP_STATUS=404");
+        assertFalse(response.ok());
+        assertEquals("No such container: ducker01", response.errorMessage());
+    }
+
+    @Test
+    public void testContainerNames() throws Exception {
+        JsonNode containers = JSON_SERDE.readTree("[{\"Names\":[\"/ducker02\"]}," +
+            "{\"Names\":[\"/ducker01\"]}]");
+        assertEquals(new TreeSet<>(Arrays.asList("ducker01", "ducker02")),
+            DockerEngineClient.containerNames(containers));
+    }
+
+    @Test
+    public void testContainerSpec() throws Exception {
+        ObjectNode spec = DockerEngineClient.containerSpec("ducker-ak", "ducker01", "ducknet",
+            Collections.singletonList("/src/kafka:/opt/kafka"));
+        assertEquals("ducker-ak", spec.get("Image").asText());
+        assertEquals("ducker01", spec.get("Hostname").asText());
+        JsonNode hostConfig = spec.get("HostConfig");
+        assertEquals("ducknet", hostConfig.get("NetworkMode").asText());
+        assertEquals("/src/kafka:/opt/kafka", hostConfig.get("Binds").get(0).asText());
+    }
+};
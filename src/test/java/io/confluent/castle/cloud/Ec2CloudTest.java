@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Ec2CloudTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static Ec2Cloud createCloud(FakeEc2Settings fake) throws Exception {
+        return new Ec2Cloud(new Ec2Settings("key", "sg", "", fake),
+            CastleLog.fromDevNull("cluster", false));
+    }
+
+    private static Ec2InstanceSpec spec(String instanceType) {
+        return new Ec2InstanceSpec(instanceType, "ami-1", "", "", false,
+            Collections.emptyList());
+    }
+
+    @Test
+    public void testCreateManyInstances() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(50, 20, 1, 0, 0, 0));
+        try {
+            List<CompletableFuture<String>> creates = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                creates.add(cloud.createInstance(spec("m5.large"), i));
+            }
+            List<CompletableFuture<Ec2InstanceInfo>> watches = new ArrayList<>();
+            for (CompletableFuture<String> create : creates) {
+                watches.add(cloud.awaitRunning(create.get()));
+            }
+            Set<String> instanceIds = new HashSet<>();
+            for (CompletableFuture<Ec2InstanceInfo> watch : watches) {
+                Ec2InstanceInfo info = watch.get();
+                assertFalse(info.privateDns().isEmpty());
+                assertFalse(info.publicDns().isEmpty());
+                instanceIds.add(info.instanceId());
+            }
+            assertEquals(500, instanceIds.size());
+            Collection<Ec2InstanceInfo> all = cloud.describeAllInstances().get();
+            assertEquals(500, all.size());
+            // The describe of all instances is shared until something changes.
+            assertTrue(all == cloud.describeAllInstances().get());
+
+            // Creates are batched, and describes of more than 200 instances
+            // are split into chunks.
+            Map<String, Long> calls = ((FakeEc2) cloud.ec2()).calls();
+            assertTrue("RunInstances calls: " + calls, calls.get("RunInstances") < 10);
+            assertTrue("DescribeInstances calls: " + calls,
+                calls.get("DescribeInstances") >= 3);
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testDescribeAllDuringCreate() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(0, 0, 20, 0, 0, 0));
+        try {
+            // Each instance type needs its own RunInstances call.  The last one
+            // waits for the mutating rate limiter, so the describe below runs
+            // before it.
+            String[] instanceTypes = new String[] {"m5.large", "m5.xlarge", "m5.2xlarge",
+                "m5.4xlarge", "c5.large", "c5.xlarge"};
+            List<CompletableFuture<String>> creates = new ArrayList<>();
+            for (String instanceType : instanceTypes) {
+                creates.add(cloud.createInstance(spec(instanceType), 0));
+            }
+            assertTrue(cloud.describeAllInstances().get().size() < instanceTypes.length);
+            for (CompletableFuture<String> create : creates) {
+                create.get();
+            }
+            // The describe which ran during the creates is no longer shared.
+            assertEquals(instanceTypes.length, cloud.describeAllInstances().get().size());
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testSubnetInstancesGetPublicDns() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(0, 0, 1, 0, 0, 0));
+        try {
+            String instanceId = cloud.createInstance(new Ec2InstanceSpec("m5.large", "ami-1",
+                "", "subnet-1", false, Collections.emptyList()), 0).get();
+            assertFalse(cloud.awaitRunning(instanceId, 60000).get().publicDns().isEmpty());
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testAwaitRunningTimesOut() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(600000, 0, 1, 0, 0, 0));
+        try {
+            String instanceId = cloud.createInstance(spec("m5.large"), 0).get();
+            try {
+                cloud.awaitRunning(instanceId, 10).get();
+                fail("Expected the wait to time out.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage(),
+                    e.getCause().getMessage().contains("it is pending"));
+            }
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testThrottledCallsAreRetried() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(0, 0, 1, 2, 0, 0));
+        try {
+            // Each instance type needs its own RunInstances call.
+            List<CompletableFuture<String>> creates = new ArrayList<>();
+            for (String instanceType : new String[] {"m5.large", "m5.xlarge", "m5.2xlarge"}) {
+                creates.add(cloud.createInstance(spec(instanceType), 0));
+            }
+            for (CompletableFuture<String> create : creates) {
+                assertTrue(create.get().startsWith("i-"));
+            }
+            assertTrue(((FakeEc2) cloud.ec2()).throttles() > 0);
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testCreateFailure() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(0, 0, 1, 0, 0, 1.0));
+        try {
+            cloud.createInstance(spec("m5.large"), 0).get();
+            fail("Expected the create to fail.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonServiceException);
+            assertEquals("InsufficientInstanceCapacity",
+                ((AmazonServiceException) e.getCause()).getErrorCode());
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testWarmPool() throws Exception {
+        Ec2Cloud cloud = createCloud(new FakeEc2Settings(10, 10, 1, 0, 0, 0));
+        try {
+            String instanceId = cloud.createInstance(spec("m5.large"), 0).get();
+            cloud.awaitRunning(instanceId).get();
+            assertEquals("", cloud.claimPooledInstance("abc").get());
+            cloud.stopInstance(instanceId, "abc").get();
+            assertEquals("", cloud.claimPooledInstance("def").get());
+            assertEquals(instanceId, cloud.claimPooledInstance("abc").get());
+            assertEquals("", cloud.claimPooledInstance("abc").get());
+            assertEquals(instanceId, cloud.awaitRunning(instanceId).get().instanceId());
+
+            // Stopping an instance is visible to the next describe of all
+            // instances.  Stopped instances have no DNS names.
+            assertFalse(cloud.describeAllInstances().get().iterator().next().
+                privateDns().isEmpty());
+            cloud.stopInstance(instanceId, "abc").get();
+            assertTrue(cloud.describeAllInstances().get().iterator().next().
+                privateDns().isEmpty());
+        } finally {
+            cloud.close();
+        }
+    }
+
+    @Test
+    public void testFakeEc2FromEnvironment() throws Exception {
+        Map<String, CastleNodeSpec> nodes = new HashMap<>();
+        nodes.put("node[0-1]", new CastleNodeSpec(Collections.singletonList("awsNode"), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("awsNode", JSON_SERDE.readValue("{\"type\": \".AwsNodeRole\", " +
+            "\"keyPair\": \"key\", \"securityGroup\": \"sg\"}", Role.class));
+        CastleCluster cluster = new CastleCluster(
+            new MockCastleEnvironment(new FakeEc2Settings(0, 0, 1, 0, 0, 0)),
+            CastleLog.fromDevNull("cluster", false), null,
+            new CastleClusterSpec(null, nodes, roles));
+        try {
+            AwsNodeRole role = cluster.nodes().get("node0").getRole(AwsNodeRole.class);
+            Ec2Cloud cloud = role.cloud(cluster);
+            assertTrue(cloud.ec2() instanceof FakeEc2);
+            String instanceId = cloud.createInstance(role.instanceSpec(), 0).get();
+            assertEquals(instanceId, cloud.awaitRunning(instanceId).get().instanceId());
+        } finally {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void testAwsNodeRoleUsesFakeEc2FromEnvironment() throws Exception {
+        CastleClusterSpec spec = JSON_SERDE.readValue("{" +
+            "\"nodes\": {\"node0\": {\"roleNames\": [\"awsNode\"]}}, " +
+            "\"roles\": {\"awsNode\": {\"type\": \".AwsNodeRole\", " +
+            "\"keyPair\": \"key\", \"securityGroup\": \"sg\"}}}", CastleClusterSpec.class);
+        CastleCluster cluster = new CastleCluster(
+            new MockCastleEnvironment(new FakeEc2Settings(0, 0, 1, 0, 0, 0)),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+        try {
+            AwsNodeRole role = cluster.nodes().get("node0").getRole(AwsNodeRole.class);
+            Ec2Cloud cloud = role.cloud(cluster);
+            assertTrue(cloud.ec2() instanceof FakeEc2);
+            String instanceId = cloud.createInstance(role.instanceSpec(), 0).get();
+            assertEquals(instanceId, cloud.awaitRunning(instanceId).get().instanceId());
+        } finally {
+            cluster.close();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testBurstAndRefill() throws Exception {
+        RateLimiter limiter = new RateLimiter("test", 0.1, 2, 5, 3, 1000);
+        assertEquals(0, limiter.tryAcquire(1000));
+        assertEquals(0, limiter.tryAcquire(1000));
+        assertEquals(0, limiter.tryAcquire(1000));
+        // The burst is used up.  At 2 calls/s, the next token arrives in 500 ms.
+        assertEquals(500, limiter.tryAcquire(1000));
+        assertEquals(250, limiter.tryAcquire(1250));
+        assertEquals(0, limiter.tryAcquire(1500));
+        assertEquals(4, limiter.requests());
+    }
+
+    @Test
+    public void testAdaptiveRate() throws Exception {
+        RateLimiter limiter = new RateLimiter("test", 0.5, 2, 2.5, 1, 0);
+        limiter.onThrottle();
+        assertEquals(1.0, limiter.rate(), 0.0001);
+        limiter.onThrottle();
+        limiter.onThrottle();
+        assertEquals(0.5, limiter.rate(), 0.0001);
+        assertEquals(3, limiter.throttles());
+        // After being throttled, no tokens are left.
+        assertTrue(limiter.tryAcquire(0) > 0);
+        for (int i = 0; i < 100; i++) {
+            limiter.onSuccess();
+        }
+        assertEquals(2.5, limiter.rate(), 0.0001);
+    }
+};
@@ -56,7 +56,7 @@ public class CastleClusterSpecTest {
         roles.put("trogdorAgent", new TrogdorAgentRole(0, Collections.<String>emptyList()));
         roles.put("zooKeeper", new ZooKeeperRole(0, 0, 0, 0));
         roles.put("trogdorCoordinator", new TrogdorCoordinatorRole(0, Collections.emptyList()));
-        roles.put("dockerNode", new DockerNodeRole(null, null,0, null, null, null));
+        roles.put("dockerNode", new DockerNodeRole(null, null, null, false, null, null, null));
         return new CastleClusterSpec(null, map, roles);
     }
 
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.confluent.castle.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DockerExecCommandTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * Create a command for a container.  Building command lines doesn't
+     * touch the node, so there is no need for one.
+     */
+    private static DockerExecCommand command(String dockerUser) {
+        return new DockerExecCommand(null, "castle-node0", dockerUser);
+    }
+
+    @Test
+    public void testExecCommandLine() {
+        DockerExecCommand command = command("");
+        command.args("-n", "--", "echo", "foo", ">", "/tmp/bar");
+        assertEquals(Arrays.asList("docker", "exec", "-i", "castle-node0",
+            "bash", "-c", "echo foo > /tmp/bar"), command.makeCommandLine(false));
+
+        // Everything after "--" belongs to the command.
+        command.args("--", "-n", "foo");
+        assertEquals(Arrays.asList("docker", "exec", "-i", "castle-node0",
+            "bash", "-c", "-n foo"), command.makeCommandLine(false));
+
+        command = command("castle");
+        command.args("ls", "-l");
+        assertEquals(Arrays.asList("docker", "exec", "-i", "--user", "castle", "castle-node0",
+            "bash", "-c", "ls -l"), command.makeCommandLine(false));
+    }
+
+    @Test
+    public void testLoginShellWithoutCommand() {
+        DockerExecCommand command = command("");
+        command.args();
+        assertEquals(Arrays.asList("docker", "exec", "-i", "castle-node0", "bash", "-l"),
+            command.makeCommandLine(false));
+        command.args("-n", "--");
+        assertEquals(Arrays.asList("docker", "exec", "-i", "castle-node0", "bash", "-l"),
+            command.makeCommandLine(false));
+    }
+
+    @Test
+    public void testRsyncCommandLines() {
+        DockerExecCommand command = command("castle");
+        command.syncTo("/tmp/broker.properties", "/mnt/kafka/broker.properties");
+        assertEquals(Arrays.asList("rsync", "-aqi", "--delete", "--blocking-io",
+            "-e", "docker exec -i --user castle",
+            "/tmp/broker.properties", "castle-node0:/mnt/kafka/broker.properties"),
+            command.makeCommandLine(false));
+
+        // The remote shell never uses a terminal.
+        command.syncFrom("/mnt/logs/", "/tmp/logs");
+        assertEquals(Arrays.asList("rsync", "-aqi", "--delete", "--blocking-io",
+            "-e", "docker exec -i --user castle",
+            "castle-node0:/mnt/logs/", "/tmp/logs"),
+            command.makeCommandLine(true));
+    }
+
+    @Test
+    public void testMissingArgs() {
+        try {
+            command("").makeCommandLine(false);
+            fail("Expected an exception, since there were no arguments.");
+        } catch (RuntimeException e) {
+            assertEquals("You must supply ssh arguments.", e.getMessage());
+        }
+        try {
+            DockerExecCommand command = command("");
+            command.syncTo(null, "/tmp/foo");
+            command.makeCommandLine(false);
+            fail("Expected an exception, since there was no local path.");
+        } catch (RuntimeException e) {
+            assertEquals("The local and remote paths must be non-null.", e.getMessage());
+        }
+    }
+}
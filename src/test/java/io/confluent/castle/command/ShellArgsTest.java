@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.confluent.castle.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShellArgsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testCommandStart() {
+        assertEquals(0, ShellArgs.commandStart(Collections.<String>emptyList()));
+        assertEquals(0, ShellArgs.commandStart(Arrays.asList("ls", "-n")));
+        assertEquals(1, ShellArgs.commandStart(Arrays.asList("-n", "ls")));
+        assertEquals(1, ShellArgs.commandStart(Arrays.asList("--", "ls")));
+        assertEquals(2, ShellArgs.commandStart(Arrays.asList("-n", "--", "ls")));
+        assertEquals(2, ShellArgs.commandStart(Arrays.asList("-n", "--")));
+        // Everything after "--" is part of the command, even "-n".
+        assertEquals(1, ShellArgs.commandStart(Arrays.asList("--", "-n", "ls")));
+        // Other options end the ssh options.
+        assertEquals(0, ShellArgs.commandStart(Arrays.asList("-x", "-n", "ls")));
+    }
+
+    @Test
+    public void testShellCommand() {
+        assertEquals("", ShellArgs.shellCommand(Collections.<String>emptyList()));
+        assertEquals("", ShellArgs.shellCommand(Arrays.asList("-n", "--")));
+        assertEquals("echo foo > /tmp/bar", ShellArgs.shellCommand(
+            Arrays.asList("-n", "--", "echo", "foo", ">", "/tmp/bar")));
+        assertEquals("-n echo $HOME", ShellArgs.shellCommand(
+            Arrays.asList("--", "-n", "echo", "$HOME")));
+        assertEquals("ls -n", ShellArgs.shellCommand(Arrays.asList("ls", "-n")));
+    }
+
+    @Test
+    public void testNoStdin() {
+        assertTrue(ShellArgs.noStdin(Arrays.asList("-n", "ls")));
+        assertTrue(ShellArgs.noStdin(Arrays.asList("-n", "--", "ls")));
+        assertFalse(ShellArgs.noStdin(Arrays.asList("--", "ls")));
+        assertFalse(ShellArgs.noStdin(Arrays.asList("--", "-n", "ls")));
+        assertFalse(ShellArgs.noStdin(Arrays.asList("ls", "-n")));
+        assertFalse(ShellArgs.noStdin(Collections.<String>emptyList()));
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.JmxColumnarReader.NumberText;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JmxColumnarFormatTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final List<String> COLUMNS = Arrays.asList(
+        "BytesIn:Count", "BytesIn:OneMinuteRate", "Errors:Count", "Controller:Value",
+        "LeaderCount:Value", "RequestQueueSize:Value", "UnderReplicated:Value",
+        "MaxLag:Value", "Partitions:Value", "IdlePercent:Value");
+
+    /**
+     * Create rows of samples which look like typical broker metrics.
+     *
+     * @param numRows       The number of rows to create.
+     * @param noisyRate     True if the rate column should change on every sample.
+     *                      Rates are exponentially weighted averages, so every
+     *                      bit of their mantissa changes, and they barely compress.
+     */
+    private static Object[][] createRows(int numRows, boolean noisyRate) {
+        Random random = new Random(123);
+        Object[][] rows = new Object[numRows][];
+        long bytesIn = 1000000;
+        double rate = 0;
+        for (int i = 0; i < numRows; i++) {
+            bytesIn += 40000 + random.nextInt(20000);
+            if (noisyRate) {
+                rate = (rate * 0.9) + (random.nextDouble() * 5000);
+            }
+            rows[i] = new Object[] {bytesIn, rate, 0, (i < numRows / 2) ? "broker1" : "broker2",
+                100, random.nextInt(4), 0, 0L, 300, (i < numRows / 3) ? 1.0 : 0.9};
+        }
+        return rows;
+    }
+
+    private static long rowTime(int row) {
+        return 1500000000000L + (row * 1000L) + (row % 3);
+    }
+
+    private static byte[] write(JmxFileWriter writer, ByteArrayOutputStream stream,
+                                Object[][] rows) throws Exception {
+        writer.writeHeader(COLUMNS);
+        for (int i = 0; i < rows.length; i++) {
+            writer.writeRow(rowTime(i), rows[i]);
+        }
+        writer.close();
+        return stream.toByteArray();
+    }
+
+    private static byte[] writeColumnar(Object[][] rows, int blockRows) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        return write(new JmxColumnarWriter(stream, blockRows), stream, rows);
+    }
+
+    private static byte[] writeCsv(Object[][] rows) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        return write(new JmxCsvWriter(stream), stream, rows);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Object[][] rows = createRows(1000, true);
+        byte[] data = writeColumnar(rows, 64);
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(data))) {
+            for (int i = 0; i < rows.length; i++) {
+                assertTrue(reader.next());
+                assertEquals(COLUMNS, reader.columns());
+                assertEquals(rowTime(i), reader.timeMs());
+                assertEquals(((Number) rows[i][0]).longValue(), reader.value(0));
+                assertEquals(rows[i][1], reader.value(1));
+                assertEquals(0L, reader.value(2));
+                assertEquals(rows[i][3], reader.value(3));
+                assertEquals(((Number) rows[i][5]).longValue(), reader.value(5));
+                assertEquals(rows[i][9], reader.value(9));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testSpecialValues() throws Exception {
+        Object[][] rows = new Object[][] {
+            {Long.MAX_VALUE, Double.NaN, 1.5f, true, 1, 1, 1, 1, 1, 1},
+            {Long.MIN_VALUE, Double.POSITIVE_INFINITY, 2, false, 1, 1, 1, 1, 1, 1},
+            {-1, -0.0, (short) 3, "x", 1, 1, 1, 1, 1, 1},
+            {Long.MAX_VALUE, Double.MIN_VALUE, 4L, "x", 1, 1, 1, 1, 1, 1},
+        };
+        byte[] data = writeColumnar(rows, 256);
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(data))) {
+            // The third column mixes floats and integers, so it is stored as text.
+            Object[][] expected = new Object[][] {
+                {Long.MAX_VALUE, Double.NaN, new NumberText("1.5"), "true"},
+                {Long.MIN_VALUE, Double.POSITIVE_INFINITY, new NumberText("2"), "false"},
+                {-1L, -0.0, new NumberText("3"), "x"},
+                {Long.MAX_VALUE, Double.MIN_VALUE, new NumberText("4"), "x"},
+            };
+            for (Object[] row : expected) {
+                assertTrue(reader.next());
+                for (int i = 0; i < row.length; i++) {
+                    assertEquals(row[i], reader.value(i));
+                }
+                assertEquals(1L, reader.value(9));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        Object[][] rows = createRows(100, true);
+        byte[] data = writeColumnar(rows, 30);
+        byte[] truncated = Arrays.copyOf(data, data.length - 5);
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(truncated))) {
+            int numRows = 0;
+            while (reader.next()) {
+                assertEquals(rowTime(numRows), reader.timeMs());
+                numRows++;
+            }
+            // The last block is incomplete, so it is skipped.
+            assertEquals(90, numRows);
+        }
+    }
+
+    @Test
+    public void testMissingColumnsAreNull() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        JmxColumnarFormat.BlockBuffer block = new JmxColumnarFormat.BlockBuffer();
+        block.writeVarLong(1);
+        block.writeVarLong(0);
+        block.writeBits(1000, 64);
+        stream.write(JmxColumnarFormat.MAGIC);
+        stream.write(JmxColumnarFormat.VERSION);
+        stream.write(JmxColumnarFormat.COLUMNS_RECORD);
+        JmxColumnarFormat.writeVarLong(stream, 1);
+        JmxColumnarFormat.writeString(stream, "foo");
+        stream.write(JmxColumnarFormat.BLOCK_RECORD);
+        JmxColumnarFormat.writeVarLong(stream, block.length());
+        block.writeTo(stream);
+        try (JmxColumnarReader reader = new JmxColumnarReader(
+                new ByteArrayInputStream(stream.toByteArray()))) {
+            assertTrue(reader.next());
+            assertEquals(1000L, reader.timeMs());
+            assertNull(reader.value(0));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testExportMatchesCsv() throws Exception {
+        Object[][] rows = createRows(500, true);
+        byte[] csv = writeCsv(rows);
+        byte[] columnar = writeColumnar(rows, 256);
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(columnar));
+             JmxCsvWriter writer = new JmxCsvWriter(exported)) {
+            assertEquals(500L, JmxExport.export(COLUMNS, reader, writer));
+        }
+        assertEquals(new String(csv, StandardCharsets.UTF_8),
+            new String(exported.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExportMatchesCsvForAllNumberTypes() throws Exception {
+        List<String> columns = Arrays.asList("Float:Value", "Mixed:Value",
+            "FloatAndDouble:Value", "BigInteger:Value", "BigDecimal:Value",
+            "AtomicLong:Value", "Flag:Value");
+        BigInteger big = BigInteger.ONE.shiftLeft(80);
+        Object[][] rows = new Object[][] {
+            {0.1f, 5, 0.1f, big, new BigDecimal("0.30"), new AtomicLong(Long.MAX_VALUE), true},
+            {Float.NaN, 1.5, 0.1, big.add(BigInteger.ONE), null, new AtomicLong(-1), false},
+            {-0.0f, 5L, null, big, new BigDecimal("1E+3"), new AtomicLong(Long.MIN_VALUE), null},
+        };
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        ByteArrayOutputStream columnar = new ByteArrayOutputStream();
+        for (JmxFileWriter writer : new JmxFileWriter[] {
+                new JmxCsvWriter(csv), new JmxColumnarWriter(columnar, 256)}) {
+            writer.writeHeader(columns);
+            for (int i = 0; i < rows.length; i++) {
+                writer.writeRow(rowTime(i), rows[i]);
+            }
+            writer.close();
+        }
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        try (JmxColumnarReader reader = new JmxColumnarReader(
+                new ByteArrayInputStream(columnar.toByteArray()));
+             JmxCsvWriter writer = new JmxCsvWriter(exported)) {
+            assertEquals(3L, JmxExport.export(columns, reader, writer));
+        }
+        String expected = new String(csv.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(expected, expected.contains(", 0.1, 5, 0.1, "));
+        assertEquals(expected, new String(exported.toByteArray(), StandardCharsets.UTF_8));
+        try (JmxColumnarReader reader = new JmxColumnarReader(
+                new ByteArrayInputStream(columnar.toByteArray()))) {
+            assertTrue(reader.next());
+            assertEquals(0.1f, reader.value(0));
+            assertEquals(Long.MAX_VALUE, reader.value(5));
+            assertEquals(new NumberText(big.toString()), reader.value(3));
+        }
+    }
+
+    @Test
+    public void testCompression() throws Exception {
+        Object[][] rows = createRows(3600, false);
+        byte[] csv = writeCsv(rows);
+        byte[] columnar = writeColumnar(rows, 256);
+        assertTrue("Expected the columnar file to be at least 10 times smaller than " +
+            "the CSV file, but it was " + columnar.length + " bytes versus " + csv.length,
+            columnar.length * 10 < csv.length);
+    }
+
+    @Test
+    public void testAddColumnsAndNulls() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (JmxColumnarWriter writer = new JmxColumnarWriter(stream, 4)) {
+            writer.writeHeader(Arrays.asList("a:Value"));
+            writer.writeRow(1000, new Object[] {1L});
+            writer.writeRow(2000, new Object[] {2L});
+            writer.addColumns(Arrays.asList("b[topic=foo]:Value", "c[topic=foo]:Name"));
+            writer.writeRow(3000, new Object[] {3L, 1.5, "x"});
+            writer.writeRow(4000, new Object[] {null, null, null});
+            writer.writeRow(5000, new Object[] {5L, null, "y"});
+            writer.writeRow(6000, new Object[] {6L, 2.5, "y"});
+        }
+        Object[][] expected = new Object[][] {
+            {1L, null, null},
+            {2L, null, null},
+            {3L, 1.5, "x"},
+            {null, null, null},
+            {5L, null, "y"},
+            {6L, 2.5, "y"},
+        };
+        byte[] data = stream.toByteArray();
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(data))) {
+            assertEquals(Arrays.asList("a:Value", "b[topic=foo]:Value", "c[topic=foo]:Name"),
+                reader.scanColumns());
+            assertFalse(reader.next());
+        }
+        try (JmxColumnarReader reader = new JmxColumnarReader(new ByteArrayInputStream(data))) {
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(reader.next());
+                assertEquals((i + 1) * 1000L, reader.timeMs());
+                for (int j = 0; j < expected[i].length; j++) {
+                    assertEquals(expected[i][j], reader.value(j));
+                }
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testBucketedRoundTrip() throws Exception {
+        long[] values = new long[] {0, 1, 127, 128, 16383, 16384, (1L << 28) - 1,
+            1L << 28, Long.MAX_VALUE, -1};
+        JmxColumnarFormat.BlockBuffer buffer = new JmxColumnarFormat.BlockBuffer();
+        for (long value : values) {
+            buffer.writeBucketed(value);
+        }
+        buffer.alignToByte();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        buffer.writeTo(stream);
+        JmxColumnarFormat.BlockReader reader = new JmxColumnarFormat.BlockReader();
+        byte[] bytes = stream.toByteArray();
+        System.arraycopy(bytes, 0, reader.reset(bytes.length), 0, bytes.length);
+        long[] results = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            results[i] = reader.readBucketed();
+        }
+        assertArrayEquals(values, results);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class JmxCsvWriterTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testAppendTimeMs() throws Exception {
+        long[] times = new long[] {0, 1, 10, 999, 1000, 1001, 1500000000123L, 1500000000990L};
+        for (long time : times) {
+            StringBuilder bld = new StringBuilder();
+            JmxCsvWriter.appendTimeMs(bld, time);
+            assertEquals(String.format(Locale.ROOT, "%.3f", time / 1000.0), bld.toString());
+        }
+    }
+
+    @Test
+    public void testWriteRows() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (JmxCsvWriter writer = new JmxCsvWriter(stream)) {
+            writer.writeHeader(Arrays.asList("a:Count", "b:Value"));
+            Object[] row = new Object[7];
+            row[0] = 12345678901L;
+            row[1] = 1.25;
+            row[2] = 0.1f;
+            row[3] = -7;
+            row[4] = "foo";
+            row[5] = true;
+            row[6] = null;
+            writer.writeRow(1500000000002L, row);
+            row[0] = 1L;
+            writer.writeRow(1500000001002L, row);
+        }
+        String nl = System.lineSeparator();
+        assertEquals("\"time\", \"a:Count\", \"b:Value\"" + nl +
+            "1500000000.002, 12345678901, 1.25, 0.1, -7, \"foo\", \"true\", " + nl +
+            "1500000001.002, 1, 1.25, 0.1, -7, \"foo\", \"true\", " + nl,
+            new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
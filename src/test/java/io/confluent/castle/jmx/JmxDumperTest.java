@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxDumperTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private final static int NUM_COUNTERS = 6;
+
+    private final static int NUM_CONNECTIONS = 3;
+
+    public interface CounterMBean {
+        long getValue();
+    }
+
+    public static final class Counter implements CounterMBean {
+        private final long value;
+        private final AtomicInteger reads = new AtomicInteger(0);
+        private volatile boolean broken = false;
+
+        Counter(long value) {
+            this.value = value;
+        }
+
+        @Override
+        public long getValue() {
+            reads.incrementAndGet();
+            if (broken) {
+                throw new RuntimeException("broken");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * A JMX endpoint on localhost which serves some counters from an
+     * in-process MBean server.
+     */
+    private static final class TestEndpoint implements AutoCloseable {
+        private final Registry registry;
+        private final JMXConnectorServer server;
+        private final List<Counter> counters = new ArrayList<>();
+        private final String endpoint;
+
+        TestEndpoint() throws Exception {
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            this.registry = LocateRegistry.createRegistry(port);
+            MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+            for (int i = 0; i < NUM_COUNTERS; i++) {
+                Counter counter = new Counter(i * 10);
+                mbeanServer.registerMBean(counter, new ObjectName(objectName(i)));
+                counters.add(counter);
+            }
+            this.server = JMXConnectorServerFactory.newJMXConnectorServer(
+                new JMXServiceURL(String.format(
+                    "service:jmx:rmi:///jndi/rmi://localhost:%d/jmxrmi", port)),
+                null, mbeanServer);
+            this.server.start();
+            this.endpoint = "localhost:" + port;
+        }
+
+        static String objectName(int i) {
+            return "castle.test:type=Counter,name=c" + i;
+        }
+
+        void awaitReads(int minReads) throws Exception {
+            for (Counter counter : counters) {
+                while (counter.reads.get() < minReads) {
+                    Thread.sleep(5);
+                }
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            server.stop();
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    private static JmxDumperConfig createConfig(File file) throws Exception {
+        List<JmxObjectConfig> objects = new ArrayList<>();
+        for (int i = 0; i < NUM_COUNTERS; i++) {
+            objects.add(new JmxObjectConfig(TestEndpoint.objectName(i), "c" + i,
+                Collections.singletonList("Value")));
+        }
+        return new JmxDumperConfig(10, 0, NUM_CONNECTIONS,
+            Collections.singletonList(new JmxFileConfig(file.getAbsolutePath(),
+                JmxFileConfig.CSV_FORMAT, 0, 0, objects)));
+    }
+
+    @Test
+    public void testDumpOverSeveralConnections() throws Exception {
+        File dir = Files.createTempDirectory("jmx-dumper-test").toFile();
+        File file = new File(dir, "counters.csv");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_CONNECTIONS);
+        try (TestEndpoint endpoint = new TestEndpoint()) {
+            JmxDumper.Completer completer = new JmxDumper.Completer(1);
+            JmxDumper dumper = new JmxDumper(endpoint.endpoint, createConfig(file),
+                completer, scheduler, workers);
+            dumper.start();
+            endpoint.awaitReads(6);
+            assertEquals(NUM_CONNECTIONS, endpoint.server.getConnectionIds().length);
+            dumper.shutdown();
+            completer.await();
+
+            List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            StringBuilder header = new StringBuilder("\"time\"");
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < NUM_COUNTERS; i++) {
+                header.append(", \"c").append(i).append(":Value\"");
+                values.append(", ").append(i * 10);
+            }
+            assertEquals(header.toString(), lines.get(0));
+            assertTrue("Expected at least 4 rows, but got " + (lines.size() - 1),
+                lines.size() >= 5);
+            long prevTime = 0;
+            for (String line : lines.subList(1, lines.size())) {
+                int comma = line.indexOf(',');
+                assertEquals(values.toString(), line.substring(comma));
+                long time = Math.round(Double.parseDouble(line.substring(0, comma)) * 1000);
+                assertTrue("Rows must be written in order", time > prevTime);
+                prevTime = time;
+            }
+        } finally {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testFailedChunkFailsDumper() throws Exception {
+        File dir = Files.createTempDirectory("jmx-dumper-test").toFile();
+        File file = new File(dir, "counters.csv");
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_CONNECTIONS);
+        try (TestEndpoint endpoint = new TestEndpoint()) {
+            JmxDumper.Completer completer = new JmxDumper.Completer(1);
+            JmxDumper dumper = new JmxDumper(endpoint.endpoint, createConfig(file),
+                completer, scheduler, workers);
+            try {
+                dumper.start();
+                endpoint.awaitReads(3);
+                endpoint.counters.get(NUM_COUNTERS - 1).broken = true;
+                try {
+                    completer.await();
+                    fail("Expected the dumper to fail");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause().getMessage(),
+                        e.getCause().getMessage().contains(TestEndpoint.objectName(NUM_COUNTERS - 1)));
+                }
+            } finally {
+                dumper.shutdown();
+            }
+        } finally {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+            file.delete();
+            dir.delete();
+        }
+    }
+}
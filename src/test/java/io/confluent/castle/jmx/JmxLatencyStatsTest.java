@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JmxLatencyStatsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testEmpty() throws Exception {
+        JmxLatencyStats stats = new JmxLatencyStats();
+        assertEquals(0, stats.samples());
+        assertEquals(0, stats.averageLatencyMs(), 0);
+        assertEquals("0 samples, average latency 0.0 ms, maximum 0 ms, 0 skipped",
+            stats.toString());
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        JmxLatencyStats stats1 = new JmxLatencyStats();
+        stats1.record(2);
+        stats1.record(10);
+        stats1.recordSkipped(3);
+        JmxLatencyStats stats2 = new JmxLatencyStats();
+        stats2.record(3);
+        JmxLatencyStats total = new JmxLatencyStats();
+        stats1.drainTo(total);
+        stats2.drainTo(total);
+        assertEquals(3, total.samples());
+        assertEquals(5, total.averageLatencyMs(), 0);
+        assertEquals(10, total.maxLatencyMs());
+        assertEquals(3, total.skipped());
+        assertEquals("3 samples, average latency 5.0 ms, maximum 10 ms, 3 skipped",
+            total.toString());
+        assertEquals(0, stats1.samples());
+        assertEquals(0, stats1.maxLatencyMs());
+        assertEquals(0, stats1.skipped());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JmxObjectConfigTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testInstanceShortName() throws Exception {
+        JmxObjectConfig exact = new JmxObjectConfig(
+            "kafka.server:type=ReplicaManager,name=LeaderCount", "LeaderCount",
+            Collections.singletonList("Value"));
+        assertFalse(exact.isPattern());
+
+        JmxObjectConfig values = new JmxObjectConfig(
+            "kafka.log:type=Log,name=Size,topic=*,partition=*", "LogSize",
+            Collections.singletonList("Value"));
+        assertTrue(values.isPattern());
+        assertEquals("LogSize[partition=3,topic=foo]", values.instanceShortName(
+            new ObjectName("kafka.log:type=Log,name=Size,topic=foo,partition=3")));
+
+        JmxObjectConfig list = new JmxObjectConfig(
+            "kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec,*", "BytesIn",
+            Collections.singletonList("Count"));
+        assertTrue(list.isPattern());
+        assertEquals("BytesIn[topic=bar]", list.instanceShortName(
+            new ObjectName("kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec,topic=bar")));
+        assertEquals("BytesIn", list.instanceShortName(
+            new ObjectName("kafka.server:type=BrokerTopicMetrics,name=BytesInPerSec")));
+
+        JmxObjectConfig domain = new JmxObjectConfig("kafka.*:type=app-info,id=*",
+            "AppInfo", Collections.emptyList());
+        assertEquals("AppInfo[kafka.server,id=0]", domain.instanceShortName(
+            new ObjectName("kafka.server:type=app-info,id=0")));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxSampleWheelTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static JmxSampleWheel<String> createWheel(Map<String, Integer> periods) {
+        return new JmxSampleWheel<>(Arrays.asList(periods.keySet().toArray(new String[0])),
+            periods::get);
+    }
+
+    @Test
+    public void testMultipleRates() throws Exception {
+        Map<String, Integer> periods = new HashMap<>();
+        periods.put("requests", 100);
+        periods.put("logSizes", 10000);
+        JmxSampleWheel<String> wheel = createWheel(periods);
+        assertEquals(100, wheel.tickMs());
+        assertEquals(100, wheel.numSlots());
+        assertEquals(Collections.singletonList("requests"), wheel.due(1500000000100L));
+        assertEquals(2, wheel.due(1500000000000L).size());
+        assertTrue(wheel.due(1500000010000L).contains("logSizes"));
+        assertSame(wheel.due(1500000000100L), wheel.due(1500000000200L));
+        assertEquals(2, wheel.dueLists().size());
+
+        // Instants are aligned to the wall clock, whenever we ask.
+        assertEquals(1500000000100L, wheel.nextInstant(1500000000000L));
+        assertEquals(1500000000100L, wheel.nextInstant(1500000000037L));
+        assertEquals(1500000000200L, wheel.nextInstant(1500000000100L));
+    }
+
+    @Test
+    public void testSkipEmptySlots() throws Exception {
+        Map<String, Integer> periods = new HashMap<>();
+        periods.put("a", 1500);
+        periods.put("b", 1000);
+        JmxSampleWheel<String> wheel = createWheel(periods);
+        assertEquals(500, wheel.tickMs());
+        assertEquals(6, wheel.numSlots());
+        // Nothing is due at 500, so the next instant after 0 is 1000.
+        assertEquals(1000L, wheel.nextInstant(0));
+        assertEquals(Collections.singletonList("b"), wheel.due(1000));
+        assertEquals(1500L, wheel.nextInstant(1000));
+        assertEquals(Collections.singletonList("a"), wheel.due(1500));
+        assertEquals(2000L, wheel.nextInstant(1500));
+        assertEquals(3000L, wheel.nextInstant(2000));
+        assertEquals(2, wheel.due(3000).size());
+        assertEquals(4000L, wheel.nextInstant(3100));
+    }
+
+    @Test
+    public void testInvalidPeriods() throws Exception {
+        Map<String, Integer> periods = new HashMap<>();
+        periods.put("a", 999);
+        periods.put("b", 1000);
+        try {
+            createWheel(periods);
+            fail("Expected unrelated periods to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("multiples"));
+        }
+        try {
+            new JmxSampleWheel<String>(Collections.<String>emptyList(), item -> 1000);
+            fail("Expected an empty wheel to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("nothing to sample"));
+        }
+        List<String> items = Collections.singletonList("a");
+        try {
+            new JmxSampleWheel<>(items, item -> 0);
+            fail("Expected a zero period to be rejected.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Invalid sampling period"));
+        }
+    }
+}
@@ -17,13 +17,26 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.cloud.FakeEc2Settings;
 import io.confluent.castle.common.CastleLog;
 
 import java.io.IOException;
 
 public class MockCastleEnvironment extends CastleEnvironment {
+    private final FakeEc2Settings fakeEc2Settings;
+
     public MockCastleEnvironment() {
+        this(null);
+    }
+
+    public MockCastleEnvironment(FakeEc2Settings fakeEc2Settings) {
         super("");
+        this.fakeEc2Settings = fakeEc2Settings;
+    }
+
+    @Override
+    public FakeEc2Settings fakeEc2Settings() {
+        return fakeEc2Settings;
     }
 
     @Override